@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.client;
+
+/**
+ * Thrown when the JSON-RPC endpoint answers with an error object or an unexpected response
+ */
+public class JsonRpcException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    public JsonRpcException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    /**
+     * Returns the JSON-RPC error code, -1 when the response itself could not be read
+     */
+    public int getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.client;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/**
+ * Non-blocking ICON JSON-RPC v3 transport built on the JDK HttpClient
+ */
+public class JsonRpcTransport {
+
+    private final HttpClient http;
+    private final URI endpoint;
+    private final Duration timeout;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * @param endpoint the JSON-RPC endpoint (ex: https://lisbon.net.solidwallet.io/api/v3)
+     */
+    public JsonRpcTransport(String endpoint) {
+        this(HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build(), endpoint, Duration.ofSeconds(30));
+    }
+
+    /**
+     * @param http the client used to send requests, shared so connections are pooled
+     * @param endpoint the JSON-RPC endpoint
+     * @param timeout the timeout of a single request
+     */
+    public JsonRpcTransport(HttpClient http, String endpoint, Duration timeout) {
+        this.http = http;
+        this.endpoint = URI.create(endpoint);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sends a JSON-RPC request
+     * @param method the JSON-RPC method (ex: icx_call)
+     * @param params the request params
+     * @return the result value, completed exceptionally with a JsonRpcException on error responses
+     */
+    public CompletableFuture<JsonValue> send(String method, JsonObject params) {
+        JsonObject body = Json.object()
+                .add("jsonrpc", "2.0")
+                .add("id", nextId.getAndIncrement())
+                .add("method", method)
+                .add("params", params);
+
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> readResult(response.body()));
+    }
+
+    /**
+     * Sends an icx_call to a SCORE readonly method
+     * @param score the SCORE address
+     * @param method the SCORE method
+     * @param params the method params
+     */
+    public CompletableFuture<JsonValue> call(String score, String method, JsonObject params) {
+        JsonObject data = Json.object().add("method", method);
+        if (params != null)
+            data.add("params", params);
+
+        return send("icx_call", Json.object()
+                .add("to", score)
+                .add("dataType", "call")
+                .add("data", data));
+    }
+
+    private static JsonValue readResult(String body) {
+        JsonObject response;
+        try {
+            response = Json.parse(body).asObject();
+        } catch (RuntimeException ex) {
+            throw new JsonRpcException(-1, "Unreadable JSON-RPC response: " + ex.getMessage());
+        }
+
+        JsonValue error = response.get("error");
+        if (error != null && !error.isNull()) {
+            JsonObject errorObject = error.asObject();
+            throw new JsonRpcException(errorObject.getInt("code", -1), errorObject.getString("message", ""));
+        }
+
+        JsonValue result = response.get("result");
+        if (result == null)
+            throw new JsonRpcException(-1, "JSON-RPC response has no result");
+        return result;
+    }
+}
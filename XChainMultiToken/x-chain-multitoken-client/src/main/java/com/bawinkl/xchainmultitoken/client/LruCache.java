@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread safe, least recently used cache
+ */
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> entries;
+
+    /**
+     * @param capacity the maximum number of entries, the least recently used entry is evicted beyond it
+     */
+    public LruCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes every entry whose key starts with the given prefix
+     */
+    public synchronized void removePrefix(String prefix) {
+        Iterator<K> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().toString().startsWith(prefix))
+                keys.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.client;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/**
+ * Asynchronous client for the XChainMultiToken SCORE
+ *
+ * Concurrent x_balanceOf calls issued within the coalescing window are merged into a single
+ * x_balanceOfBatch request, duplicate keys share one entry of the batch.
+ * Balances and approvals are kept in bounded LRU caches which are invalidated by the transfer and
+ * approval events passed to onEventLog, results of requests that were in flight when an
+ * invalidation happened are returned but not cached.
+ */
+public class XChainMultiTokenClient implements AutoCloseable {
+
+    public static final Duration DEFAULT_COALESCE_WINDOW = Duration.ofMillis(2);
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    private final JsonRpcTransport transport;
+    private final String scoreAddress;
+    private final String networkID;
+    private final long coalesceWindowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+
+    private final LruCache<String, BigInteger> balances;
+    private final LruCache<String, Boolean> approvals;
+    // Incremented on every invalidation, responses requested under an older epoch are not cached
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final Object pendingLock = new Object();
+    private LinkedHashMap<String, PendingBalance> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> pendingFlush;
+
+    /**
+     * @param transport the JSON-RPC transport
+     * @param scoreAddress the XChainMultiToken SCORE address
+     * @param networkID the network ID of the SCORE, used to normalize plain addresses into network addresses
+     */
+    public XChainMultiTokenClient(JsonRpcTransport transport, String scoreAddress, String networkID) {
+        this(transport, scoreAddress, networkID, DEFAULT_COALESCE_WINDOW, DEFAULT_MAX_BATCH_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param transport the JSON-RPC transport
+     * @param scoreAddress the XChainMultiToken SCORE address
+     * @param networkID the network ID of the SCORE, used to normalize plain addresses into network addresses
+     * @param coalesceWindow how long a x_balanceOf call waits for others to join its batch
+     * @param maxBatchSize the batch is sent immediately once it holds this many distinct keys
+     * @param cacheSize the capacity of the balance and approval caches, 0 disables caching
+     */
+    public XChainMultiTokenClient(JsonRpcTransport transport, String scoreAddress, String networkID,
+            Duration coalesceWindow, int maxBatchSize, int cacheSize) {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+
+        this.transport = transport;
+        this.scoreAddress = scoreAddress;
+        this.networkID = networkID;
+        this.coalesceWindowNanos = coalesceWindow.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.balances = cacheSize > 0 ? new LruCache<>(cacheSize) : null;
+        this.approvals = cacheSize > 0 ? new LruCache<>(cacheSize) : null;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "xchainmultitoken-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // ================================================
+    // Balances
+    // ================================================
+
+    /**
+     * Returns the balance of an owner for a token, served from the cache or coalesced into a x_balanceOfBatch request
+     * @param owner the owner in icon address, network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address]) format
+     * @param id the token ID
+     */
+    public CompletableFuture<BigInteger> x_balanceOf(String owner, BigInteger id) {
+        String normalized = normalize(owner);
+        String key = balanceKey(normalized, id);
+
+        if (balances != null) {
+            BigInteger cached = balances.get(key);
+            if (cached != null)
+                return CompletableFuture.completedFuture(cached);
+        }
+
+        PendingBalance entry;
+        boolean flushNow = false;
+        synchronized (pendingLock) {
+            entry = pending.get(key);
+            if (entry == null) {
+                entry = new PendingBalance(normalized, id);
+                pending.put(key, entry);
+                if (pending.size() >= maxBatchSize)
+                    flushNow = true;
+                else if (pendingFlush == null)
+                    pendingFlush = scheduler.schedule(this::flush, coalesceWindowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (flushNow)
+            flush();
+        return entry.future;
+    }
+
+    /**
+     * Returns the balances of a set of owners and ids in a single request, bypassing the coalescer
+     * Results are written to the cache
+     * @param owners the owners in any of the formats accepted by x_balanceOf
+     * @param ids the token IDs
+     */
+    public CompletableFuture<List<BigInteger>> x_balanceOfBatch(List<String> owners, List<BigInteger> ids) {
+        if (owners.size() != ids.size())
+            throw new IllegalArgumentException("owners and ids must have the same size");
+
+        List<String> normalized = new ArrayList<>(owners.size());
+        for (String owner : owners)
+            normalized.add(normalize(owner));
+
+        long requestEpoch = epoch.get();
+        return requestBalances(normalized, ids).thenApply(values -> {
+            for (int i = 0; i < values.size(); i++)
+                cacheBalance(requestEpoch, balanceKey(normalized.get(i), ids.get(i)), values.get(i));
+            return values;
+        });
+    }
+
+    /**
+     * Sends the pending x_balanceOf calls as one x_balanceOfBatch request
+     */
+    public void flush() {
+        LinkedHashMap<String, PendingBalance> batch;
+        synchronized (pendingLock) {
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+                pendingFlush = null;
+            }
+            if (pending.isEmpty())
+                return;
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        List<String> owners = new ArrayList<>(batch.size());
+        List<BigInteger> ids = new ArrayList<>(batch.size());
+        for (PendingBalance entry : batch.values()) {
+            owners.add(entry.owner);
+            ids.add(entry.id);
+        }
+
+        long requestEpoch = epoch.get();
+        requestBalances(owners, ids).whenComplete((values, error) -> {
+            int i = 0;
+            for (Map.Entry<String, PendingBalance> entry : batch.entrySet()) {
+                if (error != null) {
+                    entry.getValue().future.completeExceptionally(error);
+                } else {
+                    BigInteger value = values.get(i++);
+                    cacheBalance(requestEpoch, entry.getKey(), value);
+                    entry.getValue().future.complete(value);
+                }
+            }
+        });
+    }
+
+    private CompletableFuture<List<BigInteger>> requestBalances(List<String> owners, List<BigInteger> ids) {
+        JsonArray ownersParam = Json.array();
+        JsonArray idsParam = Json.array();
+        for (int i = 0; i < owners.size(); i++) {
+            ownersParam.add(owners.get(i));
+            idsParam.add(toHex(ids.get(i)));
+        }
+
+        return transport.call(scoreAddress, "x_balanceOfBatch", Json.object()
+                .add("_owners", ownersParam)
+                .add("_ids", idsParam))
+                .thenApply(result -> {
+                    JsonArray array = result.asArray();
+                    if (array.size() != owners.size())
+                        throw new JsonRpcException(-1, "x_balanceOfBatch returned " + array.size() + " balances for " + owners.size() + " queries");
+
+                    List<BigInteger> values = new ArrayList<>(array.size());
+                    for (int i = 0; i < array.size(); i++)
+                        values.add(fromHex(array.get(i).asString()));
+                    return values;
+                });
+    }
+
+    private void cacheBalance(long requestEpoch, String key, BigInteger value) {
+        if (balances != null && epoch.get() == requestEpoch)
+            balances.put(key, value);
+    }
+
+    // ================================================
+    // Approvals
+    // ================================================
+
+    /**
+     * Returns whether an operator is approved to transfer all of an owner's tokens, served from the cache when possible
+     * @param owner the owner in any of the formats accepted by x_balanceOf
+     * @param operator the operator in any of the formats accepted by x_balanceOf
+     */
+    public CompletableFuture<Boolean> x_isApprovedForAll(String owner, String operator) {
+        String normalizedOwner = normalize(owner);
+        String normalizedOperator = normalize(operator);
+        String key = normalizedOwner + "|" + normalizedOperator;
+
+        if (approvals != null) {
+            Boolean cached = approvals.get(key);
+            if (cached != null)
+                return CompletableFuture.completedFuture(cached);
+        }
+
+        long requestEpoch = epoch.get();
+        return transport.call(scoreAddress, "x_isApprovedForAll", Json.object()
+                .add("_owner", normalizedOwner)
+                .add("_operator", normalizedOperator))
+                .thenApply(result -> {
+                    Boolean approved = fromHex(result.asString()).signum() != 0;
+                    if (approvals != null && epoch.get() == requestEpoch)
+                        approvals.put(key, approved);
+                    return approved;
+                });
+    }
+
+    // ================================================
+    // Token Information
+    // ================================================
+
+    /**
+     * Returns the URI of a token, null when the token has none
+     * @param id the token ID
+     */
+    public CompletableFuture<String> tokenURI(BigInteger id) {
+        return transport.call(scoreAddress, "tokenURI", Json.object().add("_id", toHex(id)))
+                .thenApply(result -> result.isNull() ? null : result.asString());
+    }
+
+    /**
+     * Returns the supply of a token on the SCORE's network
+     * @param id the token ID
+     */
+    public CompletableFuture<BigInteger> totalSupply(BigInteger id) {
+        return transport.call(scoreAddress, "totalSupply", Json.object().add("_id", toHex(id)))
+                .thenApply(result -> fromHex(result.asString()));
+    }
+
+    /**
+     * Returns a page of the token catalog, a {"total", "tokens"} object where each token has id, uri, creator and supply
+     * @param offset the position of the first id to return
+     * @param limit the maximum number of ids to return
+     */
+    public CompletableFuture<JsonObject> tokens(int offset, int limit) {
+        return transport.call(scoreAddress, "tokens", Json.object()
+                .add("_offset", toHex(BigInteger.valueOf(offset)))
+                .add("_limit", toHex(BigInteger.valueOf(limit))))
+                .thenApply(JsonValue::asObject);
+    }
+
+    /**
+     * Returns a page of the ids created by a creator, in the format of tokens
+     * @param creator the creator in any of the formats accepted by x_balanceOf
+     * @param offset the position of the first id to return
+     * @param limit the maximum number of ids to return
+     */
+    public CompletableFuture<JsonObject> creatorTokens(String creator, int offset, int limit) {
+        return transport.call(scoreAddress, "creatorTokens", Json.object()
+                .add("_creator", normalize(creator))
+                .add("_offset", toHex(BigInteger.valueOf(offset)))
+                .add("_limit", toHex(BigInteger.valueOf(limit))))
+                .thenApply(JsonValue::asObject);
+    }
+
+    /**
+     * Returns the network ID configured on the SCORE
+     */
+    public CompletableFuture<String> getNetworkID() {
+        return transport.call(scoreAddress, "getNetworkID", null)
+                .thenApply(JsonValue::asString);
+    }
+
+    /**
+     * Runs a batch of readonly queries in a single multicall request, results are returned raw and not cached
+     * @param types the query type of each entry: "balance", "approval", "uri", "creator" or "supply"
+     * @param accounts the owner of balance and approval queries, "" otherwise
+     * @param operators the operator of approval queries, "" otherwise
+     * @param ids the token ID of balance, uri, creator and supply queries, 0 otherwise
+     * @return the result of each query: a hex int for balance and supply, "0x1" or "0x0" for approval, a string for uri and creator
+     */
+    public CompletableFuture<JsonArray> multicall(List<String> types, List<String> accounts, List<String> operators,
+            List<BigInteger> ids) {
+        JsonArray typesParam = Json.array();
+        JsonArray accountsParam = Json.array();
+        JsonArray operatorsParam = Json.array();
+        JsonArray idsParam = Json.array();
+        for (int i = 0; i < types.size(); i++) {
+            typesParam.add(types.get(i));
+            accountsParam.add(accounts.get(i));
+            operatorsParam.add(operators.get(i));
+            idsParam.add(toHex(ids.get(i)));
+        }
+
+        return transport.call(scoreAddress, "multicall", Json.object()
+                .add("_types", typesParam)
+                .add("_accounts", accountsParam)
+                .add("_operators", operatorsParam)
+                .add("_ids", idsParam))
+                .thenApply(JsonValue::asArray);
+    }
+
+    // ================================================
+    // Cache Invalidation
+    // ================================================
+
+    /**
+     * Invalidates cached entries affected by an event log of a transaction result
+     * Logs of other contracts and unrelated events are ignored
+     * @param eventLog an entry of the eventLogs array of a transaction result ({"scoreAddress", "indexed", "data"})
+     */
+    public void onEventLog(JsonObject eventLog) {
+        if (!scoreAddress.equals(eventLog.getString("scoreAddress", scoreAddress)))
+            return;
+
+        List<String> indexed = toStrings(eventLog.get("indexed"));
+        List<String> data = toStrings(eventLog.get("data"));
+        onEventLog(indexed, data);
+    }
+
+    /**
+     * Invalidates cached entries affected by an event log
+     * @param indexed the indexed values of the log, the first one being the event signature
+     * @param data the data values of the log
+     */
+    public void onEventLog(List<String> indexed, List<String> data) {
+        if (indexed.isEmpty())
+            return;
+
+        String signature = indexed.get(0);
+        String name = signature.substring(0, Math.max(0, signature.indexOf('(')));
+        switch (name) {
+            case "x_TransferSingle":
+            case "TransferSingle":
+                if (indexed.size() >= 4 && !data.isEmpty()) {
+                    BigInteger id = fromHex(data.get(0));
+                    invalidateBalance(indexed.get(2), id);
+                    invalidateBalance(indexed.get(3), id);
+                }
+                break;
+            case "x_TransferBatch":
+            case "TransferBatch":
+                // The ids of batch events are not worth decoding, every balance of both parties is dropped
+                if (indexed.size() >= 4) {
+                    invalidateOwner(indexed.get(2));
+                    invalidateOwner(indexed.get(3));
+                }
+                break;
+            case "BridgeReceived":
+                if (indexed.size() >= 4)
+                    invalidateBalance(indexed.get(2), fromHex(indexed.get(3)));
+                break;
+            case "x_ApprovalForAll":
+            case "ApprovalForAll":
+                if (indexed.size() >= 3)
+                    invalidateApproval(indexed.get(1), indexed.get(2));
+                break;
+            case "x_ApprovalForAllBatch":
+                if (indexed.size() >= 2)
+                    invalidateApprovals(indexed.get(1));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Drops the cached balance of an owner for a token
+     */
+    public void invalidateBalance(String owner, BigInteger id) {
+        epoch.incrementAndGet();
+        if (balances != null)
+            balances.remove(balanceKey(normalize(owner), id));
+    }
+
+    /**
+     * Drops every cached balance and approval of an owner
+     */
+    public void invalidateOwner(String owner) {
+        epoch.incrementAndGet();
+        String prefix = normalize(owner) + "|";
+        if (balances != null)
+            balances.removePrefix(prefix);
+        if (approvals != null)
+            approvals.removePrefix(prefix);
+    }
+
+    /**
+     * Drops the cached approval of an operator for an owner
+     */
+    public void invalidateApproval(String owner, String operator) {
+        epoch.incrementAndGet();
+        if (approvals != null)
+            approvals.remove(normalize(owner) + "|" + normalize(operator));
+    }
+
+    /**
+     * Drops every cached approval of an owner
+     */
+    public void invalidateApprovals(String owner) {
+        epoch.incrementAndGet();
+        if (approvals != null)
+            approvals.removePrefix(normalize(owner) + "|");
+    }
+
+    /**
+     * Drops every cached entry
+     */
+    public void invalidateAll() {
+        epoch.incrementAndGet();
+        if (balances != null)
+            balances.clear();
+        if (approvals != null)
+            approvals.clear();
+    }
+
+    /**
+     * Sends the pending x_balanceOf calls and stops the coalescer
+     */
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    // ================================================
+    // Utility Methods
+    // ================================================
+
+    /**
+     * Normalizes an address into the network address format ([NetworkID]/[Address]) so every format of an owner shares cache entries
+     * The address is lowercased the way the SCORE parses network addresses, event logs carry the lowercase form
+     */
+    String normalize(String address) {
+        String value = address.trim().toLowerCase();
+        if (value.startsWith("btp://"))
+            value = value.substring("btp://".length());
+        if (value.indexOf('/') < 0)
+            value = networkID + "/" + value;
+        return value;
+    }
+
+    private static String balanceKey(String normalizedOwner, BigInteger id) {
+        return normalizedOwner + "|" + id.toString(16);
+    }
+
+    private static String toHex(BigInteger value) {
+        return value.signum() < 0 ? "-0x" + value.negate().toString(16) : "0x" + value.toString(16);
+    }
+
+    private static BigInteger fromHex(String value) {
+        if (value.startsWith("-0x"))
+            return new BigInteger(value.substring(3), 16).negate();
+        if (value.startsWith("0x"))
+            return new BigInteger(value.substring(2), 16);
+        return new BigInteger(value);
+    }
+
+    private static List<String> toStrings(JsonValue value) {
+        List<String> strings = new ArrayList<>();
+        if (value == null || !value.isArray())
+            return strings;
+        JsonArray array = value.asArray();
+        for (int i = 0; i < array.size(); i++) {
+            JsonValue item = array.get(i);
+            strings.add(item.isString() ? item.asString() : item.toString());
+        }
+        return strings;
+    }
+
+    private static final class PendingBalance {
+        final String owner;
+        final BigInteger id;
+        final CompletableFuture<BigInteger> future = new CompletableFuture<>();
+
+        PendingBalance(String owner, BigInteger id) {
+            this.owner = owner;
+            this.id = id;
+        }
+    }
+}
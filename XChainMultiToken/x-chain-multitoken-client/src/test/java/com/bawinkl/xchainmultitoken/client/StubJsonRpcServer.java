@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local JSON-RPC endpoint answering icx_call requests with a handler, every request is recorded
+ */
+class StubJsonRpcServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final List<JsonObject> calls = new CopyOnWriteArrayList<>();
+    private volatile Function<JsonObject, JsonValue> handler;
+
+    /**
+     * @param handler maps the data of an icx_call ({"method", "params"}) to its result, throw a JsonRpcException to answer with an error
+     */
+    StubJsonRpcServer(Function<JsonObject, JsonValue> handler) throws IOException {
+        this.handler = handler;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/api/v3", this::handle);
+        this.server.start();
+    }
+
+    String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v3";
+    }
+
+    /**
+     * Returns the data of every icx_call received so far
+     */
+    List<JsonObject> calls() {
+        return calls;
+    }
+
+    void setHandler(Function<JsonObject, JsonValue> handler) {
+        this.handler = handler;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonObject request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = Json.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8)).asObject();
+        }
+
+        JsonObject data = request.get("params").asObject().get("data").asObject();
+        calls.add(data);
+
+        JsonObject response = Json.object()
+                .add("jsonrpc", "2.0")
+                .add("id", request.get("id"));
+        try {
+            response.add("result", handler.apply(data));
+        } catch (JsonRpcException ex) {
+            response.add("error", Json.object().add("code", ex.getCode()).add("message", ex.getMessage()));
+        }
+
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.client;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class XChainMultiTokenClientTest {
+    private static final String SCORE = "cx0000000000000000000000000000000000000001";
+    private static final String NETWORK_ID = "0x1.icon";
+    private static final String ALICE = "hx00000000000000000000000000000000000a11ce";
+    private static final String BOB = "hx0000000000000000000000000000000000000b0b";
+    private static final Duration WINDOW = Duration.ofMillis(50);
+
+    private StubJsonRpcServer server;
+    private JsonRpcTransport transport;
+    // The balance answered for every owner and id is its position in the batch plus this offset
+    private volatile int balanceOffset = 100;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        server = new StubJsonRpcServer(this::answer);
+        transport = new JsonRpcTransport(server.endpoint());
+    }
+
+    @AfterEach
+    public void teardown() {
+        server.close();
+    }
+
+    // ================================================
+    // Batching
+    // ================================================
+
+    @Test
+    public void coalescesConcurrentBalanceQueriesIntoOneBatch() throws Exception {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            CompletableFuture<BigInteger> first = client.x_balanceOf(ALICE, BigInteger.ONE);
+            CompletableFuture<BigInteger> second = client.x_balanceOf(BOB, BigInteger.ONE);
+            CompletableFuture<BigInteger> third = client.x_balanceOf(ALICE, BigInteger.TWO);
+            CompletableFuture<BigInteger> duplicate = client.x_balanceOf(ALICE, BigInteger.ONE);
+
+            assertEquals(BigInteger.valueOf(100), get(first));
+            assertEquals(BigInteger.valueOf(101), get(second));
+            assertEquals(BigInteger.valueOf(102), get(third));
+            assertEquals(BigInteger.valueOf(100), get(duplicate));
+        }
+
+        assertEquals(1, server.calls().size());
+        JsonObject call = server.calls().get(0);
+        assertEquals("x_balanceOfBatch", call.getString("method", ""));
+        JsonArray owners = call.get("params").asObject().get("_owners").asArray();
+        assertEquals(3, owners.size());
+        assertEquals(NETWORK_ID + "/" + ALICE, owners.get(0).asString());
+        assertEquals("0x2", call.get("params").asObject().get("_ids").asArray().get(2).asString());
+    }
+
+    @Test
+    public void sendsTheBatchOnceItIsFull() throws Exception {
+        try (XChainMultiTokenClient client = client(Duration.ofSeconds(30), 2, 100)) {
+            CompletableFuture<BigInteger> first = client.x_balanceOf(ALICE, BigInteger.ONE);
+            CompletableFuture<BigInteger> second = client.x_balanceOf(BOB, BigInteger.ONE);
+
+            // The window is far longer than the timeout, the batch must go out because it is full
+            assertEquals(BigInteger.valueOf(100), get(first));
+            assertEquals(BigInteger.valueOf(101), get(second));
+            assertEquals(1, server.calls().size());
+        }
+    }
+
+    @Test
+    public void failsEveryQueryOfAFailedBatch() throws Exception {
+        server.setHandler(data -> {
+            throw new JsonRpcException(-30001, "boom");
+        });
+
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            CompletableFuture<BigInteger> first = client.x_balanceOf(ALICE, BigInteger.ONE);
+            CompletableFuture<BigInteger> second = client.x_balanceOf(BOB, BigInteger.ONE);
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> get(first));
+            assertTrue(error.getCause() instanceof JsonRpcException);
+            assertEquals(-30001, ((JsonRpcException) error.getCause()).getCode());
+            assertThrows(ExecutionException.class, () -> get(second));
+        }
+    }
+
+    // ================================================
+    // Caching
+    // ================================================
+
+    @Test
+    public void servesRepeatedQueriesFromTheCache() throws Exception {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            assertEquals(BigInteger.valueOf(100), get(client.x_balanceOf(ALICE, BigInteger.ONE)));
+            balanceOffset = 500;
+            assertEquals(BigInteger.valueOf(100), get(client.x_balanceOf(ALICE, BigInteger.ONE)));
+        }
+        assertEquals(1, server.calls().size());
+    }
+
+    @Test
+    public void sharesCacheEntriesAcrossAddressFormats() throws Exception {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+            get(client.x_balanceOf(ALICE.toUpperCase().replace("HX", "hx"), BigInteger.ONE));
+            get(client.x_balanceOf(NETWORK_ID + "/" + ALICE.toUpperCase(), BigInteger.ONE));
+            get(client.x_balanceOf("btp://" + NETWORK_ID + "/" + ALICE, BigInteger.ONE));
+        }
+        assertEquals(1, server.calls().size());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedBalance() throws Exception {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 2)) {
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+            get(client.x_balanceOf(BOB, BigInteger.ONE));
+            // Reading ALICE makes BOB the least recently used entry
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+            get(client.x_balanceOf(ALICE, BigInteger.TWO));
+            assertEquals(3, server.calls().size());
+
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+            assertEquals(3, server.calls().size());
+            get(client.x_balanceOf(BOB, BigInteger.ONE));
+            assertEquals(4, server.calls().size());
+        }
+    }
+
+    @Test
+    public void lruCacheEvictsInAccessOrder() {
+        LruCache<String, Integer> cache = new LruCache<>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+        assertEquals(2, cache.size());
+
+        cache.removePrefix("a");
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    // ================================================
+    // Invalidation
+    // ================================================
+
+    @Test
+    public void transferEventsInvalidateBothParties() throws Exception {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+            get(client.x_balanceOf(BOB, BigInteger.ONE));
+            get(client.x_balanceOf(BOB, BigInteger.TWO));
+            assertEquals(3, server.calls().size());
+
+            client.onEventLog(eventLog("x_TransferSingle(str,str,str,int,int)",
+                    List.of(NETWORK_ID + "/" + ALICE, NETWORK_ID + "/" + ALICE, NETWORK_ID + "/" + BOB),
+                    List.of("0x1", "0x5")));
+
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+            get(client.x_balanceOf(BOB, BigInteger.ONE));
+            // The other id of BOB is still cached
+            get(client.x_balanceOf(BOB, BigInteger.TWO));
+            assertEquals(5, server.calls().size());
+        }
+    }
+
+    @Test
+    public void ignoresEventsOfOtherContracts() throws Exception {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+
+            JsonObject log = eventLog("x_TransferSingle(str,str,str,int,int)",
+                    List.of(ALICE, ALICE, BOB), List.of("0x1", "0x5"));
+            log.set("scoreAddress", "cx00000000000000000000000000000000000000ff");
+            client.onEventLog(log);
+
+            get(client.x_balanceOf(ALICE, BigInteger.ONE));
+            assertEquals(1, server.calls().size());
+        }
+    }
+
+    @Test
+    public void approvalEventsInvalidateApprovals() throws Exception {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            assertFalse(get(client.x_isApprovedForAll(ALICE, BOB)));
+            assertFalse(get(client.x_isApprovedForAll(ALICE, BOB)));
+            assertEquals(1, server.calls().size());
+
+            client.onEventLog(eventLog("x_ApprovalForAll(str,str,bool)",
+                    List.of(NETWORK_ID + "/" + ALICE, NETWORK_ID + "/" + BOB), List.of("0x1")));
+            assertFalse(get(client.x_isApprovedForAll(ALICE, BOB)));
+            assertEquals(2, server.calls().size());
+
+            client.onEventLog(eventLog("x_ApprovalForAllBatch(str,bytes,int)",
+                    List.of(NETWORK_ID + "/" + ALICE), List.of("0x", "0x1")));
+            assertFalse(get(client.x_isApprovedForAll(ALICE, BOB)));
+            assertEquals(3, server.calls().size());
+        }
+    }
+
+    @Test
+    public void doesNotCacheResponsesRequestedBeforeAnInvalidation() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server.setHandler(data -> {
+            received.countDown();
+            await(release);
+            return answer(data);
+        });
+
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            CompletableFuture<BigInteger> inFlight = client.x_balanceOf(ALICE, BigInteger.ONE);
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+
+            client.invalidateBalance(ALICE, BigInteger.ONE);
+            release.countDown();
+            // The stale answer is still returned to its caller
+            assertEquals(BigInteger.valueOf(100), get(inFlight));
+
+            server.setHandler(this::answer);
+            balanceOffset = 200;
+            assertEquals(BigInteger.valueOf(200), get(client.x_balanceOf(ALICE, BigInteger.ONE)));
+            assertEquals(2, server.calls().size());
+        }
+    }
+
+    @Test
+    public void normalizesAddresses() {
+        try (XChainMultiTokenClient client = client(WINDOW, 100, 100)) {
+            String expected = NETWORK_ID + "/" + ALICE;
+            assertEquals(expected, client.normalize(ALICE));
+            assertEquals(expected, client.normalize(" " + ALICE.toUpperCase() + " "));
+            assertEquals(expected, client.normalize("btp://" + NETWORK_ID + "/" + ALICE));
+            assertEquals(expected, client.normalize(NETWORK_ID + "/HX" + ALICE.substring(2).toUpperCase()));
+        }
+    }
+
+    private XChainMultiTokenClient client(Duration window, int maxBatchSize, int cacheSize) {
+        return new XChainMultiTokenClient(transport, SCORE, NETWORK_ID, window, maxBatchSize, cacheSize);
+    }
+
+    private JsonValue answer(JsonObject data) {
+        String method = data.getString("method", "");
+        JsonObject params = data.get("params").asObject();
+        switch (method) {
+            case "x_balanceOfBatch": {
+                JsonArray result = Json.array();
+                for (int i = 0; i < params.get("_owners").asArray().size(); i++)
+                    result.add("0x" + Integer.toHexString(balanceOffset + i));
+                return result;
+            }
+            case "x_isApprovedForAll":
+                return Json.value("0x0");
+            default:
+                throw new JsonRpcException(-32601, "Method not found: " + method);
+        }
+    }
+
+    private static JsonObject eventLog(String signature, List<String> indexed, List<String> data) {
+        JsonArray indexedArray = Json.array().add(signature);
+        for (String value : indexed)
+            indexedArray.add(value);
+        JsonArray dataArray = Json.array();
+        for (String value : data)
+            dataArray.add(value);
+        return Json.object()
+                .add("scoreAddress", SCORE)
+                .add("indexed", indexedArray)
+                .add("data", dataArray);
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.genesis;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs genesis items into the RLP chunks accepted by "import" bulk jobs and computes the hash to declare in createJob
+ *
+ * Every item is encoded as [id, owner, balance, creator, uri]. A chunk is closed once it holds maxItems items or
+ * adding the next item would take it over maxBytes, so each chunk fits a single addJobChunk transaction.
+ * The declared hash chains the chunks in order: h = sha3-256(h || chunk), starting from 32 zero bytes.
+ */
+public class GenesisChunkBuilder {
+
+    private final int maxItems;
+    private final int maxBytes;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private ByteArrayOutputStream current = new ByteArrayOutputStream();
+    private int currentItems;
+    private long itemCount;
+
+    /**
+     * @param maxItems the maximum number of items per chunk
+     * @param maxBytes the maximum encoded size of a chunk
+     */
+    public GenesisChunkBuilder(int maxItems, int maxBytes) {
+        if (maxItems <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("maxItems and maxBytes must be positive");
+        this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds an item
+     * @param id the token ID
+     * @param owner the owner in network address format ([NetworkID]/[Address]), blank for items that only declare a token
+     * @param balance the owner's balance
+     * @param creator the creator in network address format, required the first time an id appears
+     * @param uri the token URI, blank to leave it unset
+     */
+    public void add(BigInteger id, String owner, BigInteger balance, String creator, String uri) {
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        fields.writeBytes(Rlp.encodeBigInteger(id));
+        fields.writeBytes(Rlp.encodeString(owner));
+        fields.writeBytes(Rlp.encodeBigInteger(balance));
+        fields.writeBytes(Rlp.encodeString(creator));
+        fields.writeBytes(Rlp.encodeString(uri));
+        byte[] item = Rlp.encodeList(fields.toByteArray());
+
+        int size = current.size() + item.length;
+        if (currentItems > 0 && size + Rlp.listHeaderSize(size) > maxBytes)
+            flush();
+        if (item.length + Rlp.listHeaderSize(item.length) > maxBytes)
+            throw new IllegalArgumentException("Item of token " + id + " does not fit in a chunk of " + maxBytes + " bytes");
+
+        current.writeBytes(item);
+        currentItems++;
+        itemCount++;
+        if (currentItems >= maxItems)
+            flush();
+    }
+
+    /**
+     * Closes the last chunk and returns every chunk in upload order
+     */
+    public List<byte[]> build() {
+        flush();
+        return chunks;
+    }
+
+    public long getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Returns the chained sha3-256 hash of the chunks to declare in createJob
+     */
+    public static byte[] declaredHash(List<byte[]> chunks) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA3-256");
+            byte[] hash = new byte[32];
+            for (byte[] chunk : chunks) {
+                digest.update(hash);
+                digest.update(chunk);
+                hash = digest.digest();
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA3-256 is not available", ex);
+        }
+    }
+
+    private void flush() {
+        if (currentItems == 0)
+            return;
+        chunks.add(Rlp.encodeList(current.toByteArray()));
+        current = new ByteArrayOutputStream();
+        currentItems = 0;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.genesis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Converts a CSV dump of token state into genesis import chunks
+ *
+ * Usage: GenesisImportTool <input.csv> <output.txt> [maxItems] [maxBytes]
+ *
+ * Every CSV line is id,owner,balance,creator,uri where id and balance are decimal or 0x prefixed hex, owner and creator
+ * are network addresses ([NetworkID]/[Address]) and uri is the rest of the line. A first line starting with "id," is
+ * treated as a header. The output has one 0x prefixed hex chunk per line, to be uploaded in order with addJobChunk
+ * after creating an "import" job with the printed hash.
+ */
+public class GenesisImportTool {
+
+    public static final int DEFAULT_MAX_ITEMS = 200;
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: GenesisImportTool <input.csv> <output.txt> [maxItems] [maxBytes]");
+            System.exit(1);
+        }
+
+        int maxItems = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_ITEMS;
+        int maxBytes = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MAX_BYTES;
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(maxItems, maxBytes);
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.startsWith("id,")))
+                    continue;
+                addLine(builder, line, lineNumber);
+            }
+        }
+
+        List<byte[]> chunks = builder.build();
+        Path output = Paths.get(args[1]);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8))) {
+            for (byte[] chunk : chunks)
+                writer.println(toHex(chunk));
+        }
+
+        System.out.println("items=" + builder.getItemCount());
+        System.out.println("chunks=" + chunks.size());
+        System.out.println("hash=" + toHex(GenesisChunkBuilder.declaredHash(chunks)));
+    }
+
+    /**
+     * Parses a CSV line and adds its item to the builder
+     * Throws an IllegalArgumentException naming the line if it is malformed or has a negative id or balance
+     */
+    static void addLine(GenesisChunkBuilder builder, String line, int lineNumber) {
+        String[] fields = line.split(",", 5);
+        if (fields.length < 4)
+            throw new IllegalArgumentException("Line " + lineNumber + ": expected id,owner,balance,creator,uri");
+
+        try {
+            builder.add(
+                    parseInteger(fields[0]),
+                    fields[1].trim(),
+                    parseInteger(fields[2]),
+                    fields[3].trim(),
+                    fields.length > 4 ? unquote(fields[4].trim()) : "");
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private static BigInteger parseInteger(String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty())
+            return BigInteger.ZERO;
+        BigInteger parsed = trimmed.startsWith("0x")
+                ? new BigInteger(trimmed.substring(2), 16)
+                : new BigInteger(trimmed);
+        if (parsed.signum() < 0)
+            throw new NumberFormatException("negative value " + trimmed);
+        return parsed;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+            return value.substring(1, value.length() - 1).replace("\"\"", "\"");
+        return value;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(2 + bytes.length * 2).append("0x");
+        for (byte b : bytes)
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return builder.toString();
+    }
+}
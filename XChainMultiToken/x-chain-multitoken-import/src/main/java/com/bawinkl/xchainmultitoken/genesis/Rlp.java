@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.genesis;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The subset of the RLP encoding written by the SCORE's "RLPn" object writer that genesis chunks need:
+ * byte strings, UTF-8 strings, two's complement integers and lists
+ */
+final class Rlp {
+
+    private Rlp() {
+    }
+
+    static byte[] encodeString(String value) {
+        return encodeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static byte[] encodeBigInteger(BigInteger value) {
+        return encodeBytes(value.toByteArray());
+    }
+
+    static byte[] encodeBytes(byte[] value) {
+        if (value.length == 1 && (value[0] & 0xff) < 0x80)
+            return value;
+        return concat(header(0x80, value.length), value);
+    }
+
+    /**
+     * Wraps already encoded items into a list
+     */
+    static byte[] encodeList(byte[] encodedItems) {
+        return concat(header(0xc0, encodedItems.length), encodedItems);
+    }
+
+    /**
+     * Returns the size of a list header for a payload of the given length
+     */
+    static int listHeaderSize(int payloadLength) {
+        return header(0xc0, payloadLength).length;
+    }
+
+    private static byte[] header(int offset, int length) {
+        if (length <= 55)
+            return new byte[] { (byte) (offset + length) };
+
+        byte[] lengthBytes = BigInteger.valueOf(length).toByteArray();
+        int start = lengthBytes[0] == 0 ? 1 : 0;
+        int size = lengthBytes.length - start;
+        byte[] header = new byte[1 + size];
+        header[0] = (byte) (offset + 55 + size);
+        System.arraycopy(lengthBytes, start, header, 1, size);
+        return header;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(a.length + b.length);
+        out.writeBytes(a);
+        out.writeBytes(b);
+        return out.toByteArray();
+    }
+}
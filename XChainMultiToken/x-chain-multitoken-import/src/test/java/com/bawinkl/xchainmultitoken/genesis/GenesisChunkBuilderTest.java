@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.genesis;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GenesisChunkBuilderTest {
+    private static final String OWNER = "0x1.icon/hx0000000000000000000000000000000000000001";
+    private static final String CREATOR = "0x1.icon/hx0000000000000000000000000000000000000002";
+
+    @Test
+    public void encodesItemsAsRlpLists() {
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(10, 1024);
+        builder.add(BigInteger.ONE, OWNER, BigInteger.TEN, CREATOR, "uri");
+        List<byte[]> chunks = builder.build();
+
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        fields.writeBytes(Rlp.encodeBigInteger(BigInteger.ONE));
+        fields.writeBytes(Rlp.encodeString(OWNER));
+        fields.writeBytes(Rlp.encodeBigInteger(BigInteger.TEN));
+        fields.writeBytes(Rlp.encodeString(CREATOR));
+        fields.writeBytes(Rlp.encodeString("uri"));
+        byte[] expected = Rlp.encodeList(Rlp.encodeList(fields.toByteArray()));
+
+        assertEquals(1, chunks.size());
+        assertArrayEquals(expected, chunks.get(0));
+        assertEquals(1L, builder.getItemCount());
+    }
+
+    @Test
+    public void closesChunksAtTheItemLimit() {
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(3, 64 * 1024);
+        for (int i = 0; i < 7; i++)
+            builder.add(BigInteger.valueOf(i), OWNER, BigInteger.ONE, CREATOR, "");
+
+        List<byte[]> chunks = builder.build();
+        assertEquals(3, chunks.size());
+        assertEquals(7L, builder.getItemCount());
+    }
+
+    @Test
+    public void closesChunksAtTheByteLimit() {
+        int maxBytes = 400;
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(1000, maxBytes);
+        for (int i = 0; i < 50; i++)
+            builder.add(BigInteger.valueOf(i), OWNER, BigInteger.ONE, CREATOR, "ipfs://" + "x".repeat(60));
+
+        List<byte[]> chunks = builder.build();
+        assertTrue(chunks.size() > 1);
+        for (byte[] chunk : chunks)
+            assertTrue(chunk.length <= maxBytes, "chunk of " + chunk.length + " bytes");
+    }
+
+    @Test
+    public void rejectsAnItemLargerThanAChunk() {
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(10, 100);
+        assertThrows(IllegalArgumentException.class,
+                () -> builder.add(BigInteger.ONE, OWNER, BigInteger.ONE, CREATOR, "x".repeat(100)));
+    }
+
+    @Test
+    public void chainsTheDeclaredHash() throws Exception {
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(1, 1024);
+        builder.add(BigInteger.ONE, OWNER, BigInteger.ONE, CREATOR, "");
+        builder.add(BigInteger.TWO, OWNER, BigInteger.ONE, CREATOR, "");
+        List<byte[]> chunks = builder.build();
+
+        MessageDigest digest = MessageDigest.getInstance("SHA3-256");
+        byte[] hash = new byte[32];
+        for (byte[] chunk : chunks) {
+            digest.update(hash);
+            digest.update(chunk);
+            hash = digest.digest();
+        }
+
+        assertEquals(2, chunks.size());
+        assertArrayEquals(hash, GenesisChunkBuilder.declaredHash(chunks));
+        assertArrayEquals(new byte[32], GenesisChunkBuilder.declaredHash(List.of()));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.genesis;
+
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class GenesisImportToolTest {
+    private static final String OWNER = "0x1.icon/hx0000000000000000000000000000000000000001";
+    private static final String CREATOR = "0x1.icon/hx0000000000000000000000000000000000000002";
+
+    @Test
+    public void parsesDecimalAndHexIntegers() {
+        assertLine("7," + OWNER + ",100," + CREATOR + ",uri",
+                BigInteger.valueOf(7), OWNER, BigInteger.valueOf(100), CREATOR, "uri");
+        assertLine("0x1f, " + OWNER + " ,0x0a," + CREATOR + ",uri",
+                BigInteger.valueOf(31), OWNER, BigInteger.TEN, CREATOR, "uri");
+    }
+
+    @Test
+    public void parsesZeroAndBlankValues() {
+        assertLine("0,,0," + CREATOR + ",", BigInteger.ZERO, "", BigInteger.ZERO, CREATOR, "");
+        assertLine("5,,," + CREATOR, BigInteger.valueOf(5), "", BigInteger.ZERO, CREATOR, "");
+    }
+
+    @Test
+    public void keepsCommasInQuotedUris() {
+        assertLine("1," + OWNER + ",1," + CREATOR + ",\"ipfs://a,b,c\"",
+                BigInteger.ONE, OWNER, BigInteger.ONE, CREATOR, "ipfs://a,b,c");
+        assertLine("1," + OWNER + ",1," + CREATOR + ",\"say \"\"hi\"\", then go\"",
+                BigInteger.ONE, OWNER, BigInteger.ONE, CREATOR, "say \"hi\", then go");
+        // an unquoted uri keeps everything after the fourth comma
+        assertLine("1," + OWNER + ",1," + CREATOR + ",https://x/?a=1,b=2",
+                BigInteger.ONE, OWNER, BigInteger.ONE, CREATOR, "https://x/?a=1,b=2");
+    }
+
+    @Test
+    public void keepsLongUris() {
+        String uri = "ipfs://" + "q".repeat(120);
+        assertLine("1," + OWNER + ",1," + CREATOR + "," + uri, BigInteger.ONE, OWNER, BigInteger.ONE, CREATOR, uri);
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(10, 1024);
+        assertThrows(IllegalArgumentException.class, () -> GenesisImportTool.addLine(builder, "1," + OWNER + ",1", 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> GenesisImportTool.addLine(builder, "one," + OWNER + ",1," + CREATOR + ",", 3));
+        assertThrows(IllegalArgumentException.class,
+                () -> GenesisImportTool.addLine(builder, "-1," + OWNER + ",1," + CREATOR + ",", 4));
+        assertThrows(IllegalArgumentException.class,
+                () -> GenesisImportTool.addLine(builder, "1," + OWNER + ",-5," + CREATOR + ",", 5));
+    }
+
+    private static void assertLine(String line, BigInteger id, String owner, BigInteger balance, String creator,
+            String uri) {
+        GenesisChunkBuilder parsed = new GenesisChunkBuilder(10, 1024);
+        GenesisImportTool.addLine(parsed, line, 1);
+
+        GenesisChunkBuilder expected = new GenesisChunkBuilder(10, 1024);
+        expected.add(id, owner, balance, creator, uri);
+
+        assertArrayEquals(expected.build().get(0), parsed.build().get(0));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.genesis;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RlpTest {
+
+    @Test
+    public void encodesSmallIntegersAsASingleByte() {
+        assertArrayEquals(bytes(0x00), Rlp.encodeBigInteger(BigInteger.ZERO));
+        assertArrayEquals(bytes(0x01), Rlp.encodeBigInteger(BigInteger.ONE));
+        assertArrayEquals(bytes(0x7f), Rlp.encodeBigInteger(BigInteger.valueOf(127)));
+    }
+
+    @Test
+    public void encodesIntegersInTwosComplement() {
+        // 128 needs a leading zero byte to stay positive
+        assertArrayEquals(bytes(0x82, 0x00, 0x80), Rlp.encodeBigInteger(BigInteger.valueOf(128)));
+        assertArrayEquals(bytes(0x82, 0x01, 0x00), Rlp.encodeBigInteger(BigInteger.valueOf(256)));
+        assertArrayEquals(bytes(0x81, 0xff), Rlp.encodeBigInteger(BigInteger.valueOf(-1)));
+        assertArrayEquals(bytes(0x81, 0x80), Rlp.encodeBigInteger(BigInteger.valueOf(-128)));
+        assertArrayEquals(bytes(0x82, 0xff, 0x7f), Rlp.encodeBigInteger(BigInteger.valueOf(-129)));
+    }
+
+    @Test
+    public void encodesStrings() {
+        assertArrayEquals(bytes(0x80), Rlp.encodeString(""));
+        assertArrayEquals(bytes('a'), Rlp.encodeString("a"));
+        assertArrayEquals(bytes(0x83, 'a', 'b', 'c'), Rlp.encodeString("abc"));
+    }
+
+    @Test
+    public void usesALongHeaderAbove55Bytes() {
+        byte[] encoded55 = Rlp.encodeString("x".repeat(55));
+        assertEquals(56, encoded55.length);
+        assertEquals(0xb7, encoded55[0] & 0xff);
+
+        byte[] encoded56 = Rlp.encodeString("x".repeat(56));
+        assertEquals(58, encoded56.length);
+        assertArrayEquals(bytes(0xb8, 56), Arrays.copyOf(encoded56, 2));
+        assertEquals("x".repeat(56), new String(encoded56, 2, 56, StandardCharsets.UTF_8));
+
+        byte[] encoded300 = Rlp.encodeBytes(new byte[300]);
+        assertEquals(303, encoded300.length);
+        assertArrayEquals(bytes(0xb9, 0x01, 0x2c), Arrays.copyOf(encoded300, 3));
+    }
+
+    @Test
+    public void encodesLists() {
+        assertArrayEquals(bytes(0xc0), Rlp.encodeList(new byte[0]));
+        assertArrayEquals(bytes(0xc2, 0x01, 0x02), Rlp.encodeList(bytes(0x01, 0x02)));
+
+        byte[] list = Rlp.encodeList(new byte[56]);
+        assertEquals(58, list.length);
+        assertArrayEquals(bytes(0xf8, 56), Arrays.copyOf(list, 2));
+
+        byte[] longList = Rlp.encodeList(new byte[1024]);
+        assertArrayEquals(bytes(0xf9, 0x04, 0x00), Arrays.copyOf(longList, 3));
+    }
+
+    @Test
+    public void computesListHeaderSizes() {
+        assertEquals(1, Rlp.listHeaderSize(0));
+        assertEquals(1, Rlp.listHeaderSize(55));
+        assertEquals(2, Rlp.listHeaderSize(56));
+        assertEquals(2, Rlp.listHeaderSize(255));
+        assertEquals(3, Rlp.listHeaderSize(256));
+        assertEquals(4, Rlp.listHeaderSize(65536));
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            result[i] = (byte) values[i];
+        return result;
+    }
+}
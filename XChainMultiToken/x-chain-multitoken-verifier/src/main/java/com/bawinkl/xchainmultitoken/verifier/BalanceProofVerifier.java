@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.verifier;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Verifies the balance proofs returned by XChainMultiToken.getBalanceProof against a balanceRoot.
+ * The tree is a compact binary sparse Merkle tree keyed by sha3-256(id|owner):
+ * leaf hash = sha3-256(0x00 || key hash || balance bytes), node hash = sha3-256(0x01 || left || right),
+ * an empty subtree hashes to 32 zero bytes.
+ */
+public final class BalanceProofVerifier {
+
+    private static final byte[] EMPTY_NODE_HASH = new byte[32];
+
+    private BalanceProofVerifier() {
+    }
+
+    /**
+     * Returns the tree key of an owner's balance
+     * @param id the token ID
+     * @param owner the owner in network address format ([NetworkID]/[Address]), lower case
+     */
+    public static byte[] keyHash(BigInteger id, String owner) {
+        return sha3((id.toString() + "|" + owner).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the leaf hash committing to a balance
+     * @param keyHash the tree key
+     * @param balance the balance
+     */
+    public static byte[] leafHash(byte[] keyHash, BigInteger balance) {
+        return sha3(concat(new byte[] { 0 }, keyHash, balance.toByteArray()));
+    }
+
+    /**
+     * Verifies that an owner holds exactly the given balance of a token
+     * @param root the balanceRoot the proof was generated against
+     * @param id the token ID
+     * @param owner the owner in network address format ([NetworkID]/[Address]), lower case
+     * @param balance the claimed balance
+     * @param leafLevel the leafLevel of the proof
+     * @param siblings the siblings of the proof, ordered from the leaf level up to the root
+     */
+    public static boolean verifyBalance(byte[] root, BigInteger id, String owner, BigInteger balance, int leafLevel,
+            List<byte[]> siblings) {
+        byte[] key = keyHash(id, owner);
+        return Arrays.equals(root, computeRoot(key, leafHash(key, balance), leafLevel, siblings));
+    }
+
+    /**
+     * Verifies that an owner has no committed balance of a token
+     * @param root the balanceRoot the proof was generated against
+     * @param id the token ID
+     * @param owner the owner in network address format ([NetworkID]/[Address]), lower case
+     * @param leafKeyHash the leafKeyHash of the proof, empty if the path ends in an empty subtree
+     * @param leafHash the leafHash of the proof, empty if the path ends in an empty subtree
+     * @param leafLevel the leafLevel of the proof
+     * @param siblings the siblings of the proof, ordered from the leaf level up to the root
+     */
+    public static boolean verifyAbsent(byte[] root, BigInteger id, String owner, byte[] leafKeyHash, byte[] leafHash,
+            int leafLevel, List<byte[]> siblings) {
+        byte[] key = keyHash(id, owner);
+        if (leafKeyHash.length == 0)
+            return Arrays.equals(root, computeRoot(key, EMPTY_NODE_HASH, leafLevel, siblings));
+
+        // Another leaf occupies the path, it must share the key prefix down to its level
+        if (Arrays.equals(leafKeyHash, key))
+            return false;
+        BigInteger a = new BigInteger(1, key);
+        BigInteger b = new BigInteger(1, leafKeyHash);
+        if (!a.shiftRight(256 - leafLevel).equals(b.shiftRight(256 - leafLevel)))
+            return false;
+        return Arrays.equals(root, computeRoot(key, leafHash, leafLevel, siblings));
+    }
+
+    /**
+     * Hashes a node up to the root along the path of a key
+     */
+    static byte[] computeRoot(byte[] keyHash, byte[] nodeHash, int leafLevel, List<byte[]> siblings) {
+        if (siblings.size() != leafLevel)
+            return null;
+
+        BigInteger key = new BigInteger(1, keyHash);
+        byte[] hash = nodeHash;
+        for (int i = 0; i < siblings.size(); i++) {
+            int level = leafLevel - 1 - i;
+            byte[] sibling = siblings.get(i);
+            hash = key.testBit(255 - level)
+                    ? sha3(concat(new byte[] { 1 }, sibling, hash))
+                    : sha3(concat(new byte[] { 1 }, hash, sibling));
+        }
+        return hash;
+    }
+
+    private static byte[] sha3(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA3-256").digest(data);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA3-256 is not available", ex);
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b, byte[] c) {
+        byte[] result = new byte[a.length + b.length + c.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        System.arraycopy(c, 0, result, a.length + b.length, c.length);
+        return result;
+    }
+}
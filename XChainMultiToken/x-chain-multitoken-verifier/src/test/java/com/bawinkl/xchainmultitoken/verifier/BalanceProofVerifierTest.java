@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.xchainmultitoken.verifier;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the verifier against proofs built by an in-memory copy of the SCORE's compact sparse Merkle tree.
+ */
+public class BalanceProofVerifierTest {
+    private static final BigInteger ID = BigInteger.valueOf(40);
+    private static final byte[] EMPTY = new byte[32];
+
+    // owner => balance, the committed leaves of the tree
+    private final Map<String, BigInteger> balances = new LinkedHashMap<>();
+    private byte[] root;
+
+    @BeforeEach
+    public void setup() {
+        for (int i = 0; i < 24; i++) {
+            balances.put("0x38.bsc/0x" + Integer.toHexString(0xa000 + i), BigInteger.valueOf(i + 1));
+        }
+        root = TreeNode.build(leaves(), 0).hash;
+    }
+
+    @Test
+    public void verifiesEveryCommittedBalance() {
+        for (Map.Entry<String, BigInteger> entry : balances.entrySet()) {
+            Proof proof = prove(entry.getKey());
+            assertArrayEquals(BalanceProofVerifier.keyHash(ID, entry.getKey()), proof.leafKeyHash);
+            assertTrue(BalanceProofVerifier.verifyBalance(root, ID, entry.getKey(), entry.getValue(), proof.leafLevel,
+                    proof.siblings), entry.getKey());
+            assertFalse(BalanceProofVerifier.verifyBalance(root, ID, entry.getKey(), entry.getValue().add(BigInteger.ONE),
+                    proof.leafLevel, proof.siblings), entry.getKey());
+            assertFalse(BalanceProofVerifier.verifyBalance(root, ID.add(BigInteger.ONE), entry.getKey(), entry.getValue(),
+                    proof.leafLevel, proof.siblings), entry.getKey());
+        }
+    }
+
+    @Test
+    public void verifiesASingleLeafTree() {
+        String holder = "0x1.icon/hx0000000000000000000000000000000000000001";
+        byte[] singleRoot = BalanceProofVerifier.leafHash(BalanceProofVerifier.keyHash(ID, holder), BigInteger.TEN);
+        assertTrue(BalanceProofVerifier.verifyBalance(singleRoot, ID, holder, BigInteger.TEN, 0, List.of()));
+        assertFalse(BalanceProofVerifier.verifyBalance(singleRoot, ID, holder, BigInteger.TEN, 1, List.of(EMPTY)));
+    }
+
+    @Test
+    public void rejectsTamperedSiblings() {
+        String holder = balances.keySet().iterator().next();
+        Proof proof = prove(holder);
+        assertTrue(proof.leafLevel > 0);
+
+        for (int i = 0; i < proof.siblings.size(); i++) {
+            List<byte[]> tampered = new ArrayList<>(proof.siblings);
+            byte[] sibling = tampered.get(i).clone();
+            sibling[31] ^= 1;
+            tampered.set(i, sibling);
+            assertFalse(BalanceProofVerifier.verifyBalance(root, ID, holder, balances.get(holder), proof.leafLevel, tampered));
+        }
+
+        // Swapping two siblings moves them to the wrong levels
+        if (proof.siblings.size() > 1) {
+            List<byte[]> swapped = new ArrayList<>(proof.siblings);
+            swapped.set(0, proof.siblings.get(1));
+            swapped.set(1, proof.siblings.get(0));
+            assertFalse(BalanceProofVerifier.verifyBalance(root, ID, holder, balances.get(holder), proof.leafLevel, swapped));
+        }
+    }
+
+    @Test
+    public void rejectsAWrongLeafLevel() {
+        String holder = balances.keySet().iterator().next();
+        Proof proof = prove(holder);
+        BigInteger balance = balances.get(holder);
+
+        assertFalse(BalanceProofVerifier.verifyBalance(root, ID, holder, balance, proof.leafLevel + 1, proof.siblings));
+        assertFalse(BalanceProofVerifier.verifyBalance(root, ID, holder, balance, proof.leafLevel - 1, proof.siblings));
+
+        // A leaf claimed one level deeper, padded with an empty sibling, hashes to a different root
+        List<byte[]> padded = new ArrayList<>();
+        padded.add(EMPTY);
+        padded.addAll(proof.siblings);
+        assertFalse(BalanceProofVerifier.verifyBalance(root, ID, holder, balance, proof.leafLevel + 1, padded));
+    }
+
+    @Test
+    public void provesAbsenceThroughAnotherLeafOrAnEmptySubtree() {
+        boolean throughLeaf = false;
+        boolean throughEmpty = false;
+        for (int i = 0; i < 200 && !(throughLeaf && throughEmpty); i++) {
+            String absent = "0x1.eth/0x" + Integer.toHexString(0xb000 + i);
+            Proof proof = prove(absent);
+            assertTrue(BalanceProofVerifier.verifyAbsent(root, ID, absent, proof.leafKeyHash, proof.leafHash,
+                    proof.leafLevel, proof.siblings), absent);
+            if (proof.leafKeyHash.length == 0) {
+                throughEmpty = true;
+            } else {
+                throughLeaf = true;
+                // The leaf found on the path cannot be claimed as empty
+                assertFalse(BalanceProofVerifier.verifyAbsent(root, ID, absent, new byte[0], new byte[0],
+                        proof.leafLevel, proof.siblings), absent);
+            }
+        }
+        assertTrue(throughLeaf);
+        assertTrue(throughEmpty);
+    }
+
+    @Test
+    public void rejectsAbsenceOfACommittedOwner() {
+        for (String holder : balances.keySet()) {
+            Proof proof = prove(holder);
+            assertFalse(BalanceProofVerifier.verifyAbsent(root, ID, holder, proof.leafKeyHash, proof.leafHash,
+                    proof.leafLevel, proof.siblings), holder);
+            assertFalse(BalanceProofVerifier.verifyAbsent(root, ID, holder, new byte[0], new byte[0],
+                    proof.leafLevel, proof.siblings), holder);
+        }
+    }
+
+    @Test
+    public void rejectsAbsenceThroughALeafOfAnotherPrefix() {
+        String holder = balances.keySet().iterator().next();
+        Proof holderProof = prove(holder);
+
+        // Another leaf of the tree that does not share the absent key's prefix down to the proof level
+        for (int i = 0; i < 200; i++) {
+            String absent = "0x1.eth/0x" + Integer.toHexString(0xc000 + i);
+            BigInteger key = new BigInteger(1, BalanceProofVerifier.keyHash(ID, absent));
+            BigInteger other = new BigInteger(1, holderProof.leafKeyHash);
+            int level = holderProof.leafLevel;
+            if (key.shiftRight(256 - level).equals(other.shiftRight(256 - level)))
+                continue;
+            assertFalse(BalanceProofVerifier.verifyAbsent(root, ID, absent, holderProof.leafKeyHash, holderProof.leafHash,
+                    level, holderProof.siblings), absent);
+            return;
+        }
+        throw new AssertionError("No key outside the holder's prefix was found");
+    }
+
+    // ================================================
+    // Reference tree
+    // ================================================
+
+    private List<byte[][]> leaves() {
+        List<byte[][]> leaves = new ArrayList<>();
+        for (Map.Entry<String, BigInteger> entry : balances.entrySet()) {
+            byte[] key = BalanceProofVerifier.keyHash(ID, entry.getKey());
+            leaves.add(new byte[][] { key, BalanceProofVerifier.leafHash(key, entry.getValue()) });
+        }
+        return leaves;
+    }
+
+    /**
+     * Walks the path of an owner's key down to a leaf or an empty subtree, as getBalanceProof does
+     */
+    private Proof prove(String owner) {
+        BigInteger key = new BigInteger(1, BalanceProofVerifier.keyHash(ID, owner));
+        List<byte[][]> subtree = leaves();
+        List<byte[]> topDown = new ArrayList<>();
+        int level = 0;
+        while (subtree.size() > 1) {
+            List<byte[][]> onPath = new ArrayList<>();
+            List<byte[][]> offPath = new ArrayList<>();
+            for (byte[][] leaf : subtree) {
+                boolean bit = new BigInteger(1, leaf[0]).testBit(255 - level);
+                (bit == key.testBit(255 - level) ? onPath : offPath).add(leaf);
+            }
+            topDown.add(TreeNode.build(offPath, level + 1).hash);
+            subtree = onPath;
+            level++;
+        }
+
+        Proof proof = new Proof();
+        proof.leafLevel = level;
+        proof.leafKeyHash = subtree.isEmpty() ? new byte[0] : subtree.get(0)[0];
+        proof.leafHash = subtree.isEmpty() ? new byte[0] : subtree.get(0)[1];
+        proof.siblings = new ArrayList<>();
+        for (int i = topDown.size() - 1; i >= 0; i--) {
+            proof.siblings.add(topDown.get(i));
+        }
+        return proof;
+    }
+
+    private static class Proof {
+        int leafLevel;
+        byte[] leafKeyHash;
+        byte[] leafHash;
+        List<byte[]> siblings;
+    }
+
+    private static class TreeNode {
+        final byte[] hash;
+
+        private TreeNode(byte[] hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * Hashes the subtree holding the given leaves, a single leaf sits as high as its prefix is unique
+         */
+        static TreeNode build(List<byte[][]> leaves, int level) {
+            if (leaves.isEmpty())
+                return new TreeNode(EMPTY);
+            if (leaves.size() == 1)
+                return new TreeNode(leaves.get(0)[1]);
+
+            List<byte[][]> left = new ArrayList<>();
+            List<byte[][]> right = new ArrayList<>();
+            for (byte[][] leaf : leaves) {
+                (new BigInteger(1, leaf[0]).testBit(255 - level) ? right : left).add(leaf);
+            }
+            byte[] l = build(left, level + 1).hash;
+            byte[] r = build(right, level + 1).hash;
+            byte[] node = new byte[65];
+            node[0] = 1;
+            System.arraycopy(l, 0, node, 1, 32);
+            System.arraycopy(r, 0, node, 33, 32);
+            return new TreeNode(sha3(node));
+        }
+    }
+
+    private static byte[] sha3(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA3-256").digest(data);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+import scorex.util.ArrayList;
+
+/**
+ * Sparse Merkle commitment of the balances of the token ids that opted in.
+ *
+ * Committed balances form a compact binary sparse Merkle tree keyed by sha3-256(id|owner). A leaf sits at the
+ * shallowest level where its key prefix is unique, so an update hashes and writes about log2(leaves) nodes instead
+ * of one node per key bit. Every node is cached in storage under its level and key prefix:
+ * leaf hash = sha3-256(0x00 || key hash || balance bytes), node hash = sha3-256(0x01 || left || right),
+ * an empty subtree hashes to 32 zero bytes. The x-chain-multitoken-verifier library checks proofs off-chain.
+ */
+class BalanceCommitments {
+
+    // ================================================
+    // Consts
+    // ================================================
+    private static final byte[] EMPTY_NODE_HASH = new byte[32];
+    // Width and positions of the cost counters packed into varStats
+    private static final int FIELD_BITS = 64;
+    private static final BigInteger FIELD_MASK = BigInteger.ONE.shiftLeft(FIELD_BITS).subtract(BigInteger.ONE);
+    private static final int UPDATES = 0;
+    private static final int HASHES = 1;
+    private static final int NODE_WRITES = 2;
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // id => whether its balances are committed
+    private final DictDB<BigInteger, Boolean> dbCommittedIds = Context.newDictDB("committed_ids", Boolean.class);
+    // "level|prefix" => 0x00 || key hash || leaf hash for leaves, 0x01 || node hash for internal nodes
+    private final DictDB<String, byte[]> dbNodes = Context.newDictDB("commitment_nodes", byte[].class);
+    // Packed cumulative update, hash and node write counts
+    private final VarDB<BigInteger> varStats = Context.newVarDB("commitment_stats", BigInteger.class);
+
+    private final OperationalStats operationalStats;
+
+    BalanceCommitments(OperationalStats operationalStats) {
+        this.operationalStats = operationalStats;
+    }
+
+    boolean isCommitted(BigInteger id) {
+        return dbCommittedIds.getOrDefault(id, false);
+    }
+
+    void setCommitted(BigInteger id, boolean committed) {
+        dbCommittedIds.set(id, committed);
+    }
+
+    byte[] root() {
+        return _nodeHash(dbNodes.get(_path(0, BigInteger.ZERO)));
+    }
+
+    /**
+     * Returns the proof of an owner's committed balance, see XChainMultiToken.getBalanceProof
+     */
+    Map<String, Object> proof(BigInteger id, String ownerKey, BigInteger balance) {
+        byte[] keyHash = _key(id, ownerKey);
+        BigInteger key = new BigInteger(1, keyHash);
+
+        ArrayList<byte[]> topDown = new ArrayList<>();
+        int level = 0;
+        byte[] node = dbNodes.get(_path(0, BigInteger.ZERO));
+        while (node != null && node[0] == 1) {
+            BigInteger childPrefix = key.shiftRight(255 - level);
+            topDown.add(_nodeHash(dbNodes.get(_path(level + 1, childPrefix.flipBit(0)))));
+            level++;
+            node = dbNodes.get(_path(level, childPrefix));
+        }
+
+        List<byte[]> siblings = new ArrayList<>(topDown.size());
+        for (int i = topDown.size() - 1; i >= 0; i--) {
+            siblings.add(topDown.get(i));
+        }
+
+        return Map.of(
+                "root", root(),
+                "keyHash", keyHash,
+                "balance", balance,
+                "leafLevel", level,
+                "leafKeyHash", node == null ? new byte[0] : _slice(node, 1, 32),
+                "leafHash", node == null ? new byte[0] : _slice(node, 33, 32),
+                "siblings", siblings);
+    }
+
+    Map<String, Object> stats() {
+        BigInteger packed = varStats.getOrDefault(BigInteger.ZERO);
+        return Map.of(
+                "updates", _field(packed, UPDATES),
+                "hashes", _field(packed, HASHES),
+                "nodeWrites", _field(packed, NODE_WRITES));
+    }
+
+    /**
+     * Inserts or updates a leaf and recomputes the nodes on its path up to the root
+     * An update costs depth + 2 hashes, about depth sibling reads and depth + 1 node writes
+     */
+    void commit(BigInteger id, String ownerKey, BigInteger balance) {
+        byte[] keyHash = _key(id, ownerKey);
+        BigInteger key = new BigInteger(1, keyHash);
+        byte[] leafNode = _concat(new byte[] { 0 }, keyHash,
+                Context.hash("sha3-256", _concat(new byte[] { 0 }, keyHash, balance.toByteArray())));
+        int hashes = 2;
+        int writes = 1;
+
+        // Walk down to the empty slot, the leaf of this key or a leaf sharing its prefix
+        int level = 0;
+        int leafLevel;
+        while (true) {
+            String path = _path(level, key.shiftRight(256 - level));
+            byte[] node = dbNodes.get(path);
+            if (node == null || (node[0] == 0 && _equal(_slice(node, 1, 32), keyHash))) {
+                dbNodes.set(path, leafNode);
+                leafLevel = level;
+                break;
+            }
+            if (node[0] == 0) {
+                // Push the other leaf down to where the two keys diverge, the levels in between become internal nodes
+                BigInteger other = new BigInteger(1, _slice(node, 1, 32));
+                int diverge = level;
+                while (key.testBit(255 - diverge) == other.testBit(255 - diverge)) {
+                    diverge++;
+                }
+                leafLevel = diverge + 1;
+                dbNodes.set(_path(leafLevel, other.shiftRight(256 - leafLevel)), node);
+                dbNodes.set(_path(leafLevel, key.shiftRight(256 - leafLevel)), leafNode);
+                writes++;
+                break;
+            }
+            level++;
+        }
+
+        // Recompute the internal nodes from the leaf up to the root
+        for (int l = leafLevel - 1; l >= 0; l--) {
+            BigInteger childPrefix = key.shiftRight(255 - l).clearBit(0);
+            byte[] left = _nodeHash(dbNodes.get(_path(l + 1, childPrefix)));
+            byte[] right = _nodeHash(dbNodes.get(_path(l + 1, childPrefix.setBit(0))));
+            byte[] hash = Context.hash("sha3-256", _concat(new byte[] { 1 }, left, right));
+            dbNodes.set(_path(l, childPrefix.shiftRight(1)), _concat(new byte[] { 1 }, hash, new byte[0]));
+            hashes++;
+            writes++;
+        }
+
+        // Measuring costs one more write per update, only paid while operational counters are turned on
+        if (operationalStats.isEnabled()) {
+            BigInteger packed = varStats.getOrDefault(BigInteger.ZERO);
+            packed = _addField(packed, UPDATES, 1);
+            packed = _addField(packed, HASHES, hashes);
+            packed = _addField(packed, NODE_WRITES, writes);
+            varStats.set(packed);
+        }
+    }
+
+    private static byte[] _key(BigInteger id, String ownerKey) {
+        return Context.hash("sha3-256", (id.toString() + "|" + ownerKey).getBytes());
+    }
+
+    private static String _path(int level, BigInteger prefix) {
+        return level + "|" + prefix.toString(16);
+    }
+
+    private static byte[] _nodeHash(byte[] node) {
+        if (node == null)
+            return EMPTY_NODE_HASH;
+        return node[0] == 0 ? _slice(node, 33, 32) : _slice(node, 1, 32);
+    }
+
+    private static byte[] _slice(byte[] data, int offset, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(data, offset, result, 0, length);
+        return result;
+    }
+
+    private static boolean _equal(byte[] a, byte[] b) {
+        if (a.length != b.length)
+            return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] _concat(byte[] a, byte[] b, byte[] c) {
+        byte[] result = new byte[a.length + b.length + c.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        System.arraycopy(c, 0, result, a.length + b.length, c.length);
+        return result;
+    }
+
+    private static BigInteger _field(BigInteger packed, int field) {
+        return packed.shiftRight(field * FIELD_BITS).and(FIELD_MASK);
+    }
+
+    private static BigInteger _addField(BigInteger packed, int field, long amount) {
+        int shift = field * FIELD_BITS;
+        BigInteger value = _field(packed, field).add(BigInteger.valueOf(amount)).min(FIELD_MASK);
+        return packed.andNot(FIELD_MASK.shiftLeft(shift)).or(value.shiftLeft(shift));
+    }
+}
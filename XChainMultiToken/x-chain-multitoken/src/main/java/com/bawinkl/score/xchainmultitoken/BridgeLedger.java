@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Net supply bridged between this contract and its peers, per token and network.
+ *
+ * Bridging burns on the sending side and mints on the receiving side, so the only bridge state is the net amount
+ * moved to each network, kept in a single slot and bounded by a cap set by the owner. The cap applies in both
+ * directions, which also bounds what a compromised peer can mint here.
+ */
+class BridgeLedger {
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // id => (networkID => maximum net amount bridged to or from the network), bridging is disabled without a cap
+    private final BranchDB<BigInteger, DictDB<String, BigInteger>> bdbCaps = Context
+            .newBranchDB("bridge_caps", BigInteger.class);
+    // id => (networkID => amount bridged to the network minus amount bridged back, negative when the network sent more)
+    private final BranchDB<BigInteger, DictDB<String, BigInteger>> bdbBridgedSupply = Context
+            .newBranchDB("bridged_supply", BigInteger.class);
+
+    Map<String, Object> status(String networkID, BigInteger id) {
+        BigInteger cap = bdbCaps.at(id).get(networkID);
+        return Map.of(
+                "enabled", cap != null,
+                "cap", cap == null ? BigInteger.ZERO : cap,
+                "bridgedSupply", bridgedSupply(networkID, id));
+    }
+
+    void setCap(String networkID, BigInteger id, BigInteger cap) {
+        Context.require(cap.signum() >= 0, "_cap cannot be negative");
+        bdbCaps.at(id).set(networkID, cap);
+    }
+
+    BigInteger bridgedSupply(String networkID, BigInteger id) {
+        return bdbBridgedSupply.at(id).getOrDefault(networkID, BigInteger.ZERO);
+    }
+
+    /**
+     * Adds delta to the net amount bridged to a network, positive when sending and negative when receiving,
+     * reverting if the cap does not allow it
+     */
+    void record(String networkID, BigInteger id, BigInteger delta) {
+        String reason = check(networkID, id, delta);
+        Context.require(reason == null, reason);
+        bdbBridgedSupply.at(id).set(networkID, bridgedSupply(networkID, id).add(delta));
+    }
+
+    /**
+     * Takes back an amount recorded as sent to a network that was never delivered, the cap never blocks it
+     */
+    void revertSend(String networkID, BigInteger id, BigInteger value) {
+        bdbBridgedSupply.at(id).set(networkID, bridgedSupply(networkID, id).subtract(value));
+    }
+
+    /**
+     * Checks a change of the net amount bridged to a network against its cap
+     * @return null if the cap allows it, otherwise the reason it does not
+     */
+    String check(String networkID, BigInteger id, BigInteger delta) {
+        BigInteger cap = bdbCaps.at(id).get(networkID);
+        if (cap == null)
+            return "Bridging of token " + id + " is not enabled for network " + networkID;
+        if (bridgedSupply(networkID, id).add(delta).abs().compareTo(cap) > 0)
+            return "Bridge cap of " + cap + " exceeded for token " + id + " on network " + networkID;
+        return null;
+    }
+}
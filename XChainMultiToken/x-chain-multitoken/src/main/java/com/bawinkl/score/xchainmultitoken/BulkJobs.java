@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+import score.ObjectReader;
+import score.VarDB;
+
+import java.math.BigInteger;
+
+import com.bawinkl.score.xchainmultitoken.sdos.BulkJob;
+
+/**
+ * Storage of the bulk jobs run by XChainMultiToken.continueJob.
+ *
+ * A job is stored as a single BulkJob entry holding its state and cursor, its items are uploaded in RLP encoded
+ * chunks whose chained hash must match the hash declared when the job was created. Processed chunks are deleted.
+ */
+class BulkJobs {
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // Number of jobs created so far, the next job ID
+    private final VarDB<BigInteger> varJobCount = Context.newVarDB("bulk_job_count", BigInteger.class);
+    // jobId => job state and cursor
+    private final DictDB<BigInteger, BulkJob> dbJobs = Context.newDictDB("bulk_jobs", BulkJob.class);
+    // jobId => (chunk index => RLP encoded list of items), chunks are deleted once processed
+    private final BranchDB<BigInteger, DictDB<Integer, byte[]>> bdbChunks = Context
+            .newBranchDB("bulk_job_chunks", byte[].class);
+
+    // ID of the job processed by the running continueJob call, never stored
+    private BigInteger runningJobId;
+
+    BulkJob get(BigInteger jobId) {
+        BulkJob job = dbJobs.get(jobId);
+        Context.require(job != null, "Job " + jobId + " does not exist");
+        return job;
+    }
+
+    void save(BigInteger jobId, BulkJob job) {
+        dbJobs.set(jobId, job);
+    }
+
+    /**
+     * @return the ID of the new job
+     */
+    BigInteger create(String owner, String kind, byte[] declaredHash) {
+        Context.require(declaredHash.length == 32, "_hash must be a 32 byte sha3-256 hash");
+        BigInteger jobId = varJobCount.getOrDefault(BigInteger.ZERO);
+        varJobCount.set(jobId.add(BigInteger.ONE));
+        dbJobs.set(jobId, new BulkJob(owner, kind, declaredHash));
+        return jobId;
+    }
+
+    /**
+     * Stores the next chunk of a job and chains it into the hash of its uploaded chunks
+     */
+    void addChunk(BigInteger jobId, BulkJob job, byte[] chunk) {
+        Context.require(job.getState() == BulkJob.STATE_UPLOADING, "Job " + jobId + " is no longer accepting chunks");
+
+        byte[] chainHash = job.getChainHash();
+        byte[] chained = new byte[chainHash.length + chunk.length];
+        System.arraycopy(chainHash, 0, chained, 0, chainHash.length);
+        System.arraycopy(chunk, 0, chained, chainHash.length, chunk.length);
+
+        bdbChunks.at(jobId).set(job.getChunkCount(), chunk);
+        job.setChainHash(Context.hash("sha3-256", chained));
+        job.setChunkCount(job.getChunkCount() + 1);
+        dbJobs.set(jobId, job);
+    }
+
+    /**
+     * Makes a job ready to be processed once the chained hash of its chunks matches the declared hash
+     */
+    void seal(BigInteger jobId, BulkJob job) {
+        Context.require(job.getState() == BulkJob.STATE_UPLOADING, "Job " + jobId + " is already sealed");
+        byte[] chainHash = job.getChainHash();
+        byte[] declaredHash = job.getDeclaredHash();
+        boolean matches = chainHash.length == declaredHash.length;
+        for (int i = 0; matches && i < chainHash.length; i++)
+            matches = chainHash[i] == declaredHash[i];
+        Context.require(matches, "Uploaded chunks do not match the declared hash");
+
+        job.setState(BulkJob.STATE_READY);
+        dbJobs.set(jobId, job);
+    }
+
+    void cancel(BigInteger jobId, BulkJob job) {
+        Context.require(runningJobId == null, "Jobs cannot be cancelled while continueJob runs");
+        Context.require(job.getState() == BulkJob.STATE_UPLOADING || job.getState() == BulkJob.STATE_READY,
+                "Job " + jobId + " is already finished");
+        job.setState(BulkJob.STATE_CANCELLED);
+        dbJobs.set(jobId, job);
+    }
+
+    // ================================================
+    // Processing
+    // ================================================
+
+    /**
+     * Loads a job for continueJob, reverting when continueJob is already running, as it is when a hook called by
+     * a job transfer calls it again
+     */
+    BulkJob enter(BigInteger jobId) {
+        Context.require(runningJobId == null, "continueJob cannot be re-entered");
+        BulkJob job = get(jobId);
+        Context.require(job.getState() == BulkJob.STATE_READY, "Job " + jobId + " is not ready to be processed");
+        runningJobId = jobId;
+        return job;
+    }
+
+    /**
+     * Stores the job processed by continueJob
+     * The cursor read by enter must still be the stored one, a job processed or cancelled by a nested call in the
+     * meantime reverts the whole call instead of running its items twice
+     */
+    void exit(BigInteger jobId, BulkJob job, int enteredChunk, int enteredItem) {
+        runningJobId = null;
+        BulkJob stored = dbJobs.get(jobId);
+        Context.require(stored.getState() == BulkJob.STATE_READY && stored.getCursorChunk() == enteredChunk
+                && stored.getCursorItem() == enteredItem, "Job " + jobId + " was modified while it was processed");
+        dbJobs.set(jobId, job);
+    }
+
+    byte[] chunk(BigInteger jobId, int index) {
+        return bdbChunks.at(jobId).get(index);
+    }
+
+    void deleteChunk(BigInteger jobId, int index) {
+        bdbChunks.at(jobId).set(index, null);
+    }
+
+    /**
+     * Opens a job chunk positioned at an item
+     * @return the reader, null if the chunk cannot be decoded up to that item
+     */
+    static ObjectReader open(byte[] chunk, int item) {
+        try {
+            ObjectReader r = Context.newByteArrayObjectReader("RLPn", chunk);
+            r.beginList();
+            if (item > 0)
+                r.skip(item);
+            return r;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the chunk has another item, null if the rest of the chunk cannot be decoded
+     */
+    static Boolean hasNext(ObjectReader r) {
+        try {
+            return r.hasNext();
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.Context;
+import score.VarDB;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Progress of the genesis import run by "import" bulk jobs.
+ *
+ * Import jobs are counted while they are open so the import can only be sealed once every one of them is completed
+ * or cancelled. Sealing is final, no import job can be created afterwards.
+ */
+class GenesisImport {
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // Whether the import is sealed
+    private final VarDB<Boolean> varSealed = Context.newVarDB("import_sealed", Boolean.class);
+    // Number of import jobs that are not completed or cancelled yet
+    private final VarDB<Integer> varOpenJobs = Context.newVarDB("import_open_jobs", Integer.class);
+    // Number of items applied by completed or cancelled import jobs
+    private final VarDB<BigInteger> varImportedItems = Context.newVarDB("import_items", BigInteger.class);
+
+    Map<String, Object> status() {
+        return Map.of(
+                "sealed", varSealed.getOrDefault(false),
+                "openJobs", varOpenJobs.getOrDefault(0),
+                "importedItems", importedItems());
+    }
+
+    BigInteger importedItems() {
+        return varImportedItems.getOrDefault(BigInteger.ZERO);
+    }
+
+    /**
+     * Counts a new import job, reverting once the import is sealed
+     */
+    void open() {
+        Context.require(!varSealed.getOrDefault(false), "The import is sealed");
+        varOpenJobs.set(varOpenJobs.getOrDefault(0) + 1);
+    }
+
+    /**
+     * Counts an import job as completed or cancelled along with the items it applied
+     */
+    void close(BigInteger processed) {
+        varOpenJobs.set(varOpenJobs.getOrDefault(0) - 1);
+        varImportedItems.set(importedItems().add(processed));
+    }
+
+    void seal() {
+        Context.require(!varSealed.getOrDefault(false), "The import is already sealed");
+        Context.require(varOpenJobs.getOrDefault(0) == 0, "Import jobs are still open, complete or cancel them first");
+        varSealed.set(true);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.Context;
+import score.DictDB;
+import score.BranchDB;
+
+import java.math.BigInteger;
+
+/**
+ * Replay protection for inbound xCall messages.
+ * Every sender has its own sliding window of nonces, tracked in a ring of WINDOW_SLOTS bitmaps of SLOT_BITS nonces each,
+ * so a duplicate is rejected with a single slot read and storage stays bounded however many messages were processed.
+ */
+class InboundNonces {
+
+    // ================================================
+    // Consts
+    // ================================================
+    // log2 of the number of nonces tracked by a single bitmap slot, the slot number of a nonce is nonce >> SLOT_SHIFT
+    static final int SLOT_SHIFT = 8;
+    // Number of nonces tracked by a single bitmap slot
+    static final int SLOT_BITS = 1 << SLOT_SHIFT;
+    // Number of bitmap slots kept per sender, the window covers (WINDOW_SLOTS - 1) * SLOT_BITS nonces at minimum
+    static final int WINDOW_SLOTS = 4;
+    private static final BigInteger SLOT_MASK = BigInteger.ONE.shiftLeft(SLOT_BITS).subtract(BigInteger.ONE);
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // sender[NetworkAddress String] => highest nonce processed
+    private final DictDB<String, BigInteger> dbHighestNonce = Context.newDictDB("inbound_nonce_high", BigInteger.class);
+    // sender[NetworkAddress String] => (slot index => [slot number << SLOT_BITS | nonce bitmap])
+    private final BranchDB<String, DictDB<Integer, BigInteger>> bdbBitmaps = Context
+            .newBranchDB("inbound_nonce_bitmap", BigInteger.class);
+    // networkID => true when messages from the network must carry a nonce
+    private final DictDB<String, Boolean> dbRequired = Context.newDictDB("inbound_nonce_required", Boolean.class);
+
+    /**
+     * Returns the highest nonce processed for a sender, or -1 if none was
+     */
+    BigInteger highestNonce(String sender) {
+        BigInteger high = dbHighestNonce.get(sender);
+        return high == null ? BigInteger.ONE.negate() : high;
+    }
+
+    /**
+     * Returns true if messages from the network are rejected when they carry no nonce
+     */
+    boolean isRequired(String networkID) {
+        return dbRequired.getOrDefault(networkID, false);
+    }
+
+    void setRequired(String networkID, boolean required) {
+        dbRequired.set(networkID, required ? true : null);
+    }
+
+    /**
+     * Marks a nonce as processed for a sender, reverting if it cannot be processed
+     */
+    void consume(String sender, BigInteger nonce) {
+        String reason = check(sender, nonce, true);
+        Context.require(reason == null, reason);
+    }
+
+    /**
+     * Checks a nonce against the replay window of its sender, marking it as processed when committing.
+     * Nonces chosen by one sender can neither consume nor expire those of another.
+     * @param sender the network address of the sender on its source network
+     * @param nonce the nonce supplied in the message
+     * @param commit whether to mark the nonce
+     * @return null if the nonce can be processed, otherwise the reason it cannot
+     */
+    String check(String sender, BigInteger nonce, boolean commit) {
+        if (nonce.signum() < 0)
+            return "nonce cannot be negative";
+
+        BigInteger slotNumber = nonce.shiftRight(SLOT_SHIFT);
+        BigInteger high = dbHighestNonce.get(sender);
+        if (high != null && slotNumber.add(BigInteger.valueOf(WINDOW_SLOTS)).compareTo(high.shiftRight(SLOT_SHIFT)) <= 0)
+            return "nonce " + nonce + " is outside of the replay window of " + sender;
+
+        DictDB<Integer, BigInteger> bitmaps = bdbBitmaps.at(sender);
+        int slotIndex = slotNumber.mod(BigInteger.valueOf(WINDOW_SLOTS)).intValue();
+        BigInteger packed = bitmaps.getOrDefault(slotIndex, BigInteger.ZERO);
+        BigInteger storedSlot = packed.shiftRight(SLOT_BITS);
+        if (storedSlot.compareTo(slotNumber) > 0)
+            return "nonce " + nonce + " is outside of the replay window of " + sender;
+
+        // A newer slot number reuses the ring position, discarding the expired bitmap
+        BigInteger bits = storedSlot.equals(slotNumber) ? packed.and(SLOT_MASK) : BigInteger.ZERO;
+        int bit = nonce.intValue() & (SLOT_BITS - 1);
+        if (bits.testBit(bit))
+            return "nonce " + nonce + " has already been processed for " + sender;
+        if (!commit)
+            return null;
+
+        bitmaps.set(slotIndex, slotNumber.shiftLeft(SLOT_BITS).or(bits.setBit(bit)));
+        if (high == null || nonce.compareTo(high) > 0)
+            dbHighestNonce.set(sender, nonce);
+        return null;
+    }
+}
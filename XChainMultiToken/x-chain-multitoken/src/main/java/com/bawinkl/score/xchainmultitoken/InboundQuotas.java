@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.Context;
+import score.DictDB;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Token bucket quotas on the messages delivered from each source network.
+ *
+ * A quota allows maxOperations messages and maxIds token ids per window of blocks and refills continuously over the
+ * window. Buckets are kept scaled by the window length so refilling stays in integers, and the configuration and
+ * the state of a network are each packed in a single slot, so a check costs two reads and a charge one write.
+ */
+class InboundQuotas {
+
+    // ================================================
+    // Consts
+    // ================================================
+    // Width of each packed field of the config and state slots
+    private static final int FIELD_BITS = 96;
+    private static final BigInteger FIELD_MASK = BigInteger.ONE.shiftLeft(FIELD_BITS).subtract(BigInteger.ONE);
+    // Bounds of the configuration, a scaled bucket (limit * window) has to fit in a field
+    static final BigInteger MAX_WINDOW = BigInteger.ONE.shiftLeft(32);
+    static final BigInteger MAX_LIMIT = BigInteger.ONE.shiftLeft(64);
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // source networkID => [window blocks << 2 * FIELD_BITS | max operations << FIELD_BITS | max ids]
+    private final DictDB<String, BigInteger> dbQuotas = Context.newDictDB("inbound_quotas", BigInteger.class);
+    // source networkID => [last block height << 2 * FIELD_BITS | operation tokens << FIELD_BITS | id tokens]
+    // the tokens are scaled by the window length
+    private final DictDB<String, BigInteger> dbState = Context.newDictDB("inbound_quota_state", BigInteger.class);
+
+    /**
+     * Returns the quota of a network and the operations and ids currently available to it
+     */
+    Map<String, Object> status(String networkID) {
+        BigInteger config = dbQuotas.get(networkID);
+        if (config == null) {
+            return Map.of("configured", false);
+        }
+
+        BigInteger window = config.shiftRight(2 * FIELD_BITS);
+        BigInteger[] tokens = _available(config, dbState.get(networkID), _height());
+        return Map.of(
+                "configured", true,
+                "windowBlocks", window,
+                "maxOperations", config.shiftRight(FIELD_BITS).and(FIELD_MASK),
+                "maxIds", config.and(FIELD_MASK),
+                "availableOperations", tokens[0].divide(window),
+                "availableIds", tokens[1].divide(window));
+    }
+
+    /**
+     * Sets the quota of a network with full buckets, a window of 0 removes it
+     */
+    void set(String networkID, BigInteger windowBlocks, BigInteger maxOperations, BigInteger maxIds) {
+        if (windowBlocks.signum() == 0) {
+            dbQuotas.set(networkID, null);
+            dbState.set(networkID, null);
+            return;
+        }
+
+        Context.require(windowBlocks.signum() > 0 && windowBlocks.compareTo(MAX_WINDOW) < 0, "Invalid _windowBlocks");
+        Context.require(maxOperations.signum() >= 0 && maxOperations.compareTo(MAX_LIMIT) < 0, "Invalid _maxOperations");
+        Context.require(maxIds.signum() >= 0 && maxIds.compareTo(MAX_LIMIT) < 0, "Invalid _maxIds");
+
+        dbQuotas.set(networkID, windowBlocks.shiftLeft(2 * FIELD_BITS)
+                .or(maxOperations.shiftLeft(FIELD_BITS))
+                .or(maxIds));
+        dbState.set(networkID, null);
+    }
+
+    /**
+     * Charges one operation and idCount ids against the quota of a network, reverting when the quota is exhausted
+     */
+    void consume(String networkID, int idCount) {
+        String reason = check(networkID, idCount, true);
+        Context.require(reason == null, reason);
+    }
+
+    /**
+     * Checks one operation and idCount ids against the quota of a network, charging them when committing
+     * @param commit whether to store the charged bucket state
+     * @return null if the message fits the quota, otherwise the reason it does not along with the blocks to wait
+     */
+    String check(String networkID, int idCount, boolean commit) {
+        BigInteger config = dbQuotas.get(networkID);
+        if (config == null)
+            return null;
+
+        BigInteger window = config.shiftRight(2 * FIELD_BITS);
+        BigInteger maxOperations = config.shiftRight(FIELD_BITS).and(FIELD_MASK);
+        BigInteger maxIds = config.and(FIELD_MASK);
+        BigInteger height = _height();
+        BigInteger[] tokens = _available(config, dbState.get(networkID), height);
+
+        if (maxOperations.signum() > 0) {
+            tokens[0] = tokens[0].subtract(window);
+            if (tokens[0].signum() < 0)
+                return "Inbound operation quota exceeded for network " + networkID
+                        + ", retry in " + _retryBlocks(tokens[0], maxOperations) + " blocks";
+        }
+
+        if (maxIds.signum() > 0) {
+            if (BigInteger.valueOf(idCount).compareTo(maxIds) > 0)
+                return "Message carries " + idCount + " ids which exceeds the per window id quota of " + maxIds
+                        + " for network " + networkID;
+            tokens[1] = tokens[1].subtract(window.multiply(BigInteger.valueOf(idCount)));
+            if (tokens[1].signum() < 0)
+                return "Inbound id quota exceeded for network " + networkID
+                        + ", retry in " + _retryBlocks(tokens[1], maxIds) + " blocks";
+        }
+
+        if (commit)
+            dbState.set(networkID, height.shiftLeft(2 * FIELD_BITS)
+                    .or(tokens[0].shiftLeft(FIELD_BITS))
+                    .or(tokens[1]));
+        return null;
+    }
+
+    /**
+     * Refills the buckets of a state up to the given height
+     * @return the scaled operation and id tokens available
+     */
+    private static BigInteger[] _available(BigInteger config, BigInteger state, BigInteger height) {
+        BigInteger window = config.shiftRight(2 * FIELD_BITS);
+        BigInteger maxOperations = config.shiftRight(FIELD_BITS).and(FIELD_MASK);
+        BigInteger maxIds = config.and(FIELD_MASK);
+        BigInteger operationCapacity = maxOperations.multiply(window);
+        BigInteger idCapacity = maxIds.multiply(window);
+
+        if (state == null)
+            return new BigInteger[] { operationCapacity, idCapacity };
+
+        BigInteger elapsed = height.subtract(state.shiftRight(2 * FIELD_BITS)).min(window);
+        BigInteger operations = state.shiftRight(FIELD_BITS).and(FIELD_MASK)
+                .add(elapsed.multiply(maxOperations)).min(operationCapacity);
+        BigInteger ids = state.and(FIELD_MASK).add(elapsed.multiply(maxIds)).min(idCapacity);
+        return new BigInteger[] { operations, ids };
+    }
+
+    /**
+     * Returns the number of blocks until a negative scaled bucket refills to zero
+     */
+    private static BigInteger _retryBlocks(BigInteger deficit, BigInteger refillPerBlock) {
+        BigInteger[] division = deficit.negate().divideAndRemainder(refillPerBlock);
+        return division[1].signum() > 0 ? division[0].add(BigInteger.ONE) : division[0];
+    }
+
+    private static BigInteger _height() {
+        return BigInteger.valueOf(Context.getBlockHeight());
+    }
+}
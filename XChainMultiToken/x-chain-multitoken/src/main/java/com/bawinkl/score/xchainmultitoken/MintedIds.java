@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.ArrayDB;
+import score.Context;
+import score.DictDB;
+
+import java.math.BigInteger;
+
+/**
+ * Minted fungible ids and their creators.
+ *
+ * Whether an id was minted is a bit in a bitmap of 256 ids per slot, so existence checks never deserialize a
+ * creator. Creators are stored once in an interned table and each id references its creator by index.
+ */
+class MintedIds {
+
+    // ================================================
+    // Consts
+    // ================================================
+    // Number of ids per bitmap slot is 1 << SLOT_SHIFT
+    private static final int SLOT_SHIFT = 8;
+    private static final int BIT_MASK = (1 << SLOT_SHIFT) - 1;
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // id >> SLOT_SHIFT => bitmap of the minted ids in the slot
+    private final DictDB<BigInteger, BigInteger> dbMinted = Context.newDictDB("minted_ids", BigInteger.class);
+    // Interned creators [NetworkAddress String], referenced by index
+    private final ArrayDB<String> adbCreatorTable = Context.newArrayDB("creator_table", String.class);
+    // creator [NetworkAddress String] => index in adbCreatorTable
+    private final DictDB<String, Integer> dbCreatorIndex = Context.newDictDB("creator_index", Integer.class);
+    // id => creator index in adbCreatorTable
+    private final DictDB<BigInteger, Integer> dbCreatorOf = Context.newDictDB("creator_of", Integer.class);
+
+    boolean isMinted(BigInteger id) {
+        BigInteger bits = dbMinted.get(id.shiftRight(SLOT_SHIFT));
+        return bits != null && bits.testBit(id.intValue() & BIT_MASK);
+    }
+
+    /**
+     * Returns whether no id of [start, end) was minted, reading one slot per 256 ids
+     */
+    boolean noneMinted(BigInteger start, BigInteger end) {
+        BigInteger last = end.subtract(BigInteger.ONE);
+        BigInteger slot = start.shiftRight(SLOT_SHIFT);
+        BigInteger lastSlot = last.shiftRight(SLOT_SHIFT);
+        for (; slot.compareTo(lastSlot) <= 0; slot = slot.add(BigInteger.ONE)) {
+            BigInteger bits = dbMinted.get(slot);
+            if (bits == null)
+                continue;
+
+            int low = slot.equals(start.shiftRight(SLOT_SHIFT)) ? start.intValue() & BIT_MASK : 0;
+            int high = slot.equals(lastSlot) ? last.intValue() & BIT_MASK : BIT_MASK;
+            BigInteger mask = BigInteger.ONE.shiftLeft(high + 1).subtract(BigInteger.ONE.shiftLeft(low));
+            if (bits.and(mask).signum() != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks an id as minted
+     * @return true if it was not minted before
+     */
+    boolean mark(BigInteger id) {
+        BigInteger slot = id.shiftRight(SLOT_SHIFT);
+        BigInteger bits = dbMinted.getOrDefault(slot, BigInteger.ZERO);
+        int bit = id.intValue() & BIT_MASK;
+        if (bits.testBit(bit))
+            return false;
+        dbMinted.set(slot, bits.setBit(bit));
+        return true;
+    }
+
+    /**
+     * Marks ids as minted, consecutive ids of the same slot share a single read and write of the slot
+     * @return whether each id was not minted before
+     */
+    boolean[] markAll(BigInteger[] ids) {
+        boolean[] added = new boolean[ids.length];
+        BigInteger slot = null;
+        BigInteger bits = null;
+        boolean dirty = false;
+        for (int i = 0; i < ids.length; i++) {
+            BigInteger id = ids[i];
+            BigInteger idSlot = id.shiftRight(SLOT_SHIFT);
+            if (!idSlot.equals(slot)) {
+                if (dirty)
+                    dbMinted.set(slot, bits);
+                slot = idSlot;
+                bits = dbMinted.getOrDefault(slot, BigInteger.ZERO);
+                dirty = false;
+            }
+
+            int bit = id.intValue() & BIT_MASK;
+            if (!bits.testBit(bit)) {
+                bits = bits.setBit(bit);
+                dirty = true;
+                added[i] = true;
+            }
+        }
+        if (dirty)
+            dbMinted.set(slot, bits);
+        return added;
+    }
+
+    /**
+     * Returns the index of a creator in the creator table, adding it on first use
+     */
+    int intern(String creator) {
+        Integer index = dbCreatorIndex.get(creator);
+        if (index == null) {
+            index = adbCreatorTable.size();
+            adbCreatorTable.add(creator);
+            dbCreatorIndex.set(creator, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the creator of an id in the creator table, or null if it was not minted
+     */
+    Integer creatorIndexOf(BigInteger id) {
+        return dbCreatorOf.get(id);
+    }
+
+    /**
+     * Returns the index of a creator in the creator table, or null if it never minted
+     */
+    Integer indexOf(String creator) {
+        return dbCreatorIndex.get(creator);
+    }
+
+    /**
+     * Returns the creator of an id [NetworkAddress String], or null if it was not minted
+     */
+    String creatorOf(BigInteger id) {
+        Integer index = dbCreatorOf.get(id);
+        return index == null ? null : adbCreatorTable.get(index);
+    }
+
+    /**
+     * Sets the creator of an id, skipping the write when it is unchanged
+     */
+    void setCreator(BigInteger id, int creatorIndex) {
+        Integer current = dbCreatorOf.get(id);
+        if (current == null || current != creatorIndex)
+            dbCreatorOf.set(id, creatorIndex);
+    }
+}
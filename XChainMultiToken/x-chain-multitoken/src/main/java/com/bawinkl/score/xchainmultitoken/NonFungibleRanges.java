@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.ArrayDB;
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+import scorex.util.ArrayList;
+
+/**
+ * Id ranges reserved for non-fungible tokens.
+ *
+ * Ids in a range have a supply of 1 and store a single owner slot instead of a balance table. Ids are minted
+ * sequentially from the start of their range and every mint call is recorded as one batch entry holding its minter
+ * and base URI, ERC721A style: the owner of an id is resolved through its batch until the id is first transferred.
+ */
+class NonFungibleRanges {
+
+    // ================================================
+    // Consts
+    // ================================================
+    // Maximum number of ids in a range, bounds the minted id check of XChainMultiToken.addNonFungibleRange
+    static final int MAX_RANGE_SIZE = 1 << 16;
+    // Maximum number of ranges, bounds the sorted insertion of a range
+    static final int MAX_RANGES = 64;
+    // Maximum number of ids minted by one batch, bounds the size of its x_TransferBatch event
+    static final int MAX_MINT = 500;
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // Sorted first ids of every range, ranges never overlap
+    private final ArrayDB<BigInteger> adbRangeStarts = Context.newArrayDB("nft_range_starts", BigInteger.class);
+    // range first id => end (exclusive) of the range
+    private final DictDB<BigInteger, BigInteger> dbRangeEnds = Context.newDictDB("nft_range_ends", BigInteger.class);
+    // range first id => next id to be minted in the range
+    private final DictDB<BigInteger, BigInteger> dbRangeNextIds = Context.newDictDB("nft_range_next_ids", BigInteger.class);
+    // range first id => (index => first id of a minted batch), in mint order, a batch ends where the next one starts
+    private final BranchDB<BigInteger, DictDB<Integer, BigInteger>> bdbRangeBatches = Context
+            .newBranchDB("nft_range_batches", BigInteger.class);
+    // range first id => number of minted batches
+    private final DictDB<BigInteger, Integer> dbRangeBatchCount = Context.newDictDB("nft_range_batch_count", Integer.class);
+    // batch first id => minter [NetworkAddress String], the creator of every id in the batch
+    private final DictDB<BigInteger, String> dbBatchMinter = Context.newDictDB("nft_batch_minter", String.class);
+    // batch first id => base URI, the token URI of an id is the base URI followed by the id
+    private final DictDB<BigInteger, String> dbBatchURI = Context.newDictDB("nft_batch_uri", String.class);
+    // id => owner [NetworkAddress String] once transferred, blank once burned
+    private final DictDB<BigInteger, String> dbOwners = Context.newDictDB("nft_owners", String.class);
+
+    /**
+     * Returns every range in id order
+     */
+    List<Map<String, Object>> list() {
+        int count = adbRangeStarts.size();
+        List<Map<String, Object>> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BigInteger start = adbRangeStarts.get(i);
+            ranges.add(Map.of(
+                    "start", start,
+                    "end", dbRangeEnds.get(start),
+                    "nextId", dbRangeNextIds.get(start),
+                    "batches", dbRangeBatchCount.getOrDefault(start, 0)));
+        }
+        return ranges;
+    }
+
+    /**
+     * Adds the range [start, end), the caller is responsible for checking it holds no minted fungible id
+     */
+    void add(BigInteger start, BigInteger end) {
+        Context.require(start.signum() >= 0 && end.compareTo(start) > 0, "Invalid non-fungible range");
+        Context.require(end.subtract(start).compareTo(BigInteger.valueOf(MAX_RANGE_SIZE)) <= 0,
+                "A non-fungible range cannot be larger than " + MAX_RANGE_SIZE + " ids");
+        int count = adbRangeStarts.size();
+        Context.require(count < MAX_RANGES, "There cannot be more than " + MAX_RANGES + " non-fungible ranges");
+
+        // Every range before the position must end by start and the one after it start at end or later
+        int position = count;
+        while (position > 0 && adbRangeStarts.get(position - 1).compareTo(start) > 0)
+            position--;
+        if (position > 0)
+            Context.require(dbRangeEnds.get(adbRangeStarts.get(position - 1)).compareTo(start) <= 0,
+                    "The range overlaps another non-fungible range");
+        if (position < count)
+            Context.require(adbRangeStarts.get(position).compareTo(end) >= 0, "The range overlaps another non-fungible range");
+
+        // Insert the range in order, shifting the later ones by one position
+        adbRangeStarts.add(start);
+        for (int i = count; i > position; i--)
+            adbRangeStarts.set(i, adbRangeStarts.get(i - 1));
+        adbRangeStarts.set(position, start);
+        dbRangeEnds.set(start, end);
+        dbRangeNextIds.set(start, start);
+    }
+
+    boolean contains(BigInteger id) {
+        return _rangeOf(id) != null;
+    }
+
+    /**
+     * Records the next count ids of a range as one batch
+     * @return the first id of the batch
+     */
+    BigInteger mint(BigInteger rangeStart, int count, String minter, String baseURI) {
+        BigInteger end = dbRangeEnds.get(rangeStart);
+        Context.require(end != null, "No non-fungible range starts at " + rangeStart);
+        Context.require(count > 0, "_count should be positive");
+        Context.require(count <= MAX_MINT, "_count cannot be larger than " + MAX_MINT);
+        Context.require(baseURI.length() > 0, "_baseURI cannot be blank or null");
+
+        BigInteger startId = dbRangeNextIds.get(rangeStart);
+        BigInteger nextId = startId.add(BigInteger.valueOf(count));
+        Context.require(nextId.compareTo(end) <= 0, "Not enough ids left in the non-fungible range");
+
+        int batches = dbRangeBatchCount.getOrDefault(rangeStart, 0);
+        bdbRangeBatches.at(rangeStart).set(batches, startId);
+        dbRangeBatchCount.set(rangeStart, batches + 1);
+        dbBatchMinter.set(startId, minter);
+        dbBatchURI.set(startId, baseURI);
+        dbRangeNextIds.set(rangeStart, nextId);
+        return startId;
+    }
+
+    /**
+     * Returns the owner of an id [NetworkAddress String], null if it is not minted and blank if it was burned
+     */
+    String ownerOf(BigInteger id) {
+        String owner = dbOwners.get(id);
+        if (owner != null)
+            return owner;
+        BigInteger batch = _batchOf(id);
+        return batch == null ? null : dbBatchMinter.get(batch);
+    }
+
+    void setOwner(BigInteger id, String owner) {
+        dbOwners.set(id, owner);
+    }
+
+    void burn(BigInteger id) {
+        dbOwners.set(id, "");
+    }
+
+    /**
+     * Returns the minter of an id [NetworkAddress String], or null if it is not minted
+     */
+    String minterOf(BigInteger id) {
+        BigInteger batch = _batchOf(id);
+        return batch == null ? null : dbBatchMinter.get(batch);
+    }
+
+    /**
+     * Returns the token URI of an id derived from its batch, or null if it is not minted
+     */
+    String uriOf(BigInteger id) {
+        BigInteger batch = _batchOf(id);
+        return batch == null ? null : dbBatchURI.get(batch) + id.toString();
+    }
+
+    /**
+     * Binary searches the range containing an id
+     * @return the first id of the range, null if the id is fungible
+     */
+    private BigInteger _rangeOf(BigInteger id) {
+        int count = adbRangeStarts.size();
+        if (count == 0)
+            return null;
+
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (adbRangeStarts.get(mid).compareTo(id) <= 0)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        BigInteger start = adbRangeStarts.get(low);
+        if (start.compareTo(id) > 0 || dbRangeEnds.get(start).compareTo(id) <= 0)
+            return null;
+        return start;
+    }
+
+    /**
+     * Binary searches the batch containing an id
+     * @return the first id of the batch, null if the id is fungible or not minted yet
+     */
+    private BigInteger _batchOf(BigInteger id) {
+        BigInteger range = _rangeOf(id);
+        if (range == null || id.compareTo(dbRangeNextIds.get(range)) >= 0)
+            return null;
+
+        // Batches are minted sequentially from the start of the range, so their first ids are sorted
+        DictDB<Integer, BigInteger> batches = bdbRangeBatches.at(range);
+        int low = 0;
+        int high = dbRangeBatchCount.getOrDefault(range, 0) - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (batches.get(mid).compareTo(id) <= 0)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return batches.get(low);
+    }
+}
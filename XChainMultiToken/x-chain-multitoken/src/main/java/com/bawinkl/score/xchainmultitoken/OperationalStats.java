@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.ArrayDB;
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+import scorex.util.HashMap;
+
+/**
+ * Operational counters aggregated per window of blocks, off until the owner turns them on.
+ *
+ * The transfer counters of a window are packed in a single slot, so counting a transfer costs one read and one
+ * write. Inbound messages are counted per "networkID|method" pair, the pairs seen so far are listed once so the
+ * counts of a window can be enumerated. Nothing is read or written while the counters are off.
+ */
+class OperationalStats {
+
+    // ================================================
+    // Consts
+    // ================================================
+    // Default number of blocks per window (~1 day with 2 second blocks)
+    static final BigInteger DEFAULT_WINDOW = BigInteger.valueOf(43200);
+    // Maximum number of inbound pairs read by a page
+    static final int MAX_PAGE = 100;
+    // Width and positions of the counters packed into a window slot
+    private static final int FIELD_BITS = 64;
+    private static final BigInteger FIELD_MASK = BigInteger.ONE.shiftLeft(FIELD_BITS).subtract(BigInteger.ONE);
+    private static final int TRANSFERS = 0;
+    private static final int BATCH_TRANSFERS = 1;
+    private static final int IDS_MOVED = 2;
+    private static final int MAX_BATCH_SIZE = 3;
+    private static final int HOOK_FAILURES = 4;
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // Whether counters are recorded
+    private final VarDB<Boolean> varEnabled = Context.newVarDB("stats_enabled", Boolean.class);
+    // Number of blocks per window
+    private final VarDB<BigInteger> varWindow = Context.newVarDB("stats_window", BigInteger.class);
+    // window number => packed transfer counters
+    private final DictDB<BigInteger, BigInteger> dbTransferStats = Context.newDictDB("transfer_stats", BigInteger.class);
+    // window number => ("networkID|method" => inbound message count)
+    private final BranchDB<BigInteger, DictDB<String, BigInteger>> bdbInboundStats = Context
+            .newBranchDB("inbound_stats", BigInteger.class);
+    // Every "networkID|method" pair counted so far, in the order they were first seen
+    private final ArrayDB<String> adbInboundKeys = Context.newArrayDB("inbound_stat_keys", String.class);
+    private final DictDB<String, Boolean> dbInboundKeySeen = Context.newDictDB("inbound_stat_key_seen", Boolean.class);
+
+    Map<String, Object> config() {
+        BigInteger window = varWindow.getOrDefault(DEFAULT_WINDOW);
+        return Map.of(
+                "enabled", varEnabled.getOrDefault(false),
+                "windowBlocks", window,
+                "currentWindow", BigInteger.valueOf(Context.getBlockHeight()).divide(window));
+    }
+
+    boolean isEnabled() {
+        return varEnabled.getOrDefault(false);
+    }
+
+    void configure(boolean enabled, BigInteger windowBlocks) {
+        Context.require(windowBlocks.signum() > 0, "_windowBlocks must be positive");
+        varEnabled.set(enabled);
+        varWindow.set(windowBlocks);
+    }
+
+    /**
+     * Returns the counters of a window with the inbound counts of a page of the pairs seen so far
+     */
+    Map<String, Object> get(BigInteger window, int offset, int limit) {
+        Context.require(offset >= 0, "_offset cannot be negative");
+        Context.require(limit > 0 && limit <= MAX_PAGE, "_limit must be between 1 and " + MAX_PAGE);
+        BigInteger packed = dbTransferStats.getOrDefault(window, BigInteger.ZERO);
+
+        int total = adbInboundKeys.size();
+        int end = Math.min(total, offset + limit);
+        DictDB<String, BigInteger> inboundCounts = bdbInboundStats.at(window);
+        HashMap<String, BigInteger> inbound = new HashMap<>();
+        for (int i = offset; i < end; i++) {
+            String key = adbInboundKeys.get(i);
+            BigInteger count = inboundCounts.get(key);
+            if (count != null)
+                inbound.put(key, count);
+        }
+
+        return Map.of(
+                "window", window,
+                "transfers", _field(packed, TRANSFERS),
+                "batchTransfers", _field(packed, BATCH_TRANSFERS),
+                "idsMoved", _field(packed, IDS_MOVED),
+                "maxBatchSize", _field(packed, MAX_BATCH_SIZE),
+                "hookFailures", _field(packed, HOOK_FAILURES),
+                "inboundKeys", total,
+                "inbound", inbound);
+    }
+
+    /**
+     * Counts a transfer of idCount ids, batch transfers also update the batch counters
+     */
+    void recordTransfer(int idCount, boolean batch) {
+        BigInteger window = _currentWindow();
+        if (window == null)
+            return;
+
+        BigInteger packed = dbTransferStats.getOrDefault(window, BigInteger.ZERO);
+        packed = _addField(packed, TRANSFERS, 1);
+        packed = _addField(packed, IDS_MOVED, idCount);
+        if (batch) {
+            packed = _addField(packed, BATCH_TRANSFERS, 1);
+            if (_field(packed, MAX_BATCH_SIZE).compareTo(BigInteger.valueOf(idCount)) < 0)
+                packed = _setField(packed, MAX_BATCH_SIZE, BigInteger.valueOf(idCount));
+        }
+        dbTransferStats.set(window, packed);
+    }
+
+    /**
+     * Counts a failed onIRC31Received or onIRC31BatchReceived call
+     */
+    void recordHookFailure() {
+        BigInteger window = _currentWindow();
+        if (window == null)
+            return;
+
+        dbTransferStats.set(window, _addField(dbTransferStats.getOrDefault(window, BigInteger.ZERO), HOOK_FAILURES, 1));
+    }
+
+    /**
+     * Counts an inbound message per source network and method
+     */
+    void recordInbound(String networkID, String method) {
+        BigInteger window = _currentWindow();
+        if (window == null)
+            return;
+
+        String key = networkID + "|" + method;
+        if (!dbInboundKeySeen.getOrDefault(key, false)) {
+            dbInboundKeySeen.set(key, true);
+            adbInboundKeys.add(key);
+        }
+
+        DictDB<String, BigInteger> counts = bdbInboundStats.at(window);
+        counts.set(key, counts.getOrDefault(key, BigInteger.ZERO).add(BigInteger.ONE));
+    }
+
+    /**
+     * @return the current window number, or null when the counters are off
+     */
+    private BigInteger _currentWindow() {
+        if (!isEnabled())
+            return null;
+        return BigInteger.valueOf(Context.getBlockHeight()).divide(varWindow.getOrDefault(DEFAULT_WINDOW));
+    }
+
+    private static BigInteger _field(BigInteger packed, int field) {
+        return packed.shiftRight(field * FIELD_BITS).and(FIELD_MASK);
+    }
+
+    private static BigInteger _setField(BigInteger packed, int field, BigInteger value) {
+        int shift = field * FIELD_BITS;
+        return packed.andNot(FIELD_MASK.shiftLeft(shift)).or(value.min(FIELD_MASK).shiftLeft(shift));
+    }
+
+    private static BigInteger _addField(BigInteger packed, int field, long amount) {
+        return _setField(packed, field, _field(packed, field).add(BigInteger.valueOf(amount)));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Balances of remote addresses answered by peer contracts, cached with the block height they were received at.
+ * A cached balance is fresh for a TTL in blocks, queries for fresh balances or for balances already requested
+ * within the TTL are not sent again. Also holds the deposits paying the answers to queries from remote networks.
+ */
+class RemoteBalanceCache {
+
+    // ================================================
+    // Consts
+    // ================================================
+    static final BigInteger DEFAULT_TTL = BigInteger.valueOf(150);
+    // A cache entry packs the balance above the block height it was received at
+    private static final int HEIGHT_BITS = 64;
+    private static final BigInteger HEIGHT_MASK = BigInteger.ONE.shiftLeft(HEIGHT_BITS).subtract(BigInteger.ONE);
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // Number of blocks a cached remote balance stays fresh
+    private final VarDB<BigInteger> varTTL = Context.newVarDB("balance_cache_ttl", BigInteger.class);
+    // owner[NetworkAddress String] => (id => [balance << HEIGHT_BITS | block height received])
+    private final BranchDB<String, DictDB<BigInteger, BigInteger>> bdbCache = Context
+            .newBranchDB("remote_balance_cache", BigInteger.class);
+    // owner[NetworkAddress String] => (id => block height of the query in flight)
+    private final BranchDB<String, DictDB<BigInteger, BigInteger>> bdbPending = Context
+            .newBranchDB("remote_balance_pending", BigInteger.class);
+    // source networkID => ICX deposited to pay the balanceResponse messages answering queries from that network
+    private final DictDB<String, BigInteger> dbResponseFeeDeposits = Context
+            .newDictDB("response_fee_deposits", BigInteger.class);
+
+    BigInteger getTTL() {
+        return varTTL.getOrDefault(DEFAULT_TTL);
+    }
+
+    void setTTL(BigInteger ttl) {
+        varTTL.set(ttl);
+    }
+
+    /**
+     * Returns the cached balance of an owner with the height it was received at, its age and whether it is fresh.
+     * Balances never received are reported with a height and age of -1.
+     */
+    Map<String, Object> cached(String ownerKey, BigInteger id) {
+        BigInteger packed = bdbCache.at(ownerKey).get(id);
+        if (packed == null) {
+            return Map.of(
+                    "balance", BigInteger.ZERO,
+                    "blockHeight", BigInteger.ONE.negate(),
+                    "age", BigInteger.ONE.negate(),
+                    "fresh", false);
+        }
+
+        BigInteger height = packed.and(HEIGHT_MASK);
+        BigInteger age = _height().subtract(height);
+        return Map.of(
+                "balance", packed.shiftRight(HEIGHT_BITS),
+                "blockHeight", height,
+                "age", age,
+                "fresh", age.compareTo(getTTL()) <= 0);
+    }
+
+    /**
+     * Returns whether a query for a balance has to be sent, it is not when the cached balance is fresh or a query
+     * sent within the TTL is still unanswered
+     */
+    boolean needsQuery(String ownerKey, BigInteger id) {
+        BigInteger height = _height();
+        BigInteger ttl = getTTL();
+
+        BigInteger packed = bdbCache.at(ownerKey).get(id);
+        if (packed != null && height.subtract(packed.and(HEIGHT_MASK)).compareTo(ttl) <= 0)
+            return false;
+
+        BigInteger pending = bdbPending.at(ownerKey).get(id);
+        return pending == null || height.subtract(pending).compareTo(ttl) > 0;
+    }
+
+    /**
+     * Records a query sent for a balance
+     */
+    void markPending(String ownerKey, BigInteger id) {
+        bdbPending.at(ownerKey).set(id, _height());
+    }
+
+    /**
+     * Caches a balance answered by a peer contract and clears its pending query
+     */
+    void store(String ownerKey, BigInteger id, BigInteger balance) {
+        bdbCache.at(ownerKey).set(id, balance.shiftLeft(HEIGHT_BITS).or(_height()));
+        bdbPending.at(ownerKey).set(id, null);
+    }
+
+    BigInteger depositOf(String networkID) {
+        return dbResponseFeeDeposits.getOrDefault(networkID, BigInteger.ZERO);
+    }
+
+    void deposit(String networkID, BigInteger value) {
+        dbResponseFeeDeposits.set(networkID, depositOf(networkID).add(value));
+    }
+
+    /**
+     * Pays a response fee from the deposit of a network
+     */
+    void charge(String networkID, BigInteger fee) {
+        String reason = checkCharge(networkID, fee);
+        Context.require(reason == null, reason);
+        dbResponseFeeDeposits.set(networkID, depositOf(networkID).subtract(fee));
+    }
+
+    /**
+     * Checks that the deposit of a network covers a response fee
+     * @return null if it does, otherwise the reason it does not
+     */
+    String checkCharge(String networkID, BigInteger fee) {
+        if (depositOf(networkID).compareTo(fee) < 0)
+            return "Insufficient response fee deposit for network " + networkID + " to pay the balanceResponse fee";
+        return null;
+    }
+
+    private static BigInteger _height() {
+        return BigInteger.valueOf(Context.getBlockHeight());
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.ArrayDB;
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+import com.bawinkl.score.xchainmultitoken.sdos.*;
+
+/**
+ * Migration of the storage layout between schema versions.
+ *
+ * Schema version 0 keyed balances and approvals by the [NetworkAddress String] of every account. Since schema
+ * version 1 accounts of this network are keyed by their bare address, see XChainMultiToken._accountKey.
+ * A deployment upgraded from version 0 migrates lazily: reads fall back to the legacy layout for entries missing
+ * from the current one and writes remove the legacy entry. Cold entries cannot be enumerated on chain, so the owner
+ * queues their keys, rebuilt from the transfer and approval events, and anyone moves them in bounded steps.
+ * Since schema version 2 creators of fungible ids are kept by MintedIds instead of a creator per id, see
+ * XChainMultiToken._isMinted. Their legacy entries migrate the same way and are moved when an id is minted again.
+ * Once every key is moved the owner completes the migration, which ends the legacy lookups.
+ * Schema version 3 adds TokenCatalog without changing existing entries, ids minted before are listed by its backfill.
+ */
+class StorageMigration {
+
+    // ================================================
+    // Consts
+    // ================================================
+    // Storage schema version implemented by this build, bump it and move the changed entries here when the layout changes
+    static final int SCHEMA_VERSION = 3;
+    // Prefixes of the queued keys, b|[id]|[owner] for balances, a|[owner]|[operator] for approvals and c|[id] for creators
+    static final String KEY_BALANCE = "b|";
+    static final String KEY_APPROVAL = "a|";
+    static final String KEY_CREATOR = "c|";
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // id => (owner[NetworkAddress String] => balance), schema version 0 layout
+    private final BranchDB<BigInteger, DictDB<String, BigInteger>> bdbLegacyBalances = Context
+            .newBranchDB("balances", BigInteger.class);
+    // owner[NetworkAddress String] => (operator[NetworkAddress String] => approved), schema version 0 layout
+    private final BranchDB<String, DictDB<String, Boolean>> bdbLegacyApprovals = Context
+            .newBranchDB("approval", Boolean.class);
+    // id => creator, schema version 0 and 1 layout
+    private final DictDB<BigInteger, NetworkAddress> dbLegacyCreators = Context.newDictDB("creators", NetworkAddress.class);
+    // Whether the schema version 0 layout may still hold entries
+    private final VarDB<Boolean> varLegacyLayout = Context.newVarDB("legacy_layout", Boolean.class);
+    // Whether the legacy creators may still hold entries
+    private final VarDB<Boolean> varLegacyCreators = Context.newVarDB("legacy_creators", Boolean.class);
+    // Storage schema version of the deployed data, missing for schema version 0
+    private final VarDB<Integer> varSchemaVersion = Context.newVarDB("schema_version", Integer.class);
+    // Keys of the legacy entries to move, queued by the owner
+    private final ArrayDB<String> adbQueue = Context.newArrayDB("migration_queue", String.class);
+    // Index of the next queued key to move
+    private final VarDB<Integer> varCursor = Context.newVarDB("migration_cursor", Integer.class);
+
+    // Current layout, owned by the SCORE
+    private final BranchDB<BigInteger, DictDB<String, BigInteger>> bdbBalances;
+    private final BranchDB<String, DictDB<String, Boolean>> bdbApprovals;
+    private final MintedIds mintedIds;
+
+    StorageMigration(BranchDB<BigInteger, DictDB<String, BigInteger>> balances,
+            BranchDB<String, DictDB<String, Boolean>> approvals, MintedIds mintedIds) {
+        this.bdbBalances = balances;
+        this.bdbApprovals = approvals;
+        this.mintedIds = mintedIds;
+    }
+
+    int getSchemaVersion() {
+        return varSchemaVersion.getOrDefault(0);
+    }
+
+    /**
+     * Records the schema version of a new deployment, which holds no legacy entries
+     */
+    void install() {
+        varSchemaVersion.set(SCHEMA_VERSION);
+    }
+
+    /**
+     * Starts the migration of a deployment holding data in an older schema version
+     */
+    void start(int fromVersion) {
+        if (fromVersion < 1)
+            varLegacyLayout.set(true);
+        if (fromVersion < 2)
+            varLegacyCreators.set(true);
+        varSchemaVersion.set(SCHEMA_VERSION);
+    }
+
+    boolean isMigrating() {
+        return varLegacyLayout.getOrDefault(false) || isMigratingCreators();
+    }
+
+    boolean isMigratingCreators() {
+        return varLegacyCreators.getOrDefault(false);
+    }
+
+    // ================================================
+    // Lazy Migration
+    // ================================================
+
+    /**
+     * Returns the legacy balance of an owner, or null if there is none
+     */
+    BigInteger legacyBalance(BigInteger id, String ownerKey) {
+        if (!isMigrating())
+            return null;
+        return bdbLegacyBalances.at(id).get(ownerKey);
+    }
+
+    /**
+     * Removes the legacy balance of an owner whose balance was written in the current layout
+     */
+    void clearLegacyBalance(BigInteger id, String ownerKey) {
+        if (!isMigrating())
+            return;
+        DictDB<String, BigInteger> legacy = bdbLegacyBalances.at(id);
+        if (legacy.get(ownerKey) != null)
+            legacy.set(ownerKey, null);
+    }
+
+    /**
+     * Returns the legacy approval of an operator, or null if there is none
+     */
+    Boolean legacyApproval(String ownerKey, String operatorKey) {
+        if (!isMigrating())
+            return null;
+        return bdbLegacyApprovals.at(ownerKey).get(operatorKey);
+    }
+
+    /**
+     * Removes the legacy approval of an operator whose approval was written in the current layout
+     */
+    void clearLegacyApproval(String ownerKey, String operatorKey) {
+        if (!isMigrating())
+            return;
+        DictDB<String, Boolean> legacy = bdbLegacyApprovals.at(ownerKey);
+        if (legacy.get(operatorKey) != null)
+            legacy.set(operatorKey, null);
+    }
+
+    /**
+     * Returns the legacy creator of an id, or null if there is none
+     */
+    NetworkAddress legacyCreator(BigInteger id) {
+        if (!isMigratingCreators())
+            return null;
+        return dbLegacyCreators.get(id);
+    }
+
+    /**
+     * Moves the legacy creator of an id into MintedIds before the id is minted again
+     */
+    void migrateCreator(BigInteger id) {
+        if (isMigratingCreators())
+            _migrateCreator(id);
+    }
+
+    // ================================================
+    // Queued Migration
+    // ================================================
+
+    /**
+     * Queues the keys of legacy entries, normalizing their addresses the way the legacy layout stored them
+     */
+    void queue(String[] keys) {
+        for (String key : keys) {
+            String[] parts = _parseKey(key);
+            Context.require(parts != null, "Invalid migration key " + key);
+            adbQueue.add(key.startsWith(KEY_CREATOR) ? KEY_CREATOR + parts[0] : key.substring(0, 2) + parts[0] + "|" + parts[1]);
+        }
+    }
+
+    /**
+     * Moves up to maxEntries queued entries to the current layout
+     * @return the number of keys visited
+     */
+    int step(int maxEntries, String networkID) {
+        int cursor = varCursor.getOrDefault(0);
+        int stop = Math.min(adbQueue.size(), cursor + maxEntries);
+        int start = cursor;
+
+        for (; cursor < stop; cursor++) {
+            String key = adbQueue.get(cursor);
+            String[] parts = _parseKey(key);
+            if (key.startsWith(KEY_BALANCE)) {
+                _migrateBalance(new BigInteger(parts[0]), parts[1], networkID);
+            } else if (key.startsWith(KEY_CREATOR)) {
+                _migrateCreator(new BigInteger(parts[0]));
+            } else {
+                _migrateApproval(parts[0], parts[1], networkID);
+            }
+        }
+
+        varCursor.set(cursor);
+        return cursor - start;
+    }
+
+    /**
+     * Ends the legacy lookups once every queued key is moved, legacy entries that were never queued are no longer read
+     * @return the number of keys moved
+     */
+    int complete() {
+        int queued = adbQueue.size();
+        Context.require(varCursor.getOrDefault(0) == queued, "Queued migration keys are left, call migrateStep first");
+        varLegacyLayout.set(null);
+        varLegacyCreators.set(null);
+        return queued;
+    }
+
+    Map<String, Object> status() {
+        int queued = adbQueue.size();
+        int cursor = varCursor.getOrDefault(0);
+        return Map.of(
+                "schemaVersion", getSchemaVersion(),
+                "migrating", isMigrating(),
+                "legacyCreators", isMigratingCreators(),
+                "queued", queued,
+                "cursor", cursor,
+                "remaining", queued - cursor);
+    }
+
+    /**
+     * Splits a queued key into its normalized parts, [id, owner] for balances, [owner, operator] for approvals and
+     * [id] for creators
+     * @return the parts, or null if the key is malformed
+     */
+    private static String[] _parseKey(String key) {
+        try {
+            String body = key.substring(2);
+            if (key.startsWith(KEY_CREATOR))
+                return new String[] { new BigInteger(body).toString() };
+            int separator = body.indexOf("|");
+            String first = body.substring(0, separator);
+            String second = new NetworkAddress(body.substring(separator + 1), "").toString();
+            if (key.startsWith(KEY_BALANCE))
+                return new String[] { new BigInteger(first).toString(), second };
+            if (key.startsWith(KEY_APPROVAL))
+                return new String[] { new NetworkAddress(first, "").toString(), second };
+        } catch (Exception ex) {
+        }
+        return null;
+    }
+
+    /**
+     * Moves a balance to its account key, unless the account key was written since
+     */
+    private void _migrateBalance(BigInteger id, String ownerKey, String networkID) {
+        DictDB<String, BigInteger> legacy = bdbLegacyBalances.at(id);
+        BigInteger balance = legacy.get(ownerKey);
+        if (balance == null)
+            return;
+
+        DictDB<String, BigInteger> balances = bdbBalances.at(id);
+        String accountKey = XChainMultiToken._accountKey(new NetworkAddress(ownerKey, ""), networkID);
+        if (balances.get(accountKey) == null)
+            balances.set(accountKey, balance);
+        legacy.set(ownerKey, null);
+    }
+
+    /**
+     * Moves a creator to MintedIds and marks its id as minted, the creator of an id minted again since is kept
+     */
+    private void _migrateCreator(BigInteger id) {
+        NetworkAddress creator = dbLegacyCreators.get(id);
+        if (creator == null)
+            return;
+
+        if (mintedIds.mark(id))
+            mintedIds.setCreator(id, mintedIds.intern(creator.toString()));
+        dbLegacyCreators.set(id, null);
+    }
+
+    /**
+     * Moves an approval to its account keys, unless the account keys were written since
+     */
+    private void _migrateApproval(String ownerKey, String operatorKey, String networkID) {
+        DictDB<String, Boolean> legacy = bdbLegacyApprovals.at(ownerKey);
+        Boolean approved = legacy.get(operatorKey);
+        if (approved == null)
+            return;
+
+        DictDB<String, Boolean> approvals = bdbApprovals.at(XChainMultiToken._accountKey(new NetworkAddress(ownerKey, ""), networkID));
+        String operatorAccountKey = XChainMultiToken._accountKey(new NetworkAddress(operatorKey, ""), networkID);
+        if (approvals.get(operatorAccountKey) == null)
+            approvals.set(operatorAccountKey, approved);
+        legacy.set(operatorKey, null);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.ArrayDB;
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+import com.bawinkl.score.xchainmultitoken.sdos.NetworkAddress;
+
+import scorex.util.ArrayList;
+
+/**
+ * Append-only index of the minted fungible ids, globally and per creator, in first mint order.
+ *
+ * Ids are appended when MintedIds marks them as minted, so listing costs one array append and one per-creator slot
+ * per new id. Ids minted before the catalog existed (schema version 2 and older) cannot be enumerated on chain, the
+ * owner queues them, rebuilt from the URI or mint events, and anyone lists them in bounded steps. While that
+ * backfill runs, every listed id is also marked in a bitmap so an id is never listed twice.
+ */
+class TokenCatalog {
+
+    // ================================================
+    // Consts
+    // ================================================
+    // Maximum number of ids returned by a page
+    static final int MAX_PAGE = 100;
+    // Number of ids per listed bitmap slot is 1 << SLOT_SHIFT
+    private static final int SLOT_SHIFT = 8;
+    private static final int BIT_MASK = (1 << SLOT_SHIFT) - 1;
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // Listed ids in first mint order
+    private final ArrayDB<BigInteger> adbIds = Context.newArrayDB("catalog_ids", BigInteger.class);
+    // creator index in MintedIds => (position => id), in first mint order
+    private final BranchDB<Integer, DictDB<Integer, BigInteger>> bdbCreatorIds = Context
+            .newBranchDB("catalog_creator_ids", BigInteger.class);
+    // creator index in MintedIds => number of listed ids of the creator
+    private final DictDB<Integer, Integer> dbCreatorCounts = Context.newDictDB("catalog_creator_counts", Integer.class);
+    // Whether ids minted before the catalog existed may still be unlisted
+    private final VarDB<Boolean> varBackfilling = Context.newVarDB("catalog_backfilling", Boolean.class);
+    // Ids queued by the owner to be listed by the backfill
+    private final ArrayDB<BigInteger> adbQueue = Context.newArrayDB("catalog_queue", BigInteger.class);
+    // Index of the next queued id to list
+    private final VarDB<Integer> varCursor = Context.newVarDB("catalog_cursor", Integer.class);
+    // id >> SLOT_SHIFT => bitmap of the listed ids in the slot, only written while the backfill runs
+    private final DictDB<BigInteger, BigInteger> dbListed = Context.newDictDB("catalog_listed", BigInteger.class);
+
+    private final MintedIds mintedIds;
+    private final StorageMigration storageMigration;
+
+    TokenCatalog(MintedIds mintedIds, StorageMigration storageMigration) {
+        this.mintedIds = mintedIds;
+        this.storageMigration = storageMigration;
+    }
+
+    int size() {
+        return adbIds.size();
+    }
+
+    /**
+     * Returns a page of the listed ids
+     */
+    List<BigInteger> page(int offset, int limit) {
+        int end = _pageEnd(offset, limit, adbIds.size());
+        ArrayList<BigInteger> ids = new ArrayList<>();
+        for (int i = offset; i < end; i++) {
+            ids.add(adbIds.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the number of listed ids of a creator [NetworkAddress String]
+     */
+    int creatorSize(String creator) {
+        Integer creatorIndex = mintedIds.indexOf(creator);
+        return creatorIndex == null ? 0 : dbCreatorCounts.getOrDefault(creatorIndex, 0);
+    }
+
+    /**
+     * Returns a page of the listed ids of a creator [NetworkAddress String]
+     */
+    List<BigInteger> creatorPage(String creator, int offset, int limit) {
+        int end = _pageEnd(offset, limit, creatorSize(creator));
+        ArrayList<BigInteger> ids = new ArrayList<>();
+        if (end > offset) {
+            DictDB<Integer, BigInteger> creatorIds = bdbCreatorIds.at(mintedIds.indexOf(creator));
+            for (int i = offset; i < end; i++) {
+                ids.add(creatorIds.get(i));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Lists a newly minted id
+     * @param creatorIndex the index of its creator in MintedIds
+     */
+    void add(BigInteger id, int creatorIndex) {
+        if (isBackfilling() && !_markListed(id))
+            return;
+
+        adbIds.add(id);
+        int count = dbCreatorCounts.getOrDefault(creatorIndex, 0);
+        bdbCreatorIds.at(creatorIndex).set(count, id);
+        dbCreatorCounts.set(creatorIndex, count + 1);
+    }
+
+    // ================================================
+    // Backfill
+    // ================================================
+
+    /**
+     * Starts the backfill of a deployment holding ids minted before the catalog existed
+     */
+    void startBackfill() {
+        varBackfilling.set(true);
+    }
+
+    boolean isBackfilling() {
+        return varBackfilling.getOrDefault(false);
+    }
+
+    void queue(BigInteger[] ids) {
+        for (BigInteger id : ids) {
+            Context.require(id.signum() >= 0, "Invalid id " + id);
+            adbQueue.add(id);
+        }
+    }
+
+    /**
+     * Lists up to maxEntries queued ids, ids that are not minted or already listed are skipped
+     * Creators still in the legacy layout are interned as they would be by the storage migration
+     * @return the number of queued ids visited
+     */
+    int step(int maxEntries) {
+        int cursor = varCursor.getOrDefault(0);
+        int stop = Math.min(adbQueue.size(), cursor + maxEntries);
+        int start = cursor;
+
+        for (; cursor < stop; cursor++) {
+            BigInteger id = adbQueue.get(cursor);
+            Integer creatorIndex = mintedIds.creatorIndexOf(id);
+            if (creatorIndex == null) {
+                NetworkAddress legacyCreator = storageMigration.legacyCreator(id);
+                if (legacyCreator == null)
+                    continue;
+                creatorIndex = mintedIds.intern(legacyCreator.toString());
+            }
+            add(id, creatorIndex);
+        }
+
+        varCursor.set(cursor);
+        return cursor - start;
+    }
+
+    /**
+     * Ends the backfill once every queued id was visited, new ids are then listed without the listed bitmap
+     * @return the number of ids queued
+     */
+    int complete() {
+        int queued = adbQueue.size();
+        Context.require(varCursor.getOrDefault(0) == queued, "Queued catalog ids are left, call indexStep first");
+        varBackfilling.set(null);
+        return queued;
+    }
+
+    Map<String, Object> status() {
+        int queued = adbQueue.size();
+        int cursor = varCursor.getOrDefault(0);
+        return Map.of(
+                "tokens", size(),
+                "backfilling", isBackfilling(),
+                "queued", queued,
+                "remaining", queued - cursor);
+    }
+
+    /**
+     * Marks an id as listed
+     * @return true if it was not listed before
+     */
+    private boolean _markListed(BigInteger id) {
+        BigInteger slot = id.shiftRight(SLOT_SHIFT);
+        BigInteger bits = dbListed.getOrDefault(slot, BigInteger.ZERO);
+        int bit = id.intValue() & BIT_MASK;
+        if (bits.testBit(bit))
+            return false;
+        dbListed.set(slot, bits.setBit(bit));
+        return true;
+    }
+
+    private static int _pageEnd(int offset, int limit, int total) {
+        Context.require(offset >= 0, "_offset cannot be negative");
+        Context.require(limit > 0 && limit <= MAX_PAGE, "_limit must be between 1 and " + MAX_PAGE);
+        return Math.min(total, offset + limit);
+    }
+}
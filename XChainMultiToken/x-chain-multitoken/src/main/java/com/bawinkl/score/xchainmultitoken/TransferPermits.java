@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import score.ByteArrayObjectWriter;
+import score.Context;
+import score.DictDB;
+import score.ObjectReader;
+
+import java.math.BigInteger;
+
+import com.bawinkl.score.xchainmultitoken.sdos.*;
+
+/**
+ * Signed transfer permits: decoding, signature checks and the per-signer nonces that make each permit usable once.
+ * The transfers themselves are executed by the SCORE.
+ */
+class TransferPermits {
+
+    // ================================================
+    // SCORE DB
+    // ================================================
+    // signer[NetworkAddress String] => next permit nonce
+    private final DictDB<String, BigInteger> dbNonces = Context.newDictDB("permit_nonces", BigInteger.class);
+
+    /**
+     * A decoded permit, [from, to, [ids], [values], nonce, expiry, signature]
+     */
+    static final class Permit {
+        NetworkAddress from;
+        NetworkAddress to;
+        BigInteger[] ids;
+        BigInteger[] values;
+        BigInteger nonce;
+        BigInteger expiry;
+        byte[] signature;
+    }
+
+    BigInteger nonceOf(NetworkAddress signer) {
+        return dbNonces.getOrDefault(signer.toString(), BigInteger.ZERO);
+    }
+
+    /**
+     * Decodes a RLP encoded permit
+     * @return the permit, or null if it is malformed
+     */
+    static Permit decode(byte[] encoded, String networkID) {
+        try {
+            ObjectReader r = Context.newByteArrayObjectReader("RLPn", encoded);
+            Permit permit = new Permit();
+            r.beginList();
+            permit.from = new NetworkAddress(r.readString(), networkID);
+            permit.to = new NetworkAddress(r.readString(), networkID);
+            permit.ids = XChainMultiToken._readBigIntegerList(r);
+            permit.values = XChainMultiToken._readBigIntegerList(r);
+            permit.nonce = r.readBigInteger();
+            permit.expiry = r.readBigInteger();
+            permit.signature = r.readByteArray();
+            r.end();
+            return permit;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the shape, expiry, nonce and signature of a permit
+     * @return null if the permit can be executed, otherwise the reason it cannot
+     */
+    String check(Permit permit, String networkID) {
+        if (permit.ids.length == 0 || permit.ids.length != permit.values.length)
+            return "_ids & _values length mismatch";
+        if (permit.expiry.compareTo(BigInteger.valueOf(Context.getBlockHeight())) < 0)
+            return "permit expired";
+        if (!permit.nonce.equals(nonceOf(permit.from)))
+            return "invalid nonce";
+
+        byte[] message = message(permit.from, permit.to, permit.ids, permit.values, permit.nonce, permit.expiry);
+        if (!_isSigner(permit.from, message, permit.signature, networkID))
+            return "invalid signature";
+        return null;
+    }
+
+    /**
+     * Marks the nonce of a checked permit as used
+     */
+    void consume(Permit permit) {
+        dbNonces.set(permit.from.toString(), permit.nonce.add(BigInteger.ONE));
+    }
+
+    /**
+     * Returns the message authorizing a permit, the RLP encoding of
+     * [SCORE address, "permit", from, to, [ids], [values], nonce, expiry].
+     * The SCORE address keeps a permit from being replayed against another deployment.
+     */
+    static byte[] message(NetworkAddress from, NetworkAddress to, BigInteger[] ids, BigInteger[] values,
+            BigInteger nonce, BigInteger expiry) {
+        ByteArrayObjectWriter w = Context.newByteArrayObjectWriter("RLPn");
+        w.beginList(8);
+        w.write(Context.getAddress().toString());
+        w.write("permit");
+        w.write(from.toString());
+        w.write(to.toString());
+        w.beginList(ids.length);
+        for (BigInteger id : ids) {
+            w.write(id);
+        }
+        w.end();
+        w.beginList(values.length);
+        for (BigInteger value : values) {
+            w.write(value);
+        }
+        w.end();
+        w.write(nonce);
+        w.write(expiry);
+        w.end();
+        return w.toByteArray();
+    }
+
+    /**
+     * Recovers the signing key and checks it against the signer address.
+     * Local signers sign the sha3-256 hash of the message and are compared as ICON addresses, remote signers sign
+     * its keccak-256 hash and are compared as EVM style addresses derived from the key.
+     * Signatures are r || s || v, EVM wallets sign with v = 27 or 28 where recoverKey expects 0 or 1.
+     */
+    private boolean _isSigner(NetworkAddress signer, byte[] message, byte[] signature, String networkID) {
+        try {
+            if (signature.length == 65 && (signature[64] == 27 || signature[64] == 28)) {
+                byte[] normalized = new byte[65];
+                System.arraycopy(signature, 0, normalized, 0, 64);
+                normalized[64] = (byte) (signature[64] - 27);
+                signature = normalized;
+            }
+
+            if (signer.getNetworkID().equals(networkID)) {
+                byte[] digest = Context.hash("sha3-256", message);
+                byte[] publicKey = Context.recoverKey("ecdsa-secp256k1", digest, signature, true);
+                return Context.getAddressFromKey(publicKey).toString().equals(signer.getAddress());
+            }
+
+            byte[] digest = Context.hash("keccak-256", message);
+            byte[] publicKey = Context.recoverKey("ecdsa-secp256k1", digest, signature, false);
+            byte[] rawKey = new byte[publicKey.length - 1];
+            System.arraycopy(publicKey, 1, rawKey, 0, rawKey.length);
+            byte[] keyHash = Context.hash("keccak-256", rawKey);
+            return ("0x" + XChainMultiToken._toHex(keyHash, 12, 20)).equals(signer.getAddress());
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+}
@@ -22,12 +22,15 @@ import score.ArrayDB;
 import score.VarDB;
 import score.BranchDB;
 import score.Address;
+import score.ObjectReader;
 
+import java.util.List;
 import java.util.Map;
 
 import score.annotation.EventLog;
 import score.annotation.External;
 import score.annotation.Optional;
+import score.annotation.Payable;
 
 import java.math.BigInteger;
 
@@ -39,30 +42,56 @@ import com.eclipsesource.json.Json;
 import com.bawinkl.score.xchainmultitoken.sdos.*;
 import com.iconloop.score.token.irc31.IRC31;
 
+import scorex.util.ArrayList;
+import scorex.util.HashMap;
+
 public class XChainMultiToken implements IRC31 {
 
     // ================================================
     // Consts
     // ================================================
     public static final Address ZERO_ADDRESS = new Address(new byte[Address.LENGTH]);
+    // Skip reason of bulk job items that cannot be decoded
+    private static final String MALFORMED_JOB_ITEM = "Malformed item";
 
     // ================================================
     // SCORE DB
     // ================================================
-    // id => (owner[NetworkAddress String] => balance)
-    private final BranchDB<BigInteger, DictDB<String, BigInteger>> bdbBalances = Context
-            .newBranchDB("balances", BigInteger.class);
-    // owner[NetworkAddress String] => (operator[NetworkAddress String] => approved)
-    private final BranchDB<String, DictDB<String, Boolean>> bdbOperatorApproval = Context
-            .newBranchDB("approval", Boolean.class);
+    // id => (owner[account key] => balance), accounts of this network are keyed by their bare address, see _accountKey
+    private final BranchDB<BigInteger, DictDB<String, BigInteger>> bdbAccountBalances = Context
+            .newBranchDB("account_balances", BigInteger.class);
+    // owner[account key] => (operator[account key] => approved)
+    private final BranchDB<String, DictDB<String, Boolean>> bdbAccountApprovals = Context
+            .newBranchDB("account_approvals", Boolean.class);
     // id => token URI
     private final DictDB<BigInteger, String> dbTokenURI = Context.newDictDB("token_uri", String.class);
     // The networkID for this SCORE
     public final VarDB<String> varNetworkID = Context.newVarDB("network_id", String.class);
     // The XCall contract endpoint
     public final VarDB<Address> varXCallContract = Context.newVarDB("xcall_contract", Address.class);
-    // id ==> creator
-    private final DictDB<BigInteger, NetworkAddress> dbCreators = Context.newDictDB("creators", NetworkAddress.class);
+    // networkID => peer XChainMultiToken contract on that network [NetworkAddress String]
+    private final DictDB<String, String> dbRemoteContracts = Context.newDictDB("remote_contracts", String.class);
+    // id => supply on this network, tracked since bridging was introduced
+    private final DictDB<BigInteger, BigInteger> dbSupply = Context.newDictDB("supply", BigInteger.class);
+    // destination networkID => next sequence number attached to outbound xcall messages, checked by the peer's replay protection
+    private final DictDB<String, BigInteger> dbOutboundNonces = Context.newDictDB("outbound_nonces", BigInteger.class);
+
+    // ================================================
+    // Subsystems
+    // ================================================
+    private final InboundNonces inboundNonces = new InboundNonces();
+    private final TransferPermits transferPermits = new TransferPermits();
+    private final MintedIds mintedIds = new MintedIds();
+    private final StorageMigration storageMigration = new StorageMigration(bdbAccountBalances, bdbAccountApprovals, mintedIds);
+    private final RemoteBalanceCache remoteBalances = new RemoteBalanceCache();
+    private final NonFungibleRanges nonFungibleRanges = new NonFungibleRanges();
+    private final InboundQuotas inboundQuotas = new InboundQuotas();
+    private final OperationalStats operationalStats = new OperationalStats();
+    private final BridgeLedger bridgeLedger = new BridgeLedger();
+    private final BulkJobs bulkJobs = new BulkJobs();
+    private final GenesisImport genesisImport = new GenesisImport();
+    private final TokenCatalog tokenCatalog = new TokenCatalog(mintedIds, storageMigration);
+    private final BalanceCommitments balanceCommitments = new BalanceCommitments(operationalStats);
 
 
     public XChainMultiToken(boolean _update) {
@@ -74,9 +103,18 @@ public class XChainMultiToken implements IRC31 {
     }
 
     public void onUpdate() {
+        int storedVersion = storageMigration.getSchemaVersion();
+        if (storedVersion < StorageMigration.SCHEMA_VERSION) {
+            storageMigration.start(storedVersion);
+            MigrationStarted(storedVersion, StorageMigration.SCHEMA_VERSION);
+        }
+        // Ids minted before the catalog existed are listed by its backfill, see indexStep
+        if (storedVersion < 3)
+            tokenCatalog.startBackfill();
     }
 
     public void onInstall() {
+        storageMigration.install();
     }
 
     // ================================================
@@ -106,6 +144,36 @@ public class XChainMultiToken implements IRC31 {
         varXCallContract.set(_value);
     }
 
+    /**
+     * Accepts ICX transfers used to pay the fees of xcall messages sent by this contract
+     */
+    @Payable
+    public void fallback() {
+    }
+
+    /**
+     * Get the peer contract configured for a remote network
+     * @param _networkID: the remote network ID
+     */
+    @External(readonly = true)
+    public String getRemoteContract(String _networkID) {
+        return dbRemoteContracts.getOrDefault(_networkID.toLowerCase(), "");
+    }
+
+    /**
+     * Sets the peer contract for a remote network
+     * Messages sent to the network are addressed to this contract and responses are only accepted from it
+     * Can only be set by the SCORE owner
+     * 
+     * @param _value: the peer contract in network address format ([NetworkID]/[Address]) or btp address format ([btp://][NetworkID]/[Address])
+     */
+    @External
+    public void setRemoteContract(String _value) {
+        onlyOwner();
+        NetworkAddress remoteAddress = new NetworkAddress(_value, "");
+        dbRemoteContracts.set(remoteAddress.getNetworkID(), remoteAddress.toString());
+    }
+
     // ================================================
     // Network ID Management
     // ================================================
@@ -167,7 +235,72 @@ public class XChainMultiToken implements IRC31 {
     }
 
     private BigInteger _balanceOf(NetworkAddress _owner, BigInteger _id) {
-        return bdbBalances.at(_id).getOrDefault(_owner.toString(), BigInteger.ZERO);
+        return _balanceOf(_owner, _id, varNetworkID.get());
+    }
+
+    /**
+     * @param _networkID the network ID of this SCORE, resolved once by callers looking up many balances
+     */
+    private BigInteger _balanceOf(NetworkAddress _owner, BigInteger _id, String _networkID) {
+        if (nonFungibleRanges.contains(_id))
+            return _owner.toString().equals(nonFungibleRanges.ownerOf(_id)) ? BigInteger.ONE : BigInteger.ZERO;
+
+        BigInteger balance = bdbAccountBalances.at(_id).get(_accountKey(_owner, _networkID));
+        // Only missing entries can still be in the legacy layout, a written entry always takes precedence
+        if (balance == null)
+            balance = storageMigration.legacyBalance(_id, _owner.toString());
+        return balance == null ? BigInteger.ZERO : balance;
+    }
+
+    /**
+     * Returns the storage key of an account in the balance and approval tables
+     */
+    private String _accountKey(NetworkAddress _account) {
+        return _accountKey(_account, varNetworkID.get());
+    }
+
+    /**
+     * Returns the storage key of an account in the balance and approval tables
+     * Accounts of this network are keyed by their bare address, so their entries do not depend on the configured network ID
+     * @param _networkID the network ID of this SCORE
+     */
+    protected static String _accountKey(NetworkAddress _account, String _networkID) {
+        if (_account.getNetworkID().equals(_networkID))
+            return _account.getAddress();
+        return _account.toString();
+    }
+
+    /**
+     * Moves _value tokens of _id between two owners, the caller is responsible for the balance checks
+     */
+    private void _moveBalance(BigInteger _id, NetworkAddress _from, NetworkAddress _to, BigInteger _value) {
+        if (nonFungibleRanges.contains(_id)) {
+            // The balance checks guarantee _from owns the id when _value is 1
+            if (_value.signum() > 0)
+                nonFungibleRanges.setOwner(_id, _to.toString());
+            return;
+        }
+
+        _writeBalance(_id, _from, _balanceOf(_from, _id).subtract(_value));
+        _writeBalance(_id, _to, _balanceOf(_to, _id).add(_value));
+    }
+
+    /**
+     * Writes a balance entry in the current layout, removing the legacy entry it replaces
+     * Balances of ids with commitments enabled are also committed to the balance tree
+     */
+    private void _writeBalance(BigInteger _id, NetworkAddress _owner, BigInteger _value) {
+        _writeBalance(_id, _owner, _value, varNetworkID.get());
+    }
+
+    /**
+     * @param _networkID the network ID of this SCORE, resolved once by callers writing many balances
+     */
+    private void _writeBalance(BigInteger _id, NetworkAddress _owner, BigInteger _value, String _networkID) {
+        bdbAccountBalances.at(_id).set(_accountKey(_owner, _networkID), _value);
+        storageMigration.clearLegacyBalance(_id, _owner.toString());
+        if (balanceCommitments.isCommitted(_id))
+            balanceCommitments.commit(_id, _owner.toString(), _value);
     }
 
     /**
@@ -215,9 +348,82 @@ public class XChainMultiToken implements IRC31 {
         return balances;
     }
 
+    /**
+     * Returns the supply of a token on this network
+     * Supply is tracked since bridging was introduced, ids minted by earlier versions only reflect later mints and burns.
+     * Burning or bridging out tokens of such ids stops at zero, so their supply is a lower bound and never negative.
+     * @param _id: the token ID
+     */
+    @External(readonly = true)
+    public BigInteger totalSupply(BigInteger _id) {
+        if (nonFungibleRanges.contains(_id)) {
+            String owner = nonFungibleRanges.ownerOf(_id);
+            return owner == null || owner.isEmpty() ? BigInteger.ZERO : BigInteger.ONE;
+        }
+        return dbSupply.getOrDefault(_id, BigInteger.ZERO);
+    }
+
     @External(readonly = true)
     public String tokenURI(BigInteger _id) {
-        return dbTokenURI.get(_id);
+        String uri = dbTokenURI.get(_id);
+        if (uri == null && nonFungibleRanges.contains(_id))
+            uri = nonFungibleRanges.uriOf(_id);
+        return uri;
+    }
+
+    /**
+     * Runs a batch of readonly queries in a single call, each query returns what the matching single query method returns
+     * The Network ID is resolved once and every distinct address string is parsed once across the batch
+     * All arrays must have the same length, entries not used by a query type are ignored (pass "" or 0)
+     * @param _types: the query type of each entry: "balance" (account, id), "approval" (account, operator), "uri" (id), "creator" (id) or "supply" (id)
+     * @param _accounts: the owner address of balance and approval queries in one of the following formats: icon address, network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     * @param _operators: the operator address of approval queries in the same formats
+     * @param _ids: the token ID of balance, uri, creator and supply queries
+     * @return the result of each query in order, the element type depends on the query type:
+     *  "balance" and "supply" return an int (BigInteger), "approval" a bool (Boolean),
+     *  "uri" a str (blank when unset) and "creator" a str network address (blank when unknown)
+     */
+    @External(readonly = true)
+    public List<Object> multicall(String[] _types, String[] _accounts, String[] _operators, BigInteger[] _ids) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        Context.require(_types.length == _accounts.length && _types.length == _operators.length && _types.length == _ids.length,
+                "_types, _accounts, _operators and _ids must have the same length");
+        String networkID = varNetworkID.get();
+
+        HashMap<String, NetworkAddress> parsed = new HashMap<>();
+        ArrayList<Object> results = new ArrayList<>(_types.length);
+        for (int i = 0; i < _types.length; i++) {
+            String type = _types[i];
+            if (type.equals("balance")) {
+                results.add(_balanceOf(_parseCached(parsed, _accounts[i], networkID), _ids[i], networkID));
+            } else if (type.equals("approval")) {
+                results.add(_isApprovedForAll(_parseCached(parsed, _accounts[i], networkID),
+                        _parseCached(parsed, _operators[i], networkID), networkID));
+            } else if (type.equals("uri")) {
+                String uri = tokenURI(_ids[i]);
+                results.add(uri == null ? "" : uri);
+            } else if (type.equals("creator")) {
+                NetworkAddress creator = _creatorOf(_ids[i]);
+                results.add(creator == null ? "" : creator.toString());
+            } else if (type.equals("supply")) {
+                results.add(totalSupply(_ids[i]));
+            } else {
+                Context.revert("Query type '" + type + "' is not supported");
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Parses an address string, reusing the result of an earlier parse of the same string in the batch
+     */
+    private NetworkAddress _parseCached(HashMap<String, NetworkAddress> parsed, String address, String networkID) {
+        NetworkAddress networkAddress = parsed.get(address);
+        if (networkAddress == null) {
+            networkAddress = new NetworkAddress(address, networkID);
+            parsed.put(address, networkAddress);
+        }
+        return networkAddress;
     }
 
     /**
@@ -259,34 +465,39 @@ public class XChainMultiToken implements IRC31 {
     private void _transferFrom(NetworkAddress _caller, NetworkAddress _from, NetworkAddress _to, BigInteger _id,
             BigInteger _value, @Optional byte[] _data) {
 
-        Context.require(!_to.getAddress().equals(ZERO_ADDRESS.toString()),
-                "_to must be non-zero address");
-                
-        Context.require(_from.equals(_caller) || _isApprovedForAll(_from, _caller),
-                "Need operator approval for 3rd party transfers");
-                
-        Context.require(_value.signum() >= 0 && _balanceOf(_from, _id).compareTo(_value) >= 0,
-                "Insufficient funds to transfer " + _value);
+        _requireValid(_checkTransfer(_caller, _from, _to, new BigInteger[] { _id }, new BigInteger[] { _value }));
 
         // Transfer funds
-        DictDB<String, BigInteger> balance = bdbBalances.at(_id);
-        balance.set(_from.toString(), _balanceOf(_from, _id).subtract(_value));
-        balance.set(_to.toString(), _balanceOf(_to, _id).add(_value));
+        _moveBalance(_id, _from, _to, _value);
 
         // Emit event
         x_TransferSingle(_caller.toString(), _from.toString(), _to.toString(), _id, _value);
+        operationalStats.recordTransfer(1, false);
 
+        _callReceivedHook(_caller, _from, _to, _id, _value, _data);
+    }
+
+    /**
+     * Calls onIRC31Received on a recipient contract
+     */
+    private void _callReceivedHook(NetworkAddress _caller, NetworkAddress _from, NetworkAddress _to, BigInteger _id,
+            BigInteger _value, byte[] _data) {
         // Try to call onIRC31Received
         // this will only work for local network contract addresses, so we wrap it in a
         // try/catch
+        boolean hookCalled = false;
         try {
             Address toAddress = Address.fromString(_to.getAddress());
             if (toAddress.isContract()) {
+                hookCalled = true;
                 // Call {@code onIRC31Received} if the recipient is a contract    
                 Context.call(Address.fromString(_to.getAddress()), "onIRC31Received", Address.fromString(_caller.getAddress()), Address.fromString(_from.getAddress()), _id, _value,
                         _data == null ? new byte[] {} : _data);
             }
         } catch (Exception ex) {
+            // Only count failures of the hook call itself, not remote recipients that cannot be parsed as ICON addresses
+            if (hookCalled)
+                operationalStats.recordHookFailure();
         }
     }
 
@@ -332,38 +543,60 @@ public class XChainMultiToken implements IRC31 {
 
     public void _transferFromBatch(NetworkAddress _caller, NetworkAddress _from, NetworkAddress _to, BigInteger[] _ids,
             BigInteger[] _values, @Optional byte[] _data) {
-        Context.require(!_to.getAddress().equals(ZERO_ADDRESS.toString()),
-                "_to must be non-zero");
-        Context.require(_from.equals(_caller) || _isApprovedForAll(_from, _caller),
-                "Need operator approval for 3rd party transfers");
+        _requireValid(_checkTransfer(_caller, _from, _to, _ids, _values));
 
+        // Transfer funds
         for (int i = 0; i < _ids.length; i++) {
-            BigInteger _id = _ids[i];
-            BigInteger _value = _values[i];
-            Context.require(_value.signum() >= 0 && _balanceOf(_from, _id).compareTo(_value) >= 0,
-                    "Insufficient funds");
-
-            // Transfer funds
-            DictDB<String, BigInteger> balance = bdbBalances.at(_id);
-            balance.set(_from.toString(), _balanceOf(_from, _id).subtract(_value));
-            balance.set(_to.toString(), _balanceOf(_to, _id).add(_value));
+            _moveBalance(_ids[i], _from, _to, _values[i]);
         }
 
         // Emit event
         x_TransferBatch(_caller.toString(), _from.toString(), _to.toString(), rlpEncode(_ids), rlpEncode(_values));
+        operationalStats.recordTransfer(_ids.length, true);
 
         // Try to call onIRC31BatchReceived
         // this will only work for local network contract addresses, so we wrap it in a
         // try/catch
+        boolean hookCalled = false;
         try {
             Address toAddress = Address.fromString(_to.getAddress());
             if (toAddress.isContract()) {
+                hookCalled = true;
                 // Call {@code onIRC31Received} if the recipient is a contract
                 Context.call(Address.fromString(_to.getAddress()), "onIRC31BatchReceived", Address.fromString(_caller.getAddress()), Address.fromString(_from.getAddress()), _ids, _values,
                         _data == null ? new byte[] {} : _data);
             }
         } catch (Exception ex) {
+            // Only count failures of the hook call itself, not remote recipients that cannot be parsed as ICON addresses
+            if (hookCalled)
+                operationalStats.recordHookFailure();
+        }
+    }
+
+    /**
+     * Runs the approval and balance checks of _transferFrom and _transferFromBatch without reverting
+     * @return null if the transfer would succeed, otherwise the reason it would fail
+     */
+    private String _checkTransfer(NetworkAddress _caller, NetworkAddress _from, NetworkAddress _to, BigInteger[] _ids,
+            BigInteger[] _values) {
+        if (_to.getAddress().equals(ZERO_ADDRESS.toString()))
+            return "_to must be non-zero address";
+        if (!_from.equals(_caller) && !_isApprovedForAll(_from, _caller))
+            return "Need operator approval for 3rd party transfers";
+        if (_ids.length != _values.length)
+            return "_ids & _values length mismatch, both arrays should be the same size";
+
+        // Duplicate ids draw from the same balance
+        HashMap<BigInteger, BigInteger> required = new HashMap<>();
+        for (int i = 0; i < _ids.length; i++) {
+            if (_values[i].signum() < 0)
+                return "Invalid amount " + _values[i];
+            BigInteger total = required.getOrDefault(_ids[i], BigInteger.ZERO).add(_values[i]);
+            required.put(_ids[i], total);
+            if (_balanceOf(_from, _ids[i]).compareTo(total) < 0)
+                return "Insufficient funds to transfer " + _values[i];
         }
+        return null;
     }
 
     /**
@@ -395,10 +628,55 @@ public class XChainMultiToken implements IRC31 {
     }
 
     private void _setApprovalForAll(NetworkAddress _caller, NetworkAddress _operator, boolean _approved) {
-        bdbOperatorApproval.at(_caller.toString()).set(_operator.toString(), _approved);
+        _writeApproval(_caller, _operator, _approved);
         x_ApprovalForAll(_caller.toString(), _operator.toString(), _approved);
     }
 
+    /**
+     * Sets the approval of several operators for the caller in a single call
+     * Approvals already holding the requested value are not written, the changed ones are emitted in one x_ApprovalForAllBatch event
+     * @param _operators: the operators in one of the following formats: an ICON address in string format, a network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     * @param _approved: the approval of each operator
+     */
+    @External
+    public void x_setApprovalForAllBatch(String[] _operators, boolean[] _approved) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        Context.require(_operators.length == _approved.length, "_operators and _approved must have the same length");
+        String networkID = varNetworkID.get();
+
+        NetworkAddress[] operatorAddresses = new NetworkAddress[_operators.length];
+        for (int i = 0; i < _operators.length; i++) {
+            operatorAddresses[i] = new NetworkAddress(_operators[i], networkID);
+        }
+        _setApprovalForAllBatch(new NetworkAddress(Context.getCaller(), networkID), operatorAddresses, _approved, networkID);
+    }
+
+    /**
+     * @param _networkID the network ID of this SCORE, resolved once for the whole batch
+     */
+    private void _setApprovalForAllBatch(NetworkAddress _caller, NetworkAddress[] _operators, boolean[] _approved,
+            String _networkID) {
+        String ownerKey = _caller.toString();
+        DictDB<String, Boolean> approvals = bdbAccountApprovals.at(_accountKey(_caller, _networkID));
+
+        ArrayList<String> changed = new ArrayList<>();
+        BigInteger approvedBits = BigInteger.ZERO;
+        for (int i = 0; i < _operators.length; i++) {
+            String operatorKey = _operators[i].toString();
+            if (_isApprovedForAll(_caller, _operators[i], _networkID) == _approved[i])
+                continue;
+
+            approvals.set(_accountKey(_operators[i], _networkID), _approved[i]);
+            storageMigration.clearLegacyApproval(ownerKey, operatorKey);
+            if (_approved[i])
+                approvedBits = approvedBits.setBit(changed.size());
+            changed.add(operatorKey);
+        }
+
+        if (!changed.isEmpty())
+            x_ApprovalForAllBatch(ownerKey, rlpEncode(changed), approvedBits);
+    }
+
     /**
      * This is the original IRC-31 implementation of isApprovedForAll, which looks up the newly implemented NetworkAddress based on the configured Network ID and the _from, _to and caller.
      * Required to match the IRC-31 interface requirements
@@ -428,7 +706,26 @@ public class XChainMultiToken implements IRC31 {
     }
 
     private boolean _isApprovedForAll(NetworkAddress _owner, NetworkAddress _operator) {
-        return bdbOperatorApproval.at(_owner.toString()).getOrDefault(_operator.toString(), false);
+        return _isApprovedForAll(_owner, _operator, varNetworkID.get());
+    }
+
+    /**
+     * @param _networkID the network ID of this SCORE, resolved once by callers looking up many approvals
+     */
+    private boolean _isApprovedForAll(NetworkAddress _owner, NetworkAddress _operator, String _networkID) {
+        Boolean approved = bdbAccountApprovals.at(_accountKey(_owner, _networkID)).get(_accountKey(_operator, _networkID));
+        // Only missing entries can still be in the legacy layout, a written entry always takes precedence
+        if (approved == null)
+            approved = storageMigration.legacyApproval(_owner.toString(), _operator.toString());
+        return approved != null && approved;
+    }
+
+    /**
+     * Writes an approval entry in the current layout, removing the legacy entry it replaces
+     */
+    private void _writeApproval(NetworkAddress _owner, NetworkAddress _operator, boolean _approved) {
+        bdbAccountApprovals.at(_accountKey(_owner)).set(_accountKey(_operator), _approved);
+        storageMigration.clearLegacyApproval(_owner.toString(), _operator.toString());
     }
 
     /**
@@ -446,7 +743,7 @@ public class XChainMultiToken implements IRC31 {
     }
 
     protected void _mint(NetworkAddress _owner, BigInteger _id, BigInteger _amount, String _uri) {
-        Context.require(dbCreators.get(_id) == null, "Token is already minted");
+        Context.require(!_isMinted(_id), "Token is already minted");
         Context.require(_amount.compareTo(BigInteger.ZERO) > 0, "Amount should be positive");
 
         // Mint the token & update balances
@@ -457,12 +754,24 @@ public class XChainMultiToken implements IRC31 {
 
     private void _mintInternal(NetworkAddress owner, BigInteger id, BigInteger amount) {
         Context.require(amount.compareTo(BigInteger.ZERO) > 0, "Invalid amount");
+        Context.require(!nonFungibleRanges.contains(id), "id is in a non-fungible range, use mintRange");
+
+        storageMigration.migrateCreator(id);
+        int creatorIndex = mintedIds.intern(owner.toString());
+        if (mintedIds.mark(id))
+            tokenCatalog.add(id, creatorIndex);
+        _mintCredit(owner, creatorIndex, id, amount);
+    }
 
+    /**
+     * Sets the creator and credits the minted amount, the caller is responsible for marking the id as minted
+     */
+    private void _mintCredit(NetworkAddress owner, int creatorIndex, BigInteger id, BigInteger amount) {
         // Update creator
-        dbCreators.set(id, owner);
+        mintedIds.setCreator(id, creatorIndex);
      
-        BigInteger balance = _balanceOf(owner, id);
-        bdbBalances.at(id).set(owner.toString(), balance.add(amount));
+        _writeBalance(id, owner, _balanceOf(owner, id).add(amount));
+        dbSupply.set(id, dbSupply.getOrDefault(id, BigInteger.ZERO).add(amount));
         
         // Emit transfer event for mint semantic
         x_TransferSingle(owner.toString(), new NetworkAddress(ZERO_ADDRESS, varNetworkID.get()).toString(), owner.toString(), id, amount);
@@ -472,9 +781,18 @@ public class XChainMultiToken implements IRC31 {
         Context.require(ids.length == amounts.length, "id/amount pairs mismatch");
 
         for (int i = 0; i < ids.length; i++) {
-            BigInteger id = ids[i];
-            BigInteger amount = amounts[i];
-            _mintInternal(owner, id, amount); //This will error out because we need to expect the URI value
+            Context.require(amounts[i].compareTo(BigInteger.ZERO) > 0, "Invalid amount");
+            Context.require(!nonFungibleRanges.contains(ids[i]), "id is in a non-fungible range, use mintRange");
+            storageMigration.migrateCreator(ids[i]);
+        }
+
+        // Contiguous ids share a single bitmap read and write per 256 ids, the creator is interned once
+        boolean[] added = mintedIds.markAll(ids);
+        int creatorIndex = mintedIds.intern(owner.toString());
+        for (int i = 0; i < ids.length; i++) {
+            if (added[i])
+                tokenCatalog.add(ids[i], creatorIndex);
+            _mintCredit(owner, creatorIndex, ids[i], amounts[i]);
         }
 
         // emit transfer event for Mint semantic
@@ -505,7 +823,14 @@ public class XChainMultiToken implements IRC31 {
 
         BigInteger balance = _balanceOf(owner, id);
         Context.require(balance.compareTo(amount) >= 0, "Insufficient funds");
-        bdbBalances.at(id).set(owner.toString(), balance.subtract(amount));
+        if (nonFungibleRanges.contains(id)) {
+            nonFungibleRanges.burn(id);
+            return;
+        }
+        _writeBalance(id, owner, balance.subtract(amount));
+        // Supply is not tracked for tokens minted by earlier versions, never let their burns take it below zero
+        BigInteger supply = dbSupply.getOrDefault(id, BigInteger.ZERO).subtract(amount);
+        dbSupply.set(id, supply.signum() < 0 ? BigInteger.ZERO : supply);
     }
 
     protected void _burnBatch(NetworkAddress owner, BigInteger[] ids, BigInteger[] amounts) {
@@ -535,7 +860,7 @@ public class XChainMultiToken implements IRC31 {
     }
 
     private void _setTokenURI(NetworkAddress _caller, BigInteger _id, String _uri) {
-        Context.require(_caller.equals(dbCreators.get(_id)), "Not token creator");
+        Context.require(_caller.equals(_creatorOf(_id)), "Not token creator");
         _setdbTokenURI(_id, _uri);
     }
 
@@ -548,6 +873,294 @@ public class XChainMultiToken implements IRC31 {
         this.URI(_id, _uri);
     }
 
+    /**
+     * Returns the creator of a token, resolving non-fungible ids through their mint batch
+     */
+    private NetworkAddress _creatorOf(BigInteger _id) {
+        String creator = nonFungibleRanges.contains(_id) ? nonFungibleRanges.minterOf(_id) : mintedIds.creatorOf(_id);
+        if (creator != null)
+            return new NetworkAddress(creator, "");
+        return storageMigration.legacyCreator(_id);
+    }
+
+    /**
+     * Returns true if a fungible id has been minted, without deserializing its creator
+     * Ids whose creator is still in the legacy layout are only looked up while the storage migration is in progress
+     */
+    private boolean _isMinted(BigInteger _id) {
+        return mintedIds.isMinted(_id) || storageMigration.legacyCreator(_id) != null;
+    }
+
+    // ================================================
+    // Token Catalog
+    // NOTE: fungible ids are listed when first minted or imported, see TokenCatalog. Ids of non-fungible ranges are
+    // not listed, they are enumerated through getNonFungibleRanges.
+    // ================================================
+
+    /**
+     * Returns the number of listed ids and the progress of the catalog backfill
+     * @return a map with tokens, backfilling (true until the owner completes the backfill), queued and remaining
+     */
+    @External(readonly = true)
+    public Map<String, Object> getCatalogStatus() {
+        return tokenCatalog.status();
+    }
+
+    /**
+     * Returns a page of the token catalog in first mint order
+     * @param _offset: the position of the first id to return
+     * @param _limit: the maximum number of ids to return, at most TokenCatalog.MAX_PAGE
+     * @return a map with total (the number of listed ids) and tokens, a list of maps with id, uri, creator and supply
+     */
+    @External(readonly = true)
+    public Map<String, Object> tokens(int _offset, int _limit) {
+        return Map.of(
+                "total", tokenCatalog.size(),
+                "tokens", _catalogEntries(tokenCatalog.page(_offset, _limit)));
+    }
+
+    /**
+     * Returns a page of the ids created by a creator in first mint order
+     * @param _creator: the creator in one of the following formats: an ICON address in string format, a network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     * @param _offset: the position of the first id to return
+     * @param _limit: the maximum number of ids to return, at most TokenCatalog.MAX_PAGE
+     * @return a map with total (the number of listed ids of the creator) and tokens, a list of maps with id, uri, creator and supply
+     */
+    @External(readonly = true)
+    public Map<String, Object> creatorTokens(String _creator, int _offset, int _limit) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        String creator = new NetworkAddress(_creator, varNetworkID.get()).toString();
+        return Map.of(
+                "total", tokenCatalog.creatorSize(creator),
+                "tokens", _catalogEntries(tokenCatalog.creatorPage(creator, _offset, _limit)));
+    }
+
+    /**
+     * Queues ids minted before the catalog existed, typically rebuilt from the URI or mint events
+     * Ids that are not minted or already listed are skipped when they are indexed
+     * Can only be called by the SCORE owner
+     * @param _ids: the ids to queue
+     */
+    @External
+    public void addCatalogIds(BigInteger[] _ids) {
+        onlyOwner();
+        Context.require(tokenCatalog.isBackfilling(), "No catalog backfill in progress");
+        tokenCatalog.queue(_ids);
+    }
+
+    /**
+     * Appends up to _maxEntries queued ids to the global and creator indexes of the catalog
+     * Can be called by anyone, each call reads the creator of every visited id and appends to its index, nothing else
+     * is rewritten, so keepers can list a large backlog in small calls interleaved with regular traffic
+     * @param _maxEntries: the maximum number of queued ids to visit in this call
+     */
+    @External
+    public void indexStep(int _maxEntries) {
+        Context.require(tokenCatalog.isBackfilling(), "No catalog backfill in progress");
+        Context.require(_maxEntries > 0, "_maxEntries must be positive");
+        tokenCatalog.step(_maxEntries);
+    }
+
+    /**
+     * Ends the backfill once every queued id was visited, new ids then skip the duplicate check of the backfill
+     * Ids that were never queued stay unlisted, queue them all before calling this
+     * Can only be called by the SCORE owner
+     */
+    @External
+    public void completeCatalogBackfill() {
+        onlyOwner();
+        Context.require(tokenCatalog.isBackfilling(), "No catalog backfill in progress");
+        tokenCatalog.complete();
+    }
+
+    private List<Map<String, Object>> _catalogEntries(List<BigInteger> ids) {
+        ArrayList<Map<String, Object>> entries = new ArrayList<>();
+        for (BigInteger id : ids) {
+            String uri = tokenURI(id);
+            NetworkAddress creator = _creatorOf(id);
+            entries.add(Map.of(
+                    "id", id,
+                    "uri", uri == null ? "" : uri,
+                    "creator", creator == null ? "" : creator.toString(),
+                    "supply", totalSupply(id)));
+        }
+        return entries;
+    }
+
+    // ================================================
+    // Non-Fungible Ranges
+    // NOTE: ids in a non-fungible range have a supply of 1 and a single owner slot, see NonFungibleRanges
+    // ================================================
+
+    /**
+     * Returns every non-fungible id range in id order
+     * @return a list of maps with start, end (exclusive), nextId (the next id to be minted) and batches (the number of minted batches)
+     */
+    @External(readonly = true)
+    public List<Map<String, Object>> getNonFungibleRanges() {
+        return nonFungibleRanges.list();
+    }
+
+    /**
+     * Reserves an id range for non-fungible tokens
+     * Can only be called by the SCORE owner. The range cannot overlap another range or contain a minted fungible id.
+     * Not available until a storage migration of the creators is completed.
+     * 
+     * @param _start: the first id of the range
+     * @param _end: the end of the range (exclusive), at most NonFungibleRanges.MAX_RANGE_SIZE ids after _start
+     */
+    @External
+    public void addNonFungibleRange(BigInteger _start, BigInteger _end) {
+        onlyOwner();
+        // Legacy creators cannot be scanned, only the minted bitmap is checked
+        Context.require(!storageMigration.isMigratingCreators(),
+                "Complete the storage migration before adding non-fungible ranges");
+        nonFungibleRanges.add(_start, _end);
+        Context.require(mintedIds.noneMinted(_start, _end), "The range contains minted fungible ids");
+    }
+
+    /**
+     * Returns the owner of a non-fungible id, or a blank string if it is not minted or was burned
+     * @param _id: the token ID
+     */
+    @External(readonly = true)
+    public String x_ownerOf(BigInteger _id) {
+        Context.require(nonFungibleRanges.contains(_id), "_id is not in a non-fungible range");
+        String owner = nonFungibleRanges.ownerOf(_id);
+        return owner == null ? "" : owner;
+    }
+
+    /**
+     * Mints the next _count sequential non-fungible ids of a range to the caller
+     * The whole batch is recorded as a single entry regardless of its size, the x_TransferBatch event lists every id
+     * 
+     * @param _rangeStart: the first id of the range to mint from
+     * @param _count: the number of ids to mint, at most NonFungibleRanges.MAX_MINT
+     * @param _baseURI: the base URI of the batch, the token URI of each id is the base URI followed by the id
+     */
+    @External
+    public void mintRange(BigInteger _rangeStart, int _count, String _baseURI) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        NetworkAddress owner = new NetworkAddress(Context.getCaller(), varNetworkID.get());
+        _mintRange(owner, _rangeStart, _count, _baseURI);
+    }
+
+    protected void _mintRange(NetworkAddress owner, BigInteger rangeStart, int count, String baseURI) {
+        BigInteger startId = nonFungibleRanges.mint(rangeStart, count, owner.toString(), baseURI);
+
+        BigInteger[] ids = new BigInteger[count];
+        BigInteger[] amounts = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = startId.add(BigInteger.valueOf(i));
+            amounts[i] = BigInteger.ONE;
+        }
+        // emit transfer event for Mint semantic
+        x_TransferBatch(owner.toString(), new NetworkAddress(ZERO_ADDRESS, varNetworkID.get()).toString(), owner.toString(), rlpEncode(ids),
+                rlpEncode(amounts));
+    }
+
+    // ================================================
+    // Netting Settlement
+    // NOTE: legs are netted per (owner, id) in memory before anything is written, so legs that cancel out cost no storage
+    // and each touched balance slot is read and written once regardless of how many legs reference it
+    // ================================================
+
+    /**
+     * Settles a batch of transfer legs on behalf of their senders, all legs succeed or the call reverts
+     * Operator approval is checked once per distinct sender, only the net balance change of each (owner, id) must be covered,
+     * so a leg may spend tokens received by an earlier or later leg of the same batch
+     * Every leg emits x_TransferSingle and calls onIRC31Received on contract recipients once every balance is written,
+     * as transferFrom does, so a hook observes the settled balances of the whole batch
+     * @param _from: the sender of each leg in one of the following formats: an ICON address in string format, a network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     * @param _to: the recipient of each leg in the same formats
+     * @param _ids: the token ID of each leg, non-fungible ids are not supported
+     * @param _values: the amount of each leg
+     */
+    @External
+    public void settle(String[] _from, String[] _to, BigInteger[] _ids, BigInteger[] _values) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        Context.require(_from.length == _to.length && _from.length == _ids.length && _from.length == _values.length,
+                "_from, _to, _ids and _values must have the same length");
+        Context.require(_from.length > 0, "No legs to settle");
+        String networkID = varNetworkID.get();
+        NetworkAddress callerAddress = new NetworkAddress(Context.getCaller(), networkID);
+        String callerKey = callerAddress.toString();
+        String zeroAddress = ZERO_ADDRESS.toString();
+
+        HashMap<String, NetworkAddress> parsed = new HashMap<>();
+        HashMap<String, Boolean> authorized = new HashMap<>();
+        // Net delta of every touched (id, owner) in first touch order, indexed by "id|owner"
+        HashMap<String, Integer> slotIndex = new HashMap<>();
+        ArrayList<BigInteger> slotIds = new ArrayList<>();
+        ArrayList<NetworkAddress> slotOwners = new ArrayList<>();
+        ArrayList<BigInteger> slotDeltas = new ArrayList<>();
+
+        NetworkAddress[] fromAddresses = new NetworkAddress[_from.length];
+        NetworkAddress[] toAddresses = new NetworkAddress[_from.length];
+        for (int i = 0; i < _from.length; i++) {
+            NetworkAddress fromAddress = _parseCached(parsed, _from[i], networkID);
+            NetworkAddress toAddress = _parseCached(parsed, _to[i], networkID);
+            BigInteger id = _ids[i];
+            BigInteger value = _values[i];
+            Context.require(!toAddress.getAddress().equals(zeroAddress), "_to must be non-zero address");
+            Context.require(value.signum() >= 0, "Invalid amount " + value);
+            Context.require(!nonFungibleRanges.contains(id), "Non-fungible ids cannot be settled, use transferFrom");
+
+            String fromKey = fromAddress.toString();
+            if (!fromKey.equals(callerKey) && authorized.get(fromKey) == null) {
+                Context.require(_isApprovedForAll(fromAddress, callerAddress, networkID),
+                        "Need operator approval for 3rd party transfers");
+                authorized.put(fromKey, true);
+            }
+
+            _addSettlementDelta(slotIndex, slotIds, slotOwners, slotDeltas, id, fromAddress, value.negate());
+            _addSettlementDelta(slotIndex, slotIds, slotOwners, slotDeltas, id, toAddress, value);
+            fromAddresses[i] = fromAddress;
+            toAddresses[i] = toAddress;
+        }
+
+        // Check every net balance before writing anything
+        int slots = slotIds.size();
+        BigInteger[] newBalances = new BigInteger[slots];
+        for (int i = 0; i < slots; i++) {
+            BigInteger delta = slotDeltas.get(i);
+            if (delta.signum() == 0)
+                continue;
+            newBalances[i] = _balanceOf(slotOwners.get(i), slotIds.get(i), networkID).add(delta);
+            Context.require(newBalances[i].signum() >= 0,
+                    "Insufficient funds for " + slotOwners.get(i).toString() + " to settle token " + slotIds.get(i));
+        }
+
+        for (int i = 0; i < slots; i++) {
+            if (newBalances[i] != null)
+                _writeBalance(slotIds.get(i), slotOwners.get(i), newBalances[i], networkID);
+        }
+
+        for (int i = 0; i < _from.length; i++) {
+            x_TransferSingle(callerKey, fromAddresses[i].toString(), toAddresses[i].toString(), _ids[i], _values[i]);
+        }
+        operationalStats.recordTransfer(_from.length, true);
+
+        for (int i = 0; i < _from.length; i++) {
+            _callReceivedHook(callerAddress, fromAddresses[i], toAddresses[i], _ids[i], _values[i], null);
+        }
+    }
+
+    private void _addSettlementDelta(HashMap<String, Integer> slotIndex, ArrayList<BigInteger> slotIds,
+            ArrayList<NetworkAddress> slotOwners, ArrayList<BigInteger> slotDeltas, BigInteger id, NetworkAddress owner,
+            BigInteger delta) {
+        String key = id.toString() + "|" + owner.toString();
+        Integer index = slotIndex.get(key);
+        if (index == null) {
+            slotIndex.put(key, slotIds.size());
+            slotIds.add(id);
+            slotOwners.add(owner);
+            slotDeltas.add(delta);
+        } else {
+            slotDeltas.set(index, slotDeltas.get(index).add(delta));
+        }
+    }
+
     // ================================================
     // XCall Implementations
     // ================================================
@@ -562,18 +1175,33 @@ public class XChainMultiToken implements IRC31 {
      * format (required values are based on the intended method):
      * {
      * method: "methodName", //required
+     * nonce: "0x0", //optional, a sequence number unique per sender used for replay protection, see below
      * data : {
      * _from: "", // A btp/network address string
      * _to: "", // A btp/network address string
      * _operator: "", // A btp/network address string
+     * _operators: [], // setApprovalForAllBatch, an array of btp/network address strings
      * _owner: "", // A btp/network address string
      * _ids: [], // An array of BigInteger values representing tokenIDs
      * _values: [], //An array of BigInteger values representing a value (in case of
      * transfers or minting), the array length should match the _id length
      * _data: "", // an encoded byte array string
-     * _approved: // 0x0 or 0x1 indicating true or false
+     * _approved: // 0x0 or 0x1 indicating true or false, setApprovalForAllBatch takes an array with one value per operator
+     * _id: "0x0", // balanceQuery and balanceResponse, the queried token ID
+     * _balance: "0x0", // balanceResponse, the balance of _owner
+     * _value: "0x0", // mint and bridgeRollback, the bridged amount of _id
+     * _network: "", // bridgeRollback, the network the undelivered tokens were sent to
      * }
      * }
+     *
+     * A message carrying a nonce is rejected if the nonce was already processed for its sender, or has fallen out of
+     * the sender's replay window, so redelivered messages are not executed twice. Senders may deliver out of order
+     * within the window. Messages without a nonce are still accepted so existing remote contracts keep working,
+     * unless the owner required nonces from the source network with setInboundNonceRequired.
+     *
+     * Every message is charged against the inbound quota of its source network, see setInboundQuota.
+     * bridgeRollback messages come from the local xcall contract instead of a remote sender, they carry no nonce
+     * and are charged against no quota, so a failed bridge transfer can always be rolled back.
      */
     @External
     public void handleCallMessage(String _from, byte[] _data) {
@@ -603,12 +1231,36 @@ public class XChainMultiToken implements IRC31 {
         String method = requestObject.get("method").asString();
         Context.require(method.length() > 0, "method token cannot be empty in _data");
 
-        
+        // Rollbacks are delivered by the local xcall contract, which executes each of them once
+        if (!method.equals("bridgeRollback")) {
+            if (requestObject.contains("nonce")) {
+                BigInteger nonce = _tryHex(requestObject.get("nonce"));
+                Context.require(nonce != null, "nonce token in _data must be a hex encoded integer");
+                inboundNonces.consume(callerAddress.toString(), nonce);
+            } else {
+                Context.require(!inboundNonces.isRequired(callerAddress.getNetworkID()),
+                        "nonce token missing in _data, it is required for messages from " + callerAddress.getNetworkID());
+            }
+
+            inboundQuotas.consume(callerAddress.getNetworkID(), _messageItemCount(requestData));
+        }
+        operationalStats.recordInbound(callerAddress.getNetworkID(), method);
+
         if (method.equals("transferFrom") || method.equals("transferFromBatch")) {
             _handleTransferMessage(callerAddress, requestData, method);
         } 
         else  if (method.equals("setApprovalForAll")) {
             _handleSetApprovalForAllMessage(callerAddress, requestData);
+        } else if (method.equals("setApprovalForAllBatch")) {
+            _handleSetApprovalForAllBatchMessage(callerAddress, requestData);
+        } else if (method.equals("balanceQuery")) {
+            _handleBalanceQueryMessage(callerAddress, requestData);
+        } else if (method.equals("balanceResponse")) {
+            _handleBalanceResponseMessage(callerAddress, requestData);
+        } else if (method.equals("mint")) {
+            _handleBridgeMintMessage(callerAddress, requestData);
+        } else if (method.equals("bridgeRollback")) {
+            _handleBridgeRollbackMessage(callerAddress, requestData);
         } else {
             Context.revert("Method '" + method + "' is not supported");
         }
@@ -618,27 +1270,14 @@ public class XChainMultiToken implements IRC31 {
     {
         // _transferFrom(NetworkAddress _from, NetworkAddress _to, BigInteger _id,
         // BigInteger _value, @Optional byte[] _data)
-        Context.require(requestData.contains("_to"), "_to token missing in data for method transferFrom");
-        Context.require(requestData.contains("_from"), "_from token missing in data for method transferFrom");
-        Context.require(requestData.contains("_ids"), "_ids token missing in data for method transferFrom");
-        Context.require(requestData.contains("_values"), "_values token missing in data for method transferFrom");
+        _requireValid(_checkTransferMessage(requestData, method));
 
         NetworkAddress toAddress = new NetworkAddress(requestData.get("_to").asString(), "");
         NetworkAddress fromAddress = new NetworkAddress(requestData.get("_from").asString(), "");
-        JsonArray ids = requestData.get("_ids").asArray();
-        JsonArray values = requestData.get("_values").asArray();
-
-        Context.require(ids.size() == values.size(),
-                "_ids & _values length mismatch, both arrays should be the same size");
-
-        BigInteger[] idArray = new BigInteger[ids.size()];
-        BigInteger[] valueArray = new BigInteger[values.size()];
 
         // Convert both values into useable biginteger arrays
-        for (int i = 0; i < idArray.length; i++) {
-            idArray[i] = new BigInteger(ids.get(i).asString().replace("0x", ""),16);
-            valueArray[i] = new BigInteger(values.get(i).asString().replace("0x", ""),16);
-        }
+        BigInteger[] idArray = _hexArray(requestData.get("_ids").asArray());
+        BigInteger[] valueArray = _hexArray(requestData.get("_values").asArray());
 
         byte[] dataBytes =  new byte[] {};
 
@@ -655,8 +1294,7 @@ public class XChainMultiToken implements IRC31 {
     private void _handleSetApprovalForAllMessage(NetworkAddress _caller, JsonObject _data)
     {
         //_setApprovalForAll(NetowrkAddress _caller, NetworkAddres _operator, boolean _approved)
-        Context.require(_data.contains("_operator"), "_operator token missing in data for method transferFrom");
-        Context.require(_data.contains("_approved"), "_approved token missing in data for method transferFrom");
+        _requireValid(_checkSetApprovalForAllMessage(_data));
 
         NetworkAddress operatorAddress = new NetworkAddress(_data.get("_operator").asString(), "");
         String approvedString = _data.get("_approved").asString();
@@ -665,31 +1303,1268 @@ public class XChainMultiToken implements IRC31 {
         _setApprovalForAll(_caller, operatorAddress, approved);     
     }
 
-    // ================================================
-    // Event Logs
-    // ================================================
+    private void _handleSetApprovalForAllBatchMessage(NetworkAddress _caller, JsonObject _data)
+    {
+        _requireValid(_checkSetApprovalForAllBatchMessage(_data));
+
+        JsonArray operators = _data.get("_operators").asArray();
+        JsonArray approved = _data.get("_approved").asArray();
+        NetworkAddress[] operatorAddresses = new NetworkAddress[operators.size()];
+        boolean[] approvedValues = new boolean[approved.size()];
+        for (int i = 0; i < operatorAddresses.length; i++) {
+            operatorAddresses[i] = new NetworkAddress(operators.get(i).asString(), "");
+            approvedValues[i] = approved.get(i).asString().equals("0x1");
+        }
 
-    @EventLog(indexed = 3)
-    public void x_TransferSingle(String _operator, String _from, String _to, BigInteger _id,
-            BigInteger _value) {
-    }
-    
-    @EventLog(indexed = 3)
-    public void TransferSingle(Address _operator, Address _from, Address _to, BigInteger _id,
-            BigInteger _value) {
+        _setApprovalForAllBatch(_caller, operatorAddresses, approvedValues, varNetworkID.get());
     }
 
-    @EventLog(indexed = 3)
-    public void x_TransferBatch(String _operator, String _from, String _to, byte[] _ids,
-            byte[] _values) {
+    /**
+     * Returns the number of ids or operators a message operates on, charged against the ids quota of its network
+     */
+    private static int _messageItemCount(JsonObject requestData) {
+        int count = 0;
+        if (requestData.contains("_ids") && requestData.get("_ids").isArray())
+            count += requestData.get("_ids").asArray().size();
+        if (requestData.contains("_operators") && requestData.get("_operators").isArray())
+            count += requestData.get("_operators").asArray().size();
+        return count;
     }
 
-    @EventLog(indexed = 3)
-    public void TransferBatch(Address _operator, Address _from, Address _to, byte[] _ids,
-            byte[] _values) {
-    }
+    // ================================================
+    // Call Message Validation
+    // ================================================
 
-    @EventLog(indexed = 2)
+    /**
+     * Dry-runs a handleCallMessage payload without writing anything
+     * Runs the same replay, quota and message checks as the handler, followed by the approval and balance checks
+     * of transfers, and reports the first failure instead of reverting
+     * @param _from: the btp address of the caller on the source chain, as xcall would deliver it
+     * @param _data: the calldata in the handleCallMessage JSON format
+     * @return a map with valid (boolean), reason (blank when valid), method and nonce (-1 when the message has none)
+     */
+    @External(readonly = true)
+    public Map<String, Object> validateCallMessage(String _from, byte[] _data) {
+        NetworkAddress callerAddress = _tryNetworkAddress(_from);
+        if (callerAddress == null)
+            return _validationResult("", null, "_from is not a valid btp or network address");
+
+        JsonObject requestObject;
+        JsonObject requestData;
+        try {
+            requestObject = Json.parse(new String(_data)).asObject();
+            requestData = requestObject.get("data").asObject();
+        } catch (Exception ex) {
+            return _validationResult("", null, "_data does not appear to be in the expected JSON format");
+        }
+
+        JsonValue methodValue = requestObject.get("method");
+        if (methodValue == null || !methodValue.isString() || methodValue.asString().length() == 0)
+            return _validationResult("", null, "method token cannot be empty in _data");
+        String method = methodValue.asString();
+
+        BigInteger nonce = null;
+        if (requestObject.contains("nonce")) {
+            nonce = _tryHex(requestObject.get("nonce"));
+            if (nonce == null)
+                return _validationResult(method, null, "nonce token in _data must be a hex encoded integer");
+        }
+
+        String reason = null;
+        if (!method.equals("bridgeRollback")) {
+            if (nonce != null)
+                reason = inboundNonces.check(callerAddress.toString(), nonce, false);
+            else if (inboundNonces.isRequired(callerAddress.getNetworkID()))
+                reason = "nonce token missing in _data, it is required for messages from " + callerAddress.getNetworkID();
+            if (reason == null)
+                reason = inboundQuotas.check(callerAddress.getNetworkID(), _messageItemCount(requestData), false);
+        }
+
+        if (reason == null) {
+            if (method.equals("transferFrom") || method.equals("transferFromBatch")) {
+                reason = _checkTransferMessage(requestData, method);
+                if (reason == null)
+                    reason = _checkTransferMessageFunds(callerAddress, requestData, method);
+            } else if (method.equals("setApprovalForAll")) {
+                reason = _checkSetApprovalForAllMessage(requestData);
+            } else if (method.equals("setApprovalForAllBatch")) {
+                reason = _checkSetApprovalForAllBatchMessage(requestData);
+            } else if (method.equals("balanceQuery")) {
+                reason = _checkBalanceQueryMessage(callerAddress, requestData);
+                if (reason == null) {
+                    String networkID = callerAddress.getNetworkID();
+                    reason = remoteBalances.checkCharge(networkID,
+                            Context.call(BigInteger.class, varXCallContract.get(), "getFee", networkID, false));
+                }
+            } else if (method.equals("balanceResponse")) {
+                reason = _checkBalanceResponseMessage(callerAddress, requestData);
+            } else if (method.equals("mint")) {
+                reason = _checkBridgeMintMessage(callerAddress, requestData);
+                if (reason == null)
+                    reason = bridgeLedger.check(callerAddress.getNetworkID(), _tryHex(requestData.get("_id")),
+                            _tryHex(requestData.get("_value")).negate());
+            } else if (method.equals("bridgeRollback")) {
+                reason = _checkBridgeRollbackMessage(callerAddress, requestData);
+            } else {
+                reason = "Method '" + method + "' is not supported";
+            }
+        }
+
+        return _validationResult(method, nonce, reason);
+    }
+
+    /**
+     * Runs the approval and balance checks of a decoded transfer message, transferFrom only moves the first id/value pair
+     */
+    private String _checkTransferMessageFunds(NetworkAddress caller, JsonObject requestData, String method) {
+        BigInteger[] ids = _hexArray(requestData.get("_ids").asArray());
+        BigInteger[] values = _hexArray(requestData.get("_values").asArray());
+        if (method.equals("transferFrom")) {
+            ids = new BigInteger[] { ids[0] };
+            values = new BigInteger[] { values[0] };
+        }
+        return _checkTransfer(caller, new NetworkAddress(requestData.get("_from").asString(), ""),
+                new NetworkAddress(requestData.get("_to").asString(), ""), ids, values);
+    }
+
+    private Map<String, Object> _validationResult(String method, BigInteger nonce, String reason) {
+        return Map.of(
+                "valid", reason == null,
+                "reason", reason == null ? "" : reason,
+                "method", method,
+                "nonce", nonce == null ? BigInteger.ONE.negate() : nonce);
+    }
+
+    // ================================================
+    // Call Message Checks
+    // NOTE: shared by handleCallMessage and validateCallMessage, each returns null when the message passes
+    // and the reason it fails otherwise, the handlers revert with that reason.
+    // ================================================
+
+    private static void _requireValid(String reason) {
+        if (reason != null)
+            Context.revert(reason);
+    }
+
+    /**
+     * Checks the fields of a transferFrom or transferFromBatch message, every id and value must decode for both methods
+     */
+    private static String _checkTransferMessage(JsonObject requestData, String method) {
+        if (!requestData.contains("_to") || !requestData.contains("_from") || !requestData.contains("_ids") || !requestData.contains("_values"))
+            return "_to, _from, _ids and _values tokens are required in data for method " + method;
+        if (!_isNetworkAddress(requestData.get("_to")))
+            return "_to is not a valid btp or network address";
+        if (!_isNetworkAddress(requestData.get("_from")))
+            return "_from is not a valid btp or network address";
+        if (!requestData.get("_ids").isArray() || !requestData.get("_values").isArray())
+            return "_ids and _values must be arrays";
+
+        JsonArray ids = requestData.get("_ids").asArray();
+        JsonArray values = requestData.get("_values").asArray();
+        if (ids.size() != values.size())
+            return "_ids & _values length mismatch, both arrays should be the same size";
+        if (ids.size() == 0)
+            return "_ids cannot be empty";
+        if (_hexArray(ids) == null || _hexArray(values) == null)
+            return "_ids and _values must contain hex encoded integers";
+        if (requestData.contains("_data") && !requestData.get("_data").isString())
+            return "_data must be a string";
+        return null;
+    }
+
+    private static String _checkSetApprovalForAllMessage(JsonObject requestData) {
+        if (!requestData.contains("_operator") || !requestData.contains("_approved"))
+            return "_operator and _approved tokens are required in data for method setApprovalForAll";
+        if (!_isNetworkAddress(requestData.get("_operator")))
+            return "_operator is not a valid btp or network address";
+        if (!requestData.get("_approved").isString())
+            return "_approved must be 0x0 or 0x1";
+        return null;
+    }
+
+    private static String _checkSetApprovalForAllBatchMessage(JsonObject requestData) {
+        if (!requestData.contains("_operators") || !requestData.contains("_approved"))
+            return "_operators and _approved tokens are required in data for method setApprovalForAllBatch";
+        if (!requestData.get("_operators").isArray() || !requestData.get("_approved").isArray())
+            return "_operators and _approved must be arrays";
+
+        JsonArray operators = requestData.get("_operators").asArray();
+        JsonArray approved = requestData.get("_approved").asArray();
+        if (operators.size() != approved.size())
+            return "_operators & _approved length mismatch, both arrays should be the same size";
+        for (int i = 0; i < operators.size(); i++) {
+            if (!_isNetworkAddress(operators.get(i)))
+                return "_operators must contain valid btp or network addresses";
+            if (!approved.get(i).isString())
+                return "_approved must contain 0x0 or 0x1 values";
+        }
+        return null;
+    }
+
+    private String _checkBalanceQueryMessage(NetworkAddress caller, JsonObject requestData) {
+        String reason = _checkRemoteContract(caller);
+        if (reason != null)
+            return reason;
+        if (!requestData.contains("_owner") || !requestData.contains("_id"))
+            return "_owner and _id tokens are required in data for method balanceQuery";
+        if (!_isNetworkAddress(requestData.get("_owner")))
+            return "_owner is not a valid btp or network address";
+        if (_tryHex(requestData.get("_id")) == null)
+            return "_id must be a hex encoded integer";
+        if (varXCallContract.getOrDefault(ZERO_ADDRESS).equals(ZERO_ADDRESS))
+            return "XCall contract is not configured.";
+        return null;
+    }
+
+    private String _checkBalanceResponseMessage(NetworkAddress caller, JsonObject requestData) {
+        String reason = _checkRemoteContract(caller);
+        if (reason != null)
+            return reason;
+        if (!requestData.contains("_owner") || !requestData.contains("_id") || !requestData.contains("_balance"))
+            return "_owner, _id and _balance tokens are required in data for method balanceResponse";
+        if (!_isNetworkAddress(requestData.get("_owner")))
+            return "_owner is not a valid btp or network address";
+        if (!_tryNetworkAddress(requestData.get("_owner").asString()).getNetworkID().equals(caller.getNetworkID()))
+            return "_owner is not on the responding network";
+        if (_tryHex(requestData.get("_id")) == null || _tryHex(requestData.get("_balance")) == null)
+            return "_id and _balance must be hex encoded integers";
+        return null;
+    }
+
+    private String _checkBridgeMintMessage(NetworkAddress caller, JsonObject requestData) {
+        String reason = _checkRemoteContract(caller);
+        if (reason != null)
+            return reason;
+        if (!requestData.contains("_from") || !requestData.contains("_to") || !requestData.contains("_id") || !requestData.contains("_value"))
+            return "_from, _to, _id and _value tokens are required in data for method mint";
+        if (!requestData.get("_from").isString())
+            return "_from must be a string";
+        if (!_isNetworkAddress(requestData.get("_to")))
+            return "_to is not a valid btp or network address";
+        return _checkBridgedAmount(requestData);
+    }
+
+    private String _checkBridgeRollbackMessage(NetworkAddress caller, JsonObject requestData) {
+        if (!caller.equals(new NetworkAddress(varXCallContract.getOrDefault(ZERO_ADDRESS), varNetworkID.getOrDefault(""))))
+            return "bridgeRollback can only be delivered by the local XCall contract";
+        if (!requestData.contains("_from") || !requestData.contains("_network") || !requestData.contains("_id") || !requestData.contains("_value"))
+            return "_from, _network, _id and _value tokens are required in data for method bridgeRollback";
+        if (!_isNetworkAddress(requestData.get("_from")))
+            return "_from is not a valid btp or network address";
+        if (!requestData.get("_network").isString())
+            return "_network must be a string";
+        return _checkBridgedAmount(requestData);
+    }
+
+    /**
+     * Checks the _id and _value of a mint or bridgeRollback message, which credit a positive amount of a fungible id
+     */
+    private String _checkBridgedAmount(JsonObject requestData) {
+        BigInteger id = _tryHex(requestData.get("_id"));
+        BigInteger value = _tryHex(requestData.get("_value"));
+        if (id == null || value == null)
+            return "_id and _value must be hex encoded integers";
+        if (value.signum() <= 0)
+            return "Invalid amount";
+        if (nonFungibleRanges.contains(id))
+            return "Non-fungible ids cannot be bridged";
+        return null;
+    }
+
+    /**
+     * Only allows messages sent by the peer contract configured for the caller's network
+     */
+    private String _checkRemoteContract(NetworkAddress caller) {
+        if (!caller.toString().equals(dbRemoteContracts.get(caller.getNetworkID())))
+            return "Caller is not the configured remote contract for network " + caller.getNetworkID();
+        return null;
+    }
+
+    /**
+     * Parses a btp or network address with the rules of NetworkAddress, without reverting
+     * @return the network address, or null if the string is not in a valid format
+     */
+    private static NetworkAddress _tryNetworkAddress(String addr) {
+        if (addr == null || addr.length() == 0)
+            return null;
+        String value = addr.toLowerCase();
+        if (value.startsWith("btp://"))
+            value = value.substring(6);
+        int separator = value.indexOf("/");
+        if (separator < 0 || separator != value.lastIndexOf("/"))
+            return null;
+        return new NetworkAddress(value, "");
+    }
+
+    private static boolean _isNetworkAddress(JsonValue value) {
+        return value != null && value.isString() && _tryNetworkAddress(value.asString()) != null;
+    }
+
+    /**
+     * Parses a 0x prefixed hex string value without reverting
+     * @return the value, or null if it is not a hex string
+     */
+    private static BigInteger _tryHex(JsonValue value) {
+        if (value == null || !value.isString())
+            return null;
+        try {
+            return new BigInteger(value.asString().replace("0x", ""), 16);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an array of 0x prefixed hex string values without reverting
+     * @return the values, or null if any of them is not a hex string
+     */
+    private static BigInteger[] _hexArray(JsonArray values) {
+        BigInteger[] result = new BigInteger[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = _tryHex(values.get(i));
+            if (result[i] == null)
+                return null;
+        }
+        return result;
+    }
+
+    // ================================================
+    // Replay Protection
+    // ================================================
+
+    /**
+     * Returns the replay window status for a sender
+     * @param _sender: the btp or network address of the sender on its source network
+     */
+    @External(readonly = true)
+    public Map<String, Object> getInboundNonceStatus(String _sender) {
+        NetworkAddress sender = new NetworkAddress(_sender, "");
+        return Map.of(
+                "highestNonce", inboundNonces.highestNonce(sender.toString()),
+                "nonceRequired", inboundNonces.isRequired(sender.getNetworkID()),
+                "windowSlots", InboundNonces.WINDOW_SLOTS,
+                "slotBits", InboundNonces.SLOT_BITS);
+    }
+
+    /**
+     * Returns true if the nonce has already been processed for the sender, or has fallen outside of its replay window
+     * @param _sender: the btp or network address of the sender on its source network
+     * @param _nonce: the nonce to check
+     */
+    @External(readonly = true)
+    public boolean isInboundNonceUsed(String _sender, BigInteger _nonce) {
+        return inboundNonces.check(new NetworkAddress(_sender, "").toString(), _nonce, false) != null;
+    }
+
+    /**
+     * Requires every message from a source network to carry a nonce, messages without one are accepted by default
+     * Enable it once all the remote contracts of the network send nonces
+     * Can only be called by the SCORE owner
+     * @param _networkID: the source network ID
+     * @param _required: true to reject messages without a nonce
+     */
+    @External
+    public void setInboundNonceRequired(String _networkID, boolean _required) {
+        onlyOwner();
+        Context.require(_networkID.length() > 0, "_networkID cannot be blank");
+        inboundNonces.setRequired(_networkID, _required);
+    }
+
+    // ================================================
+    // Signed Transfer Permits
+    // ================================================
+
+    /**
+     * Returns the next permit nonce expected for a signer
+     * @param _signer: an address in one of the following formats: an ICON address in string format, a network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     */
+    @External(readonly = true)
+    public BigInteger getPermitNonce(String _signer) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        return transferPermits.nonceOf(new NetworkAddress(_signer, varNetworkID.get()));
+    }
+
+    /**
+     * Returns the message a signer must sign to authorize a permit transfer, this is the message itself, not a digest.
+     * ICON signers sign its sha3-256 hash, signers on remote networks sign its keccak-256 hash.
+     * @param _from: the signer address in one of the following formats: an ICON address in string format, a network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     * @param _to: the recipient address in one of the same formats
+     * @param _ids: an array of token IDs to transfer
+     * @param _values: an array of values to transfer
+     * @param _nonce: the signer's permit nonce
+     * @param _expiry: the last block height the permit is valid for
+     */
+    @External(readonly = true)
+    public byte[] getPermitMessage(String _from, String _to, BigInteger[] _ids, BigInteger[] _values, BigInteger _nonce,
+            BigInteger _expiry) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        NetworkAddress fromAddress = new NetworkAddress(_from, varNetworkID.get());
+        NetworkAddress toAddress = new NetworkAddress(_to, varNetworkID.get());
+        return TransferPermits.message(fromAddress, toAddress, _ids, _values, _nonce, _expiry);
+    }
+
+    /**
+     * Submits a batch of signed transfer permits on behalf of their signers.
+     * Invalid permits are skipped and reported through PermitSkipped rather than reverting the batch.
+     * @param _permits: a RLP encoded list of permits, each permit being a RLP encoded byte array of
+     * [from, to, [ids], [values], nonce, expiry, signature], the signature covering the message returned by getPermitMessage
+     */
+    @External
+    public void relayTransfers(byte[] _permits) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        String networkID = varNetworkID.get();
+
+        ObjectReader listReader = Context.newByteArrayObjectReader("RLPn", _permits);
+        listReader.beginList();
+        int index = 0;
+        int accepted = 0;
+        while (listReader.hasNext()) {
+            String reason = _relayPermit(listReader.readByteArray(), networkID);
+            if (reason == null) {
+                accepted++;
+            } else {
+                PermitSkipped(index, reason);
+            }
+            index++;
+        }
+        listReader.end();
+
+        PermitsRelayed(Context.getCaller(), index, accepted);
+    }
+
+    /**
+     * Decodes, verifies and executes a single permit
+     * @return null on success, otherwise the reason the permit was skipped
+     */
+    private String _relayPermit(byte[] encoded, String networkID) {
+        TransferPermits.Permit permit = TransferPermits.decode(encoded, networkID);
+        if (permit == null)
+            return "malformed permit";
+
+        String reason = transferPermits.check(permit, networkID);
+        if (reason == null)
+            reason = _checkTransfer(permit.from, permit.from, permit.to, permit.ids, permit.values);
+        if (reason != null)
+            return reason;
+
+        transferPermits.consume(permit);
+        if (permit.ids.length == 1) {
+            _transferFrom(permit.from, permit.from, permit.to, permit.ids[0], permit.values[0], null);
+        } else {
+            _transferFromBatch(permit.from, permit.from, permit.to, permit.ids, permit.values, null);
+        }
+        return null;
+    }
+
+    // ================================================
+    // Storage Migration
+    // ================================================
+
+    /**
+     * Returns the progress of the storage migration
+     * migrating stays true until the owner completes the migration, legacy entries are read until then
+     */
+    @External(readonly = true)
+    public Map<String, Object> getMigrationStatus() {
+        return storageMigration.status();
+    }
+
+    /**
+     * Queues the keys of legacy entries to move to the current layout, typically rebuilt from the transfer, approval and URI events
+     * Keys are b|[id]|[owner] for balances, a|[owner]|[operator] for approvals and c|[id] for creators, addresses in network address format ([NetworkID]/[Address])
+     * Keys without a legacy entry are skipped when they are moved
+     * Can only be called by the SCORE owner
+     * @param _keys: the keys to queue
+     */
+    @External
+    public void addMigrationKeys(String[] _keys) {
+        onlyOwner();
+        Context.require(storageMigration.isMigrating(), "No storage migration in progress");
+        storageMigration.queue(_keys);
+    }
+
+    /**
+     * Moves up to _maxEntries queued entries to the current layout
+     * Can be called by anyone, so keepers can spread the migration over as many transactions as needed
+     * Entries rewritten by transfers, approvals and mints in the meantime are only removed from the legacy layout
+     * @param _maxEntries: the maximum number of queued keys to visit in this call
+     */
+    @External
+    public void migrateStep(int _maxEntries) {
+        Context.require(storageMigration.isMigrating(), "No storage migration in progress");
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        Context.require(_maxEntries > 0, "_maxEntries must be positive");
+        storageMigration.step(_maxEntries, varNetworkID.get());
+    }
+
+    /**
+     * Ends the migration once every queued key was moved, balances, approvals and creators are then only read from the current layout
+     * Legacy entries whose keys were never queued are no longer reachable, queue them all before calling this
+     * Can only be called by the SCORE owner
+     */
+    @External
+    public void completeMigration() {
+        onlyOwner();
+        Context.require(storageMigration.isMigrating(), "No storage migration in progress");
+        int moved = storageMigration.complete();
+        MigrationCompleted(StorageMigration.SCHEMA_VERSION, moved);
+    }
+
+    // ================================================
+    // Remote Balance Queries
+    // ================================================
+
+    /**
+     * Get the number of blocks a cached remote balance stays fresh
+     */
+    @External(readonly = true)
+    public BigInteger getBalanceCacheTTL() {
+        return remoteBalances.getTTL();
+    }
+
+    /**
+     * Sets the number of blocks a cached remote balance stays fresh
+     * Can only be set by the SCORE owner
+     * 
+     * @param _value: the TTL in blocks
+     */
+    @External
+    public void setBalanceCacheTTL(BigInteger _value) {
+        onlyOwner();
+        Context.require(_value.signum() >= 0, "_value cannot be negative");
+        remoteBalances.setTTL(_value);
+    }
+
+    /**
+     * Returns the cached balance of a remote address along with its age
+     * @param _owner: an address in network address format ([NetworkID]/[Address]) or btp address format ([btp://][NetworkID]/[Address])
+     * @param _id: the token ID
+     * @return a map with balance, blockHeight (the height it was received at), age in blocks and fresh,
+     * blockHeight and age are -1 if no balance was received yet
+     */
+    @External(readonly = true)
+    public Map<String, Object> x_cachedBalanceOf(String _owner, BigInteger _id) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        NetworkAddress ownerAddress = new NetworkAddress(_owner, varNetworkID.get());
+        return remoteBalances.cached(ownerAddress.toString(), _id);
+    }
+
+    /**
+     * Returns the ICX deposited to answer balance queries from a network
+     * @param _networkID: the network the queries come from
+     */
+    @External(readonly = true)
+    public BigInteger getResponseFeeDeposit(String _networkID) {
+        return remoteBalances.depositOf(_networkID.toLowerCase());
+    }
+
+    /**
+     * Deposits the transaction value to pay the balanceResponse messages answering queries from a network
+     * Queries are only answered while the deposit of their network covers the xcall fee, it is never paid from the contract balance
+     * @param _networkID: the network the queries come from, a remote contract must be configured for it
+     */
+    @External
+    @Payable
+    public void depositResponseFees(String _networkID) {
+        String networkID = _networkID.toLowerCase();
+        Context.require(dbRemoteContracts.get(networkID) != null, "No remote contract configured for network " + networkID);
+        Context.require(Context.getValue().signum() > 0, "A deposit must be sent as the transaction value");
+
+        remoteBalances.deposit(networkID, Context.getValue());
+        ResponseFeesDeposited(networkID, Context.getCaller(), Context.getValue());
+    }
+
+    /**
+     * Requests the balance of a remote address from the peer contract on its network
+     * Does not send a message if the cached balance is still fresh or a query for it is already in flight, in which case the fee is refunded
+     * The xcall fee must be sent as the transaction value, the response is paid on the remote network from the deposit
+     * made for this network with depositResponseFees
+     * @param _owner: an address in network address format ([NetworkID]/[Address]) or btp address format ([btp://][NetworkID]/[Address])
+     * @param _id: the token ID
+     */
+    @External
+    @Payable
+    public void x_requestRemoteBalance(String _owner, BigInteger _id) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        NetworkAddress ownerAddress = new NetworkAddress(_owner, varNetworkID.get());
+        Context.require(!ownerAddress.getNetworkID().equals(varNetworkID.get()), "_owner is on the local network");
+
+        String ownerKey = ownerAddress.toString();
+        if (!remoteBalances.needsQuery(ownerKey, _id)) {
+            if (Context.getValue().signum() > 0)
+                Context.transfer(Context.getCaller(), Context.getValue());
+            return;
+        }
+
+        JsonObject data = Json.object()
+                .add("_owner", ownerKey)
+                .add("_id", "0x" + _id.toString(16));
+        _sendCallMessage(Context.getValue(), ownerAddress.getNetworkID(), "balanceQuery", data, null);
+        remoteBalances.markPending(ownerKey, _id);
+    }
+
+    /**
+     * Answers a balance query from a peer contract
+     * The response fee is paid from the deposit of the querying network, reverts if it does not cover the fee
+     */
+    private void _handleBalanceQueryMessage(NetworkAddress _caller, JsonObject _data) {
+        _requireValid(_checkBalanceQueryMessage(_caller, _data));
+
+        NetworkAddress ownerAddress = new NetworkAddress(_data.get("_owner").asString(), "");
+        BigInteger id = new BigInteger(_data.get("_id").asString().replace("0x", ""), 16);
+
+        JsonObject response = Json.object()
+                .add("_owner", ownerAddress.toString())
+                .add("_id", "0x" + id.toString(16))
+                .add("_balance", "0x" + _balanceOf(ownerAddress, id).toString(16));
+
+        String networkID = _caller.getNetworkID();
+        BigInteger fee = Context.call(BigInteger.class, varXCallContract.get(), "getFee", networkID, false);
+        remoteBalances.charge(networkID, fee);
+        _sendCallMessage(fee, networkID, "balanceResponse", response, null);
+    }
+
+    /**
+     * Caches a balance answered by a peer contract, only balances of addresses on the responding network are accepted
+     */
+    private void _handleBalanceResponseMessage(NetworkAddress _caller, JsonObject _data) {
+        _requireValid(_checkBalanceResponseMessage(_caller, _data));
+
+        NetworkAddress ownerAddress = new NetworkAddress(_data.get("_owner").asString(), "");
+        BigInteger id = new BigInteger(_data.get("_id").asString().replace("0x", ""), 16);
+        BigInteger balance = new BigInteger(_data.get("_balance").asString().replace("0x", ""), 16);
+
+        String ownerKey = ownerAddress.toString();
+        remoteBalances.store(ownerKey, id, balance);
+        RemoteBalanceUpdated(ownerKey, id, balance);
+    }
+
+    /**
+     * Sends a message in the handleCallMessage JSON format to the peer contract of a network
+     * @param _rollbackData optional data of a bridgeRollback message, delivered back by xcall if the message fails
+     * @return the xcall serial number
+     */
+    private BigInteger _sendCallMessage(BigInteger _fee, String _networkID, String _method, JsonObject _data,
+            JsonObject _rollbackData) {
+        Context.require(!varXCallContract.getOrDefault(ZERO_ADDRESS).equals(ZERO_ADDRESS),
+                "XCall contract is not configured.");
+        String remoteContract = dbRemoteContracts.get(_networkID);
+        Context.require(remoteContract != null, "No remote contract configured for network " + _networkID);
+
+        // Nonces are counted per network so each peer sees a gapless sequence from this contract
+        BigInteger nonce = dbOutboundNonces.getOrDefault(_networkID, BigInteger.ZERO);
+        dbOutboundNonces.set(_networkID, nonce.add(BigInteger.ONE));
+
+        JsonObject message = Json.object()
+                .add("method", _method)
+                .add("nonce", "0x" + nonce.toString(16))
+                .add("data", _data);
+
+        byte[] rollback = null;
+        if (_rollbackData != null) {
+            rollback = Json.object()
+                    .add("method", "bridgeRollback")
+                    .add("data", _rollbackData)
+                    .toString().getBytes();
+        }
+
+        return Context.call(BigInteger.class, _fee, varXCallContract.get(), "sendCallMessage",
+                "btp://" + remoteContract, message.toString().getBytes(), rollback);
+    }
+
+    // ================================================
+    // Burn and Mint Bridging
+    // ================================================
+
+    /**
+     * Returns the bridge cap of a token for a network and the amount currently bridged to it
+     * @param _networkID: the remote network ID
+     * @param _id: the token ID
+     * @return a map with enabled, cap and bridgedSupply, the amount bridged to the network minus the amount received from it
+     */
+    @External(readonly = true)
+    public Map<String, Object> getBridgeStatus(String _networkID, BigInteger _id) {
+        return bridgeLedger.status(_networkID.toLowerCase(), _id);
+    }
+
+    /**
+     * Enables bridging of a token to and from a network, up to a cap on the net amount bridged in either direction
+     * Can only be set by the SCORE owner
+     * 
+     * @param _networkID: the remote network ID, a remote contract must be configured for it
+     * @param _id: the token ID
+     * @param _cap: the cap on the net amount bridged
+     */
+    @External
+    public void setBridgeCap(String _networkID, BigInteger _id, BigInteger _cap) {
+        onlyOwner();
+        String networkID = _networkID.toLowerCase();
+        Context.require(dbRemoteContracts.get(networkID) != null, "No remote contract configured for network " + networkID);
+        Context.require(!nonFungibleRanges.contains(_id), "Non-fungible ids cannot be bridged");
+        bridgeLedger.setCap(networkID, _id, _cap);
+    }
+
+    /**
+     * Burns tokens of the caller on this network and mints them to _to on its network
+     * If delivery fails xcall delivers a rollback and the tokens are minted back to the caller
+     * The xcall fee must be sent as the transaction value
+     * @param _to: the recipient in network address format ([NetworkID]/[Address]) or btp address format ([btp://][NetworkID]/[Address])
+     * @param _id: the token ID
+     * @param _value: the amount of tokens to bridge
+     */
+    @External
+    @Payable
+    public void x_bridgeTransfer(String _to, BigInteger _id, BigInteger _value) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        NetworkAddress fromAddress = new NetworkAddress(Context.getCaller(), varNetworkID.get());
+        NetworkAddress toAddress = new NetworkAddress(_to, varNetworkID.get());
+        String networkID = toAddress.getNetworkID();
+        Context.require(!networkID.equals(varNetworkID.get()), "_to is on the local network");
+        Context.require(!nonFungibleRanges.contains(_id), "Non-fungible ids cannot be bridged");
+
+        bridgeLedger.record(networkID, _id, _value);
+        _burn(fromAddress, _id, _value);
+
+        JsonObject data = Json.object()
+                .add("_from", fromAddress.toString())
+                .add("_to", toAddress.toString())
+                .add("_id", "0x" + _id.toString(16))
+                .add("_value", "0x" + _value.toString(16));
+        JsonObject rollbackData = Json.object()
+                .add("_from", fromAddress.toString())
+                .add("_network", networkID)
+                .add("_id", "0x" + _id.toString(16))
+                .add("_value", "0x" + _value.toString(16));
+        BigInteger sn = _sendCallMessage(Context.getValue(), networkID, "mint", data, rollbackData);
+
+        BridgeSent(fromAddress.toString(), toAddress.toString(), _id, _value, sn);
+    }
+
+    /**
+     * Mints tokens burned by the peer contract of the caller's network
+     */
+    private void _handleBridgeMintMessage(NetworkAddress _caller, JsonObject _data) {
+        _requireValid(_checkBridgeMintMessage(_caller, _data));
+
+        NetworkAddress toAddress = new NetworkAddress(_data.get("_to").asString(), "");
+        BigInteger id = new BigInteger(_data.get("_id").asString().replace("0x", ""), 16);
+        BigInteger value = new BigInteger(_data.get("_value").asString().replace("0x", ""), 16);
+
+        bridgeLedger.record(_caller.getNetworkID(), id, value.negate());
+        _bridgeMint(toAddress, id, value);
+
+        BridgeReceived(_data.get("_from").asString(), toAddress.toString(), id, value);
+    }
+
+    /**
+     * Mints back tokens of a bridge transfer that xcall failed to deliver
+     * Only the local xcall contract delivers rollbacks and it executes each of them once, keyed by the serial number
+     * of the failed message, so no pending rollback is recorded here
+     */
+    private void _handleBridgeRollbackMessage(NetworkAddress _caller, JsonObject _data) {
+        _requireValid(_checkBridgeRollbackMessage(_caller, _data));
+
+        NetworkAddress fromAddress = new NetworkAddress(_data.get("_from").asString(), "");
+        String networkID = _data.get("_network").asString();
+        BigInteger id = new BigInteger(_data.get("_id").asString().replace("0x", ""), 16);
+        BigInteger value = new BigInteger(_data.get("_value").asString().replace("0x", ""), 16);
+
+        bridgeLedger.revertSend(networkID, id, value);
+        _bridgeMint(fromAddress, id, value);
+
+        BridgeRolledBack(fromAddress.toString(), networkID, id, value);
+    }
+
+    /**
+     * Credits bridged tokens with a single balance write, unlike _mintInternal the creator is left untouched
+     */
+    private void _bridgeMint(NetworkAddress _to, BigInteger _id, BigInteger _value) {
+        Context.require(_value.signum() > 0, "Invalid amount");
+        Context.require(!nonFungibleRanges.contains(_id), "Non-fungible ids cannot be bridged");
+
+        _writeBalance(_id, _to, _balanceOf(_to, _id).add(_value));
+        dbSupply.set(_id, dbSupply.getOrDefault(_id, BigInteger.ZERO).add(_value));
+        x_TransferSingle(_to.toString(), new NetworkAddress(ZERO_ADDRESS, varNetworkID.get()).toString(), _to.toString(), _id, _value);
+    }
+
+    // ================================================
+    // Inbound Quotas
+    // ================================================
+
+    /**
+     * Returns the inbound quota of a source network and the operations and ids currently available to it
+     * @param _networkID: the source network ID
+     * @return a map with configured, and when configured windowBlocks, maxOperations, maxIds, availableOperations and availableIds
+     */
+    @External(readonly = true)
+    public Map<String, Object> getInboundQuotaStatus(String _networkID) {
+        return inboundQuotas.status(_networkID.toLowerCase());
+    }
+
+    /**
+     * Sets the inbound quota of a source network, refilled continuously over the window
+     * Messages exceeding the quota revert with the number of blocks to wait before retrying
+     * Can only be set by the SCORE owner
+     * 
+     * @param _networkID: the source network ID
+     * @param _windowBlocks: the number of blocks over which a full quota refills, 0 removes the quota
+     * @param _maxOperations: the number of handleCallMessage calls allowed per window, 0 for no limit
+     * @param _maxIds: the number of token ids (or operators of setApprovalForAllBatch) carried by messages allowed per window, 0 for no limit
+     */
+    @External
+    public void setInboundQuota(String _networkID, BigInteger _windowBlocks, BigInteger _maxOperations, BigInteger _maxIds) {
+        onlyOwner();
+        inboundQuotas.set(_networkID.toLowerCase(), _windowBlocks, _maxOperations, _maxIds);
+    }
+
+    // ================================================
+    // Operational Stats
+    // ================================================
+
+    /**
+     * Returns whether operational counters are recorded (off by default), the window size and the current window number
+     */
+    @External(readonly = true)
+    public Map<String, Object> getStatsConfig() {
+        return operationalStats.config();
+    }
+
+    /**
+     * Turns operational counters on or off and sets the stats window size
+     * While off no counter is read or written, so transfers and inbound messages cost nothing extra
+     * Changing the window size renumbers windows, previously recorded windows keep their original numbering
+     * Can only be set by the SCORE owner
+     * 
+     * @param _enabled: true to record counters, false to skip them entirely
+     * @param _windowBlocks: the number of blocks per stats window
+     */
+    @External
+    public void setStatsConfig(boolean _enabled, BigInteger _windowBlocks) {
+        onlyOwner();
+        operationalStats.configure(_enabled, _windowBlocks);
+    }
+
+    /**
+     * Returns the operational counters recorded for a window, with a page of its inbound message counts
+     * @param _window: the window number, covering blocks [_window * windowBlocks, (_window + 1) * windowBlocks)
+     * @param _offset: the position of the first "networkID|method" pair to return the inbound count of
+     * @param _limit: the maximum number of pairs to read, at most OperationalStats.MAX_PAGE
+     * @return the transfer counters (transfers, batchTransfers, idsMoved, maxBatchSize, hookFailures),
+     * inboundKeys (the number of pairs seen in any window) and inbound, a map of the pairs of the page counted in the window to their count
+     */
+    @External(readonly = true)
+    public Map<String, Object> getStats(BigInteger _window, int _offset, int _limit) {
+        return operationalStats.get(_window, _offset, _limit);
+    }
+
+    // ================================================
+    // Balance Commitments
+    // NOTE: committed balances form a sparse Merkle tree keyed by sha3-256(id|owner), see BalanceCommitments
+    // ================================================
+
+    /**
+     * Returns the root of the balance commitment tree, 32 zero bytes while no balance is committed
+     */
+    @External(readonly = true)
+    public byte[] balanceRoot() {
+        return balanceCommitments.root();
+    }
+
+    /**
+     * Returns whether the balances of a token are committed to the balance tree
+     * @param _id: the token ID
+     */
+    @External(readonly = true)
+    public boolean isBalanceCommitted(BigInteger _id) {
+        return balanceCommitments.isCommitted(_id);
+    }
+
+    /**
+     * Turns balance commitments on or off for a token, only ids that need proofs pay the extra hashing on transfers
+     * Balances written while enabled are committed, balances that predate enabling can be added with commitBalance
+     * The tree is not updated while disabled, so proofs for the id go stale
+     * Can only be set by the SCORE owner
+     * 
+     * @param _id: the token ID
+     * @param _enabled: true to commit balances of the token
+     */
+    @External
+    public void setBalanceCommitment(BigInteger _id, boolean _enabled) {
+        onlyOwner();
+        Context.require(!nonFungibleRanges.contains(_id), "Balances of non-fungible ids cannot be committed");
+        balanceCommitments.setCommitted(_id, _enabled);
+    }
+
+    /**
+     * Commits the current balance of an owner, used to add balances that predate enabling commitments for the id
+     * @param _owner: an address in one of the following formats: icon address, network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     * @param _id: the token ID
+     */
+    @External
+    public void commitBalance(String _owner, BigInteger _id) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        Context.require(balanceCommitments.isCommitted(_id), "Balances of token " + _id + " are not committed");
+        NetworkAddress ownerAddress = new NetworkAddress(_owner, varNetworkID.get());
+        balanceCommitments.commit(_id, ownerAddress.toString(), _balanceOf(ownerAddress, _id));
+    }
+
+    /**
+     * Returns a proof of the committed balance of an owner, verified off-chain with BalanceProofVerifier
+     * siblings are ordered from the leaf level up to the root. If leafKeyHash differs from keyHash (or is blank)
+     * the proof shows the owner has no committed balance: the path ends in another leaf (or an empty subtree)
+     * @param _owner: an address in one of the following formats: icon address, network address ([NetworkID]/[Address]) or btp address ([btp://][NetworkID]/[Address])
+     * @param _id: the token ID
+     * @return root, keyHash, balance, leafLevel, leafKeyHash, leafHash and siblings
+     */
+    @External(readonly = true)
+    public Map<String, Object> getBalanceProof(String _owner, BigInteger _id) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        NetworkAddress ownerAddress = new NetworkAddress(_owner, varNetworkID.get());
+        return balanceCommitments.proof(_id, ownerAddress.toString(), _balanceOf(ownerAddress, _id));
+    }
+
+    /**
+     * Returns the cumulative cost of maintaining the balance tree (updates, hashes and nodeWrites), used to measure
+     * the per transfer overhead
+     * Updates are only counted while operational counters are turned on with setStatsConfig
+     */
+    @External(readonly = true)
+    public Map<String, Object> getCommitmentStats() {
+        return balanceCommitments.stats();
+    }
+
+    // ================================================
+    // Bulk Jobs
+    // NOTE: jobs run operations that do not fit the step limit of one transaction. The item list is uploaded
+    // once in chunks, checked against a declared hash and then processed by continueJob in bounded pieces.
+    // ================================================
+
+    /**
+     * Returns the state and progress of a bulk job
+     * @param _jobId: the job ID
+     * @return a map with owner, kind, declaredHash, chunkCount, state (0 uploading, 1 ready, 2 completed, 3 cancelled),
+     * cursorChunk, cursorItem, processed and skipped
+     */
+    @External(readonly = true)
+    public Map<String, Object> getJob(BigInteger _jobId) {
+        return bulkJobs.get(_jobId).toMap();
+    }
+
+    /**
+     * Creates a bulk job executed on behalf of the caller, the job id is reported through JobCreated
+     * @param _kind: "transfer" where each item is [to, id, value] sent from the caller, "burn" where each item is [id, value] burned from the caller,
+     * or "import" where each item is [id, owner, balance, creator, uri] applied as genesis state (SCORE owner only, until the import is sealed)
+     * @param _hash: the expected chained hash of the chunks, h = sha3-256(h || chunk) for every chunk in order starting from 32 zero bytes
+     */
+    @External
+    public void createJob(String _kind, byte[] _hash) {
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        Context.require(_kind.equals("transfer") || _kind.equals("burn") || _kind.equals("import"),
+                "_kind must be transfer, burn or import");
+        NetworkAddress owner = new NetworkAddress(Context.getCaller(), varNetworkID.get());
+        if (_kind.equals("import")) {
+            onlyOwner();
+            genesisImport.open();
+        }
+
+        BigInteger jobId = bulkJobs.create(owner.toString(), _kind, _hash);
+        JobCreated(jobId, owner.toString(), _kind);
+    }
+
+    /**
+     * Uploads the next chunk of a job
+     * Can only be called by the job owner, until the job is sealed
+     * @param _jobId: the job ID
+     * @param _chunk: a RLP encoded list of items in the format of the job kind
+     */
+    @External
+    public void addJobChunk(BigInteger _jobId, byte[] _chunk) {
+        bulkJobs.addChunk(_jobId, _onlyJobOwner(_jobId), _chunk);
+    }
+
+    /**
+     * Seals a job once every chunk is uploaded, the chained hash of the chunks must match the declared hash
+     * Can only be called by the job owner
+     * @param _jobId: the job ID
+     */
+    @External
+    public void sealJob(BigInteger _jobId) {
+        bulkJobs.seal(_jobId, _onlyJobOwner(_jobId));
+    }
+
+    /**
+     * Cancels a job, items that were not processed yet are never executed
+     * Can only be called by the job owner
+     * @param _jobId: the job ID
+     */
+    @External
+    public void cancelJob(BigInteger _jobId) {
+        BulkJob job = _onlyJobOwner(_jobId);
+        bulkJobs.cancel(_jobId, job);
+        if (job.getKind().equals("import"))
+            genesisImport.close(job.getProcessed());
+        JobFinished(_jobId, job.getState(), job.getProcessed(), job.getSkipped());
+    }
+
+    /**
+     * Processes up to _maxItems items of a sealed job through the transfer and burn internals, on behalf of the job owner,
+     * import items are applied directly as genesis state and each of their chunks is summarized by ImportChunkApplied
+     * Can be called by anyone, the cursor is persisted so the job resumes where the last call stopped
+     * Items that would fail or cannot be decoded are skipped and reported through JobItemSkipped instead of reverting,
+     * a chunk that cannot be decoded at all is skipped as a whole
+     * Reverts if called again by an onIRC31Received hook of a job transfer, the hook then counts as failed
+     * @param _jobId: the job ID
+     * @param _maxItems: the maximum number of items to process in this call
+     */
+    @External
+    public void continueJob(BigInteger _jobId, int _maxItems) {
+        Context.require(_maxItems > 0, "_maxItems must be positive");
+        BulkJob job = bulkJobs.enter(_jobId);
+        int enteredChunk = job.getCursorChunk();
+        int enteredItem = job.getCursorItem();
+
+        NetworkAddress owner = new NetworkAddress(job.getOwner(), "");
+        String kind = job.getKind();
+        boolean isImport = kind.equals("import");
+        int budget = _maxItems;
+
+        while (budget > 0 && job.getCursorChunk() < job.getChunkCount()) {
+            byte[] chunk = bulkJobs.chunk(_jobId, job.getCursorChunk());
+            ObjectReader r = BulkJobs.open(chunk, job.getCursorItem());
+            boolean chunkDone = false;
+
+            while (true) {
+                BigInteger index = job.getProcessed().add(job.getSkipped());
+                Boolean hasNext = r == null ? null : BulkJobs.hasNext(r);
+                if (hasNext != null && !hasNext) {
+                    chunkDone = true;
+                    break;
+                }
+                if (budget == 0)
+                    break;
+                if (hasNext == null) {
+                    // The rest of the chunk cannot be decoded, there is no way to find the next item
+                    job.setSkipped(job.getSkipped().add(BigInteger.ONE));
+                    JobItemSkipped(_jobId, index, "Malformed chunk, its remaining items are skipped");
+                    budget--;
+                    chunkDone = true;
+                    break;
+                }
+
+                String reason;
+                if (kind.equals("transfer"))
+                    reason = _runJobTransfer(owner, r);
+                else if (kind.equals("burn"))
+                    reason = _runJobBurn(owner, r);
+                else
+                    reason = _runJobImport(r);
+                if (reason == null) {
+                    job.setProcessed(job.getProcessed().add(BigInteger.ONE));
+                } else {
+                    job.setSkipped(job.getSkipped().add(BigInteger.ONE));
+                    JobItemSkipped(_jobId, index, reason);
+                }
+                job.setCursorItem(job.getCursorItem() + 1);
+                budget--;
+
+                // The reader stopped inside the malformed item, reopen the chunk after it
+                if (MALFORMED_JOB_ITEM.equals(reason))
+                    r = BulkJobs.open(chunk, job.getCursorItem());
+            }
+
+            if (chunkDone) {
+                // Imports emit no transfer events, each applied chunk is summarized instead
+                if (isImport)
+                    ImportChunkApplied(_jobId, job.getCursorChunk(), job.getCursorItem(), job.getProcessed());
+
+                // Free the processed chunk and move to the next one
+                bulkJobs.deleteChunk(_jobId, job.getCursorChunk());
+                job.setCursorChunk(job.getCursorChunk() + 1);
+                job.setCursorItem(0);
+            }
+        }
+
+        if (job.getCursorChunk() >= job.getChunkCount()) {
+            job.setState(BulkJob.STATE_COMPLETED);
+            if (isImport)
+                genesisImport.close(job.getProcessed());
+            JobFinished(_jobId, job.getState(), job.getProcessed(), job.getSkipped());
+        }
+        bulkJobs.exit(_jobId, job, enteredChunk, enteredItem);
+    }
+
+    /**
+     * Reads and executes a [to, id, value] transfer item
+     * @return null on success, otherwise the reason the item was skipped
+     */
+    private String _runJobTransfer(NetworkAddress owner, ObjectReader r) {
+        String to;
+        BigInteger id;
+        BigInteger value;
+        try {
+            r.beginList();
+            to = r.readString();
+            id = r.readBigInteger();
+            value = r.readBigInteger();
+            r.end();
+        } catch (Exception ex) {
+            return MALFORMED_JOB_ITEM;
+        }
+
+        NetworkAddress toAddress = _tryNetworkAddress(to);
+        if (toAddress == null)
+            return "to is not a valid btp or network address";
+
+        String reason = _checkTransfer(owner, owner, toAddress, new BigInteger[] { id }, new BigInteger[] { value });
+        if (reason != null)
+            return reason;
+
+        _transferFrom(owner, owner, toAddress, id, value, null);
+        return null;
+    }
+
+    /**
+     * Reads and executes a [id, value] burn item
+     * @return null on success, otherwise the reason the item was skipped
+     */
+    private String _runJobBurn(NetworkAddress owner, ObjectReader r) {
+        BigInteger id;
+        BigInteger value;
+        try {
+            r.beginList();
+            id = r.readBigInteger();
+            value = r.readBigInteger();
+            r.end();
+        } catch (Exception ex) {
+            return MALFORMED_JOB_ITEM;
+        }
+
+        if (value.signum() <= 0)
+            return "Invalid amount " + value;
+        if (_balanceOf(owner, id).compareTo(value) < 0)
+            return "Insufficient funds to burn " + value;
+
+        _burn(owner, id, value);
+        return null;
+    }
+
+    /**
+     * Reads and applies a [id, owner, balance, creator, uri] import item, no transfer or URI events are emitted
+     * The creator is required for ids that are not minted yet and must match for minted ones, blank values are ignored otherwise
+     * @return null on success, otherwise the reason the item was skipped
+     */
+    private String _runJobImport(ObjectReader r) {
+        BigInteger id;
+        String owner;
+        BigInteger balance;
+        String creator;
+        String uri;
+        try {
+            r.beginList();
+            id = r.readBigInteger();
+            owner = r.readString();
+            balance = r.readBigInteger();
+            creator = r.readString();
+            uri = r.readString();
+            r.end();
+        } catch (Exception ex) {
+            return MALFORMED_JOB_ITEM;
+        }
+
+        if (id.signum() < 0)
+            return "Invalid id " + id;
+        if (nonFungibleRanges.contains(id))
+            return "Non-fungible ids cannot be imported";
+        if (balance.signum() < 0)
+            return "Invalid balance " + balance;
+        NetworkAddress ownerAddress = _tryNetworkAddress(owner);
+        if (ownerAddress == null && balance.signum() > 0)
+            return "owner is not a valid network address";
+
+        NetworkAddress creatorAddress = creator.isEmpty() ? null : _tryNetworkAddress(creator);
+        if (!creator.isEmpty() && creatorAddress == null)
+            return "creator is not a valid network address";
+
+        if (!_isMinted(id)) {
+            if (creatorAddress == null)
+                return "creator is required for ids that are not minted yet";
+            int creatorIndex = mintedIds.intern(creatorAddress.toString());
+            mintedIds.mark(id);
+            mintedIds.setCreator(id, creatorIndex);
+            tokenCatalog.add(id, creatorIndex);
+        } else if (creatorAddress != null && !creatorAddress.equals(_creatorOf(id))) {
+            return "creator does not match the creator of the minted id";
+        }
+
+        if (!uri.isEmpty() && dbTokenURI.get(id) == null)
+            dbTokenURI.set(id, uri);
+
+        if (balance.signum() > 0) {
+            _writeBalance(id, ownerAddress, _balanceOf(ownerAddress, id).add(balance));
+            dbSupply.set(id, dbSupply.getOrDefault(id, BigInteger.ZERO).add(balance));
+        }
+        return null;
+    }
+
+    private BulkJob _onlyJobOwner(BigInteger _jobId) {
+        BulkJob job = bulkJobs.get(_jobId);
+        Context.require(!varNetworkID.getOrDefault("").isEmpty(), "The Network ID is not configured for this SCORE");
+        NetworkAddress caller = new NetworkAddress(Context.getCaller(), varNetworkID.get());
+        Context.require(caller.toString().equals(job.getOwner()), "Caller is not the job owner");
+        return job;
+    }
+
+    // ================================================
+    // Genesis Import
+    // NOTE: genesis state is imported by "import" bulk jobs of the SCORE owner, see createJob and GenesisImport.
+    // Sealing the import is final, no import job can be created afterwards.
+    // ================================================
+
+    /**
+     * Returns the progress of the genesis import
+     * @return a map with sealed, openJobs (import jobs not completed or cancelled yet) and importedItems (items applied by closed import jobs)
+     */
+    @External(readonly = true)
+    public Map<String, Object> getImportStatus() {
+        return genesisImport.status();
+    }
+
+    /**
+     * Seals the genesis import, every import job must be completed or cancelled
+     * Can only be called by the SCORE owner
+     */
+    @External
+    public void sealImport() {
+        onlyOwner();
+        genesisImport.seal();
+        ImportSealed(genesisImport.importedItems());
+    }
+
+    // ================================================
+    // Event Logs
+    // ================================================
+
+    @EventLog(indexed = 3)
+    public void x_TransferSingle(String _operator, String _from, String _to, BigInteger _id,
+            BigInteger _value) {
+    }
+    
+    @EventLog(indexed = 3)
+    public void TransferSingle(Address _operator, Address _from, Address _to, BigInteger _id,
+            BigInteger _value) {
+    }
+
+    @EventLog(indexed = 3)
+    public void x_TransferBatch(String _operator, String _from, String _to, byte[] _ids,
+            byte[] _values) {
+    }
+
+    @EventLog(indexed = 3)
+    public void TransferBatch(Address _operator, Address _from, Address _to, byte[] _ids,
+            byte[] _values) {
+    }
+
+    @EventLog(indexed = 2)
     public void x_ApprovalForAll(String _owner, String _operator, boolean _approved) {
     }
 
@@ -697,10 +2572,75 @@ public class XChainMultiToken implements IRC31 {
     public void ApprovalForAll(Address _owner, Address _operator, boolean _approved) {
     }
 
+    /**
+     * Approvals changed by one setApprovalForAllBatch call
+     * @param _operators: RLP list of the operators whose approval changed [NetworkAddress String]
+     * @param _approved: bit i holds the new approval of operator i
+     */
+    @EventLog(indexed = 1)
+    public void x_ApprovalForAllBatch(String _owner, byte[] _operators, BigInteger _approved) {
+    }
+
     @EventLog(indexed = 1)
     public void URI(BigInteger _id, String _value) {
     }
 
+    @EventLog
+    public void MigrationStarted(int _fromVersion, int _toVersion) {
+    }
+
+    @EventLog
+    public void MigrationCompleted(int _version, int _entries) {
+    }
+
+    @EventLog(indexed = 1)
+    public void PermitSkipped(int _index, String _reason) {
+    }
+
+    @EventLog(indexed = 1)
+    public void PermitsRelayed(Address _relayer, int _submitted, int _accepted) {
+    }
+
+    @EventLog(indexed = 2)
+    public void RemoteBalanceUpdated(String _owner, BigInteger _id, BigInteger _balance) {
+    }
+
+    @EventLog(indexed = 1)
+    public void ResponseFeesDeposited(String _networkID, Address _from, BigInteger _value) {
+    }
+
+    @EventLog(indexed = 3)
+    public void BridgeSent(String _from, String _to, BigInteger _id, BigInteger _value, BigInteger _sn) {
+    }
+
+    @EventLog(indexed = 3)
+    public void BridgeReceived(String _from, String _to, BigInteger _id, BigInteger _value) {
+    }
+
+    @EventLog(indexed = 3)
+    public void BridgeRolledBack(String _from, String _network, BigInteger _id, BigInteger _value) {
+    }
+
+    @EventLog(indexed = 2)
+    public void JobCreated(BigInteger _jobId, String _owner, String _kind) {
+    }
+
+    @EventLog(indexed = 1)
+    public void JobItemSkipped(BigInteger _jobId, BigInteger _index, String _reason) {
+    }
+
+    @EventLog(indexed = 1)
+    public void JobFinished(BigInteger _jobId, int _state, BigInteger _processed, BigInteger _skipped) {
+    }
+
+    @EventLog(indexed = 1)
+    public void ImportChunkApplied(BigInteger _jobId, int _chunk, int _items, BigInteger _processed) {
+    }
+
+    @EventLog
+    public void ImportSealed(BigInteger _items) {
+    }
+
     // ================================================
     // Utility Methods
     // ================================================
@@ -743,6 +2683,63 @@ public class XChainMultiToken implements IRC31 {
         return writer.toByteArray();
     }
 
+    /**
+     * Convert a list of strings to a RLP-encoded byte array
+     * 
+     * @param values A list of strings
+     * @return a RLP encoded byte array
+     */
+    protected static byte[] rlpEncode(List<String> values) {
+        ByteArrayObjectWriter writer = Context.newByteArrayObjectWriter("RLPn");
+
+        writer.beginList(values.size());
+        for (String v : values) {
+            writer.write(v);
+        }
+        writer.end();
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Reads a RLP list of BigInteger values
+     * 
+     * @param r the object reader positioned at the list
+     * @return the values in the list
+     */
+    protected static BigInteger[] _readBigIntegerList(ObjectReader r) {
+        ArrayList<BigInteger> values = new ArrayList<>();
+        r.beginList();
+        while (r.hasNext()) {
+            values.add(r.readBigInteger());
+        }
+        r.end();
+
+        BigInteger[] result = new BigInteger[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Converts part of a byte array to a lower case hex string
+     * 
+     * @param bytes  the source bytes
+     * @param offset the first byte to convert
+     * @param length the number of bytes to convert
+     * @return the hex string without a 0x prefix
+     */
+    protected static String _toHex(byte[] bytes, int offset, int length) {
+        final String digits = "0123456789abcdef";
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            sb.append(digits.charAt((bytes[i] >> 4) & 0xf));
+            sb.append(digits.charAt(bytes[i] & 0xf));
+        }
+        return sb.toString();
+    }
+
     /**
      * Loops through the ArrayDB object to find a specific value
      * 
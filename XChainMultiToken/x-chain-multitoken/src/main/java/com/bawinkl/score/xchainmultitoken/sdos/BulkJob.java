@@ -0,0 +1,202 @@
+package com.bawinkl.score.xchainmultitoken.sdos;
+
+import java.math.BigInteger;
+import java.util.Map;
+
+import foundation.icon.score.data.ScoreDataObject;
+
+import score.ObjectReader;
+import score.ObjectWriter;
+
+@ScoreDataObject
+public class BulkJob {
+
+    public static final int STATE_UPLOADING = 0;
+    public static final int STATE_READY = 1;
+    public static final int STATE_COMPLETED = 2;
+    public static final int STATE_CANCELLED = 3;
+
+    protected String owner;
+    protected String kind;
+    protected byte[] declaredHash;
+    protected byte[] chainHash;
+    protected int chunkCount;
+    protected int state;
+    protected int cursorChunk;
+    protected int cursorItem;
+    protected BigInteger processed;
+    protected BigInteger skipped;
+
+    public BulkJob()
+    {
+        owner = "";
+        kind = "";
+        declaredHash = new byte[0];
+        chainHash = new byte[32];
+        chunkCount = 0;
+        state = STATE_UPLOADING;
+        cursorChunk = 0;
+        cursorItem = 0;
+        processed = BigInteger.ZERO;
+        skipped = BigInteger.ZERO;
+    }
+
+    /**
+     * @param owner The job owner [NetworkAddress String], items are executed on its behalf
+     * @param kind The kind of operation every item performs ("transfer", "burn" or "import")
+     * @param declaredHash The hash the chained hash of every uploaded chunk must match before the job can start
+     */
+    public BulkJob(String owner, String kind, byte[] declaredHash)
+    {
+        this();
+        this.owner = owner;
+        this.kind = kind;
+        this.declaredHash = declaredHash;
+    }
+
+    public String getOwner()
+    {
+        return this.owner;
+    }
+
+    public String getKind()
+    {
+        return this.kind;
+    }
+
+    public byte[] getDeclaredHash()
+    {
+        return this.declaredHash;
+    }
+
+    public byte[] getChainHash()
+    {
+        return this.chainHash;
+    }
+
+    public void setChainHash(byte[] value)
+    {
+        this.chainHash = value;
+    }
+
+    public int getChunkCount()
+    {
+        return this.chunkCount;
+    }
+
+    public void setChunkCount(int value)
+    {
+        this.chunkCount = value;
+    }
+
+    public int getState()
+    {
+        return this.state;
+    }
+
+    public void setState(int value)
+    {
+        this.state = value;
+    }
+
+    public int getCursorChunk()
+    {
+        return this.cursorChunk;
+    }
+
+    public void setCursorChunk(int value)
+    {
+        this.cursorChunk = value;
+    }
+
+    public int getCursorItem()
+    {
+        return this.cursorItem;
+    }
+
+    public void setCursorItem(int value)
+    {
+        this.cursorItem = value;
+    }
+
+    public BigInteger getProcessed()
+    {
+        return this.processed;
+    }
+
+    public void setProcessed(BigInteger value)
+    {
+        this.processed = value;
+    }
+
+    public BigInteger getSkipped()
+    {
+        return this.skipped;
+    }
+
+    public void setSkipped(BigInteger value)
+    {
+        this.skipped = value;
+    }
+
+    /**
+     * Writes the job to an object using ObjectWriter
+     * @param w the object writer
+     * @param job the job
+     */
+    public static void writeObject(ObjectWriter w, BulkJob job) {
+
+        w.beginList(10);
+        w.write(job.owner);
+        w.write(job.kind);
+        w.write(job.declaredHash);
+        w.write(job.chainHash);
+        w.write(job.chunkCount);
+        w.write(job.state);
+        w.write(job.cursorChunk);
+        w.write(job.cursorItem);
+        w.write(job.processed);
+        w.write(job.skipped);
+        w.end();
+    }
+
+    /**
+     * Reads the job object from an object reader
+     * @param r the object reader
+     */
+    public static BulkJob readObject(ObjectReader r) {
+
+        BulkJob job = new BulkJob();
+
+        r.beginList();
+        job.owner = r.readString();
+        job.kind = r.readString();
+        job.declaredHash = r.readByteArray();
+        job.chainHash = r.readByteArray();
+        job.chunkCount = r.readInt();
+        job.state = r.readInt();
+        job.cursorChunk = r.readInt();
+        job.cursorItem = r.readInt();
+        job.processed = r.readBigInteger();
+        job.skipped = r.readBigInteger();
+        r.end();
+
+        return job;
+    }
+
+    /**
+     * Returns a map representation of the job
+     */
+    public Map<String, Object> toMap() {
+        return Map.of(
+                "owner", this.owner,
+                "kind", this.kind,
+                "declaredHash", this.declaredHash,
+                "chunkCount", this.chunkCount,
+                "state", this.state,
+                "cursorChunk", this.cursorChunk,
+                "cursorItem", this.cursorItem,
+                "processed", this.processed,
+                "skipped", this.skipped);
+    }
+}
@@ -107,7 +107,7 @@ public class NetworkAddress {
      */
     public static void writeObject(ObjectWriter w, NetworkAddress na) {         
         
-        w.beginList(1);
+        w.beginList(2);
         w.write(na.networkID);
         w.write(na.address);
         w.end();
@@ -129,7 +129,10 @@ public class NetworkAddress {
         address = r.readString();
         r.end();
 
-        return new NetworkAddress(networkID, address);
+        NetworkAddress na = new NetworkAddress();
+        na.networkID = networkID;
+        na.address = address;
+        return na;
     }
 
     /**
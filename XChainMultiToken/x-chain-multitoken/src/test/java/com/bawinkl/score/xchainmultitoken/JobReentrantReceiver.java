@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import java.math.BigInteger;
+
+import score.Address;
+import score.Context;
+import score.annotation.External;
+
+/**
+ * A token recipient whose onIRC31Received hook calls continueJob on the token again, deployed with javaee-unittest
+ */
+public class JobReentrantReceiver {
+
+    private final Address token;
+    private final BigInteger jobId;
+
+    /**
+     * @param _token the token contract
+     * @param _jobId the job continued from the hook
+     */
+    public JobReentrantReceiver(Address _token, BigInteger _jobId) {
+        this.token = _token;
+        this.jobId = _jobId;
+    }
+
+    @External
+    public void onIRC31Received(Address _operator, Address _from, BigInteger _id, BigInteger _value, byte[] _data) {
+        Context.call(token, "continueJob", jobId, 10);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import java.math.BigInteger;
+
+import score.BranchDB;
+import score.Context;
+import score.DictDB;
+import score.VarDB;
+import score.annotation.External;
+
+import com.bawinkl.score.xchainmultitoken.sdos.NetworkAddress;
+
+/**
+ * An XChainMultiToken that can write entries in the legacy layouts and replay onUpdate, deployed with
+ * javaee-unittest to simulate the upgrade of a deployment made with an older schema version
+ */
+public class LegacyLayoutToken extends XChainMultiToken {
+
+    private final BranchDB<BigInteger, DictDB<String, BigInteger>> legacyBalances = Context
+            .newBranchDB("balances", BigInteger.class);
+    private final BranchDB<String, DictDB<String, Boolean>> legacyApprovals = Context
+            .newBranchDB("approval", Boolean.class);
+    private final DictDB<BigInteger, NetworkAddress> legacyCreators = Context.newDictDB("creators", NetworkAddress.class);
+    private final VarDB<Integer> schemaVersion = Context.newVarDB("schema_version", Integer.class);
+
+    public LegacyLayoutToken(boolean _update) {
+        super(_update);
+    }
+
+    /**
+     * Writes _count legacy balances of _id, the owner of entry i is a generated ICON address on _networkID holding i + 1 tokens
+     */
+    @External
+    public void seedBalances(BigInteger _id, String _networkID, int _from, int _count) {
+        DictDB<String, BigInteger> balances = legacyBalances.at(_id);
+        for (int i = _from; i < _from + _count; i++) {
+            balances.set(_networkID + "/" + generatedAddress(i), BigInteger.valueOf(i + 1));
+        }
+    }
+
+    /**
+     * Writes a single legacy balance
+     * @param _owner the owner as a network address ([NetworkID]/[Address])
+     */
+    @External
+    public void seedBalance(BigInteger _id, String _owner, BigInteger _value) {
+        legacyBalances.at(_id).set(_owner, _value);
+    }
+
+    /**
+     * Writes a single legacy approval
+     * @param _owner the owner as a network address ([NetworkID]/[Address])
+     * @param _operator the operator as a network address ([NetworkID]/[Address])
+     */
+    @External
+    public void seedApproval(String _owner, String _operator) {
+        legacyApprovals.at(_owner).set(_operator, true);
+    }
+
+    /**
+     * Writes the legacy creator of _count ids starting at _from
+     * @param _creator the creator as a network address ([NetworkID]/[Address])
+     */
+    @External
+    public void seedCreators(BigInteger _from, int _count, String _creator) {
+        for (int i = 0; i < _count; i++) {
+            legacyCreators.set(_from.add(BigInteger.valueOf(i)), new NetworkAddress(_creator, ""));
+        }
+    }
+
+    /**
+     * Records _version as the schema version and runs onUpdate, as deploying this build over a deployment of that
+     * schema version would, schema version 0 deployments recorded none
+     */
+    @External
+    public void upgradeFromSchema(int _version) {
+        schemaVersion.set(_version == 0 ? null : _version);
+        onUpdate();
+    }
+
+    @External(readonly = true)
+    public BigInteger legacyBalanceOf(BigInteger _id, String _owner) {
+        return legacyBalances.at(_id).get(_owner);
+    }
+
+    @External(readonly = true)
+    public Boolean legacyApprovalOf(String _owner, String _operator) {
+        return legacyApprovals.at(_owner).get(_operator);
+    }
+
+    @External(readonly = true)
+    public String legacyCreatorOf(BigInteger _id) {
+        NetworkAddress creator = legacyCreators.get(_id);
+        return creator == null ? null : creator.toString();
+    }
+
+    /**
+     * Returns the generated ICON address of seeded entry i
+     */
+    public static String generatedAddress(int i) {
+        String hex = Integer.toHexString(i);
+        return "hx" + "0000000000000000000000000000000000000000".substring(hex.length()) + hex;
+    }
+}
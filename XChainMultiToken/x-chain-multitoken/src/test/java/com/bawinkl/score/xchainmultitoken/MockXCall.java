@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import score.Address;
+import score.Context;
+import score.annotation.External;
+import score.annotation.Optional;
+import score.annotation.Payable;
+
+/**
+ * A stand-in for the xcall service contract, deployed with javaee-unittest and set as the token's XCall contract
+ *
+ * Messages from remote networks are queued by the test harness with queue() and delivered to their destination
+ * by executeCall, so the caller seen by handleCallMessage is this contract exactly as with a real deployment.
+ * Unlike xcall, requests are kept after execution so a relayer delivering the same message twice can be simulated.
+ * Messages sent through sendCallMessage are recorded, their rollback data can be delivered back with executeRollback.
+ */
+public class MockXCall {
+
+    public static final BigInteger DEFAULT_FEE = BigInteger.TEN.pow(16);
+
+    private final String networkID;
+    private BigInteger fee = DEFAULT_FEE;
+    private BigInteger lastRequestId = BigInteger.ZERO;
+    private BigInteger lastSn = BigInteger.ZERO;
+    private final Map<BigInteger, Request> requests = new HashMap<>();
+    private final List<SentMessage> sentMessages = new ArrayList<>();
+
+    /**
+     * @param _networkID the network ID of the simulated local network
+     */
+    public MockXCall(String _networkID) {
+        this.networkID = _networkID;
+    }
+
+    // ================================================
+    // XCall Methods
+    // ================================================
+
+    /**
+     * Returns the btp address of this contract, the _from value of delivered rollbacks
+     */
+    @External(readonly = true)
+    public String getNetworkAddress() {
+        return "btp://" + networkID + "/" + Context.getAddress().toString();
+    }
+
+    @External(readonly = true)
+    public BigInteger getFee(String _net, boolean _rollback) {
+        return fee;
+    }
+
+    @Payable
+    @External
+    public BigInteger sendCallMessage(String _to, byte[] _data, @Optional byte[] _rollback) {
+        Context.require(Context.getValue().compareTo(fee) >= 0, "Insufficient fee");
+        Context.require(_rollback == null || Context.getCaller().isContract(), "RollbackNotPossible");
+
+        lastSn = lastSn.add(BigInteger.ONE);
+        sentMessages.add(new SentMessage(lastSn, Context.getCaller(), _to, _data, _rollback));
+        return lastSn;
+    }
+
+    /**
+     * Delivers a queued request to its destination
+     * @param _reqId: the request ID returned by queue()
+     */
+    @External
+    public void executeCall(BigInteger _reqId) {
+        Request request = requests.get(_reqId);
+        Context.require(request != null, "InvalidRequestId");
+
+        request.executions++;
+        Context.call(request.to, "handleCallMessage", request.from, request.data);
+    }
+
+    /**
+     * Delivers the rollback data of a sent message back to its sender, once per message like xcall
+     * @param _sn: the serial number returned by sendCallMessage
+     */
+    @External
+    public void executeRollback(BigInteger _sn) {
+        SentMessage message = _sentMessage(_sn);
+        Context.require(message.rollback != null, "RollbackNotEnabled");
+        Context.require(!message.rolledBack, "RollbackAlreadyExecuted");
+
+        Context.call(message.from, "handleCallMessage", getNetworkAddress(), message.rollback);
+        message.rolledBack = true;
+    }
+
+    // ================================================
+    // Simulation Methods
+    // NOTE: called directly on the contract instance by the test harness
+    // ================================================
+
+    /**
+     * Queues a message received from a remote network
+     * @param from the remote sender in btp address format ([btp://][NetworkID]/[Address])
+     * @param to the local destination contract
+     * @param data the message payload
+     * @return the request ID to pass to executeCall
+     */
+    public BigInteger queue(String from, Address to, byte[] data) {
+        lastRequestId = lastRequestId.add(BigInteger.ONE);
+        requests.put(lastRequestId, new Request(from, to, data));
+        return lastRequestId;
+    }
+
+    /**
+     * Returns how many times a request was delivered
+     */
+    public int getExecutions(BigInteger reqId) {
+        Request request = requests.get(reqId);
+        return request == null ? 0 : request.executions;
+    }
+
+    public List<SentMessage> getSentMessages() {
+        return sentMessages;
+    }
+
+    public void setFee(BigInteger value) {
+        this.fee = value;
+    }
+
+    private SentMessage _sentMessage(BigInteger sn) {
+        for (SentMessage message : sentMessages) {
+            if (message.sn.equals(sn))
+                return message;
+        }
+        Context.revert("InvalidSerialNum");
+        return null;
+    }
+
+    private static final class Request {
+        final String from;
+        final Address to;
+        final byte[] data;
+        int executions;
+
+        Request(String from, Address to, byte[] data) {
+            this.from = from;
+            this.to = to;
+            this.data = data;
+        }
+    }
+
+    public static final class SentMessage {
+        public final BigInteger sn;
+        public final Address from;
+        public final String to;
+        public final byte[] data;
+        public final byte[] rollback;
+        boolean rolledBack;
+
+        SentMessage(BigInteger sn, Address from, String to, byte[] data, byte[] rollback) {
+            this.sn = sn;
+            this.from = from;
+            this.to = to;
+            this.data = data;
+            this.rollback = rollback;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.KeccakDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA3Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Signs permit messages with a secp256k1 key, as an ICON wallet or an EVM wallet holding the same key would
+ */
+public class PermitSigner {
+
+    private static final X9ECParameters CURVE = CustomNamedCurves.getByName("secp256k1");
+    private static final ECDomainParameters DOMAIN = new ECDomainParameters(CURVE.getCurve(), CURVE.getG(), CURVE.getN(), CURVE.getH());
+
+    private final BigInteger privateKey;
+    private final ECPoint publicKey;
+
+    /**
+     * @param privateKey the private key, between 1 and the curve order
+     */
+    public PermitSigner(BigInteger privateKey) {
+        this.privateKey = privateKey;
+        this.publicKey = DOMAIN.getG().multiply(privateKey).normalize();
+    }
+
+    /**
+     * Returns the ICON address of the key, the last 20 bytes of the sha3-256 hash of the raw public key
+     */
+    public String iconAddress() {
+        return "hx" + hex(hash(new SHA3Digest(256), rawPublicKey()), 12);
+    }
+
+    /**
+     * Returns the EVM address of the key, the last 20 bytes of the keccak-256 hash of the raw public key
+     */
+    public String evmAddress() {
+        return "0x" + hex(hash(new KeccakDigest(256), rawPublicKey()), 12);
+    }
+
+    /**
+     * Signs the sha3-256 digest of a message as an ICON wallet, with a recovery id of 0 or 1
+     */
+    public byte[] signIcon(byte[] message) {
+        return sign(hash(new SHA3Digest(256), message), 0);
+    }
+
+    /**
+     * Signs the keccak-256 digest of a message as an EVM wallet, with a recovery id of 27 or 28
+     */
+    public byte[] signEvm(byte[] message) {
+        return sign(hash(new KeccakDigest(256), message), 27);
+    }
+
+    /**
+     * Signs a digest with a deterministic nonce and a low s value
+     * @return r || s || v, v being the recovery id plus recoveryOffset
+     */
+    private byte[] sign(byte[] digest, int recoveryOffset) {
+        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+        signer.init(true, new ECPrivateKeyParameters(privateKey, DOMAIN));
+        BigInteger[] rs = signer.generateSignature(digest);
+        BigInteger r = rs[0];
+        BigInteger s = rs[1];
+        if (s.compareTo(DOMAIN.getN().shiftRight(1)) > 0)
+            s = DOMAIN.getN().subtract(s);
+
+        for (int recoveryId = 0; recoveryId < 2; recoveryId++) {
+            if (publicKey.equals(recover(recoveryId, r, s, digest))) {
+                byte[] signature = new byte[65];
+                write32(r, signature, 0);
+                write32(s, signature, 32);
+                signature[64] = (byte) (recoveryId + recoveryOffset);
+                return signature;
+            }
+        }
+        throw new IllegalStateException("No recovery id matches the public key");
+    }
+
+    /**
+     * Recovers the public key of a signature from the parity of R (SEC 1, section 4.1.6)
+     * @return the public key, null if r is not the x coordinate of a curve point
+     */
+    private static ECPoint recover(int recoveryId, BigInteger r, BigInteger s, byte[] digest) {
+        BigInteger n = DOMAIN.getN();
+        byte[] encoded = new byte[33];
+        encoded[0] = (byte) (recoveryId == 0 ? 0x02 : 0x03);
+        write32(r, encoded, 1);
+        ECPoint point;
+        try {
+            point = DOMAIN.getCurve().decodePoint(encoded);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+
+        BigInteger rInverse = r.modInverse(n);
+        BigInteger u1 = new BigInteger(1, digest).negate().mod(n).multiply(rInverse).mod(n);
+        BigInteger u2 = s.multiply(rInverse).mod(n);
+        return ECAlgorithms.sumOfTwoMultiplies(DOMAIN.getG(), u1, point, u2).normalize();
+    }
+
+    private byte[] rawPublicKey() {
+        byte[] encoded = publicKey.getEncoded(false);
+        byte[] raw = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 1, raw, 0, raw.length);
+        return raw;
+    }
+
+    private static byte[] hash(Digest digest, byte[] data) {
+        digest.update(data, 0, data.length);
+        byte[] result = new byte[digest.getDigestSize()];
+        digest.doFinal(result, 0);
+        return result;
+    }
+
+    private static void write32(BigInteger value, byte[] target, int offset) {
+        byte[] bytes = value.toByteArray();
+        int start = bytes.length > 32 ? bytes.length - 32 : 0;
+        int length = bytes.length - start;
+        System.arraycopy(bytes, start, target, offset + 32 - length, length);
+    }
+
+    private static String hex(byte[] bytes, int offset) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = offset; i < bytes.length; i++)
+            sb.append(String.format("%02x", bytes[i] & 0xff));
+        return sb.toString();
+    }
+}
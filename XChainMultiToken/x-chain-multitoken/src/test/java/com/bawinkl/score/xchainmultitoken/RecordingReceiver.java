@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import java.math.BigInteger;
+
+import score.Address;
+import score.VarDB;
+import score.Context;
+import score.annotation.External;
+
+/**
+ * A token recipient that counts its onIRC31Received calls and the value they carried, deployed with javaee-unittest
+ */
+public class RecordingReceiver {
+
+    private final VarDB<Integer> calls = Context.newVarDB("calls", Integer.class);
+    private final VarDB<BigInteger> received = Context.newVarDB("received", BigInteger.class);
+
+    @External
+    public void onIRC31Received(Address _operator, Address _from, BigInteger _id, BigInteger _value, byte[] _data) {
+        calls.set(calls.getOrDefault(0) + 1);
+        received.set(received.getOrDefault(BigInteger.ZERO).add(_value));
+    }
+
+    @External(readonly = true)
+    public int getCalls() {
+        return calls.getOrDefault(0);
+    }
+
+    @External(readonly = true)
+    public BigInteger getReceived() {
+        return received.getOrDefault(BigInteger.ZERO);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bawinkl.score.xchainmultitoken;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.iconloop.score.test.Account;
+import com.iconloop.score.test.Score;
+
+/**
+ * Drives a MockXCall deployment: queues messages from simulated remote networks and delivers them to the
+ * target SCORE in configurable batches and orders, including duplicate deliveries and rollbacks.
+ * Every delivery is a separate transaction sent by the relayer account and is timed, report aggregates the timings
+ * of a list of deliveries into throughput and latency figures.
+ */
+public class XCallSimulator {
+
+    public enum Order {
+        IN_ORDER,
+        REVERSED,
+        SHUFFLED
+    }
+
+    private final Score xcall;
+    private final Score target;
+    private final Account relayer;
+    private final Random random;
+    private final Map<String, RemoteNetwork> networks = new LinkedHashMap<>();
+    private final List<Message> pending = new ArrayList<>();
+    private final Map<BigInteger, Message> queued = new LinkedHashMap<>();
+
+    /**
+     * @param xcall the deployed MockXCall
+     * @param target the SCORE messages are delivered to
+     * @param relayer the account sending the delivery transactions
+     * @param seed the seed of the SHUFFLED order
+     */
+    public XCallSimulator(Score xcall, Score target, Account relayer, long seed) {
+        this.xcall = xcall;
+        this.target = target;
+        this.relayer = relayer;
+        this.random = new Random(seed);
+    }
+
+    public MockXCall getMock() {
+        return (MockXCall) xcall.getInstance();
+    }
+
+    /**
+     * Returns the simulated network with the given ID, creating it on first use
+     */
+    public RemoteNetwork network(String networkID) {
+        return networks.computeIfAbsent(networkID, RemoteNetwork::new);
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Delivers up to batchSize of the oldest pending messages, arranged in the given order
+     */
+    public List<Delivery> deliver(Order order, int batchSize) {
+        List<Message> batch = new ArrayList<>(pending.subList(0, Math.min(batchSize, pending.size())));
+        pending.subList(0, batch.size()).clear();
+
+        if (order == Order.REVERSED)
+            Collections.reverse(batch);
+        else if (order == Order.SHUFFLED)
+            Collections.shuffle(batch, random);
+
+        List<Delivery> deliveries = new ArrayList<>(batch.size());
+        for (Message message : batch)
+            deliveries.add(_execute(message));
+        return deliveries;
+    }
+
+    /**
+     * Delivers every pending message in batches of batchSize, each batch arranged in the given order
+     */
+    public List<Delivery> deliverAll(Order order, int batchSize) {
+        List<Delivery> deliveries = new ArrayList<>();
+        while (!pending.isEmpty())
+            deliveries.addAll(deliver(order, batchSize));
+        return deliveries;
+    }
+
+    /**
+     * Delivers a message again, as a relayer retrying an already executed request would
+     */
+    public Delivery redeliver(BigInteger reqId) {
+        Message message = queued.get(reqId);
+        if (message == null)
+            throw new IllegalArgumentException("Unknown request " + reqId);
+        return _execute(message);
+    }
+
+    /**
+     * Delivers the rollback of a message sent by the target SCORE
+     * @param sn the serial number returned by sendCallMessage
+     */
+    public Delivery rollback(BigInteger sn) {
+        long start = System.nanoTime();
+        try {
+            xcall.invoke(relayer, "executeRollback", sn);
+            return new Delivery(sn, "rollback", 0, true, null, System.nanoTime() - start);
+        } catch (Throwable ex) {
+            return new Delivery(sn, "rollback", 0, false, ex.getMessage(), System.nanoTime() - start);
+        }
+    }
+
+    private Delivery _execute(Message message) {
+        long start = System.nanoTime();
+        try {
+            xcall.invoke(relayer, "executeCall", message.reqId);
+            return new Delivery(message.reqId, message.method, message.size, true, null, System.nanoTime() - start);
+        } catch (Throwable ex) {
+            return new Delivery(message.reqId, message.method, message.size, false, ex.getMessage(),
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Aggregates the timings of a list of deliveries, failed deliveries are timed and counted like the others
+     */
+    public static Report report(List<Delivery> deliveries) {
+        if (deliveries.isEmpty())
+            throw new IllegalArgumentException("No deliveries to report");
+
+        long[] latencies = new long[deliveries.size()];
+        long total = 0;
+        long bytes = 0;
+        int failed = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            Delivery delivery = deliveries.get(i);
+            latencies[i] = delivery.elapsedNanos;
+            total += delivery.elapsedNanos;
+            bytes += delivery.payloadSize;
+            if (!delivery.success)
+                failed++;
+        }
+        Arrays.sort(latencies);
+
+        int p95 = Math.min(latencies.length - 1, (int) Math.ceil(latencies.length * 0.95) - 1);
+        return new Report(latencies.length, failed, bytes / latencies.length, total,
+                latencies[latencies.length / 2], latencies[p95], latencies[latencies.length - 1]);
+    }
+
+    /**
+     * A simulated remote network, messages sent from it carry sequential nonces unless one is given
+     */
+    public final class RemoteNetwork {
+        private final String networkID;
+        private BigInteger nextNonce = BigInteger.ZERO;
+
+        private RemoteNetwork(String networkID) {
+            this.networkID = networkID;
+        }
+
+        public String getNetworkID() {
+            return networkID;
+        }
+
+        /**
+         * Returns the network address of an account on this network
+         */
+        public String address(String account) {
+            return networkID + "/" + account;
+        }
+
+        /**
+         * Queues a handleCallMessage payload sent by an account of this network
+         * @return the request ID
+         */
+        public BigInteger send(String account, String method, JsonObject data) {
+            BigInteger nonce = nextNonce;
+            nextNonce = nextNonce.add(BigInteger.ONE);
+            return send(account, method, nonce, data);
+        }
+
+        /**
+         * Queues a handleCallMessage payload with an explicit nonce
+         * @return the request ID
+         */
+        public BigInteger send(String account, String method, BigInteger nonce, JsonObject data) {
+            byte[] payload = Json.object()
+                    .add("method", method)
+                    .add("nonce", "0x" + nonce.toString(16))
+                    .add("data", data)
+                    .toString().getBytes();
+
+            BigInteger reqId = getMock().queue("btp://" + address(account), target.getAddress(), payload);
+            Message message = new Message(reqId, method, payload.length);
+            pending.add(message);
+            queued.put(reqId, message);
+            return reqId;
+        }
+    }
+
+    private static final class Message {
+        final BigInteger reqId;
+        final String method;
+        final int size;
+
+        Message(BigInteger reqId, String method, int size) {
+            this.reqId = reqId;
+            this.method = method;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The outcome of a single delivery transaction
+     */
+    public static final class Delivery {
+        public final BigInteger id;
+        public final String method;
+        public final int payloadSize;
+        public final boolean success;
+        public final String error;
+        // Wall time of the delivery transaction
+        public final long elapsedNanos;
+
+        Delivery(BigInteger id, String method, int payloadSize, boolean success, String error, long elapsedNanos) {
+            this.id = id;
+            this.method = method;
+            this.payloadSize = payloadSize;
+            this.success = success;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    /**
+     * Throughput and latency of a list of deliveries
+     */
+    public static final class Report {
+        public final int messages;
+        public final int failed;
+        public final long averagePayload;
+        public final long totalNanos;
+        public final long p50Nanos;
+        public final long p95Nanos;
+        public final long maxNanos;
+
+        Report(int messages, int failed, long averagePayload, long totalNanos, long p50Nanos, long p95Nanos,
+                long maxNanos) {
+            this.messages = messages;
+            this.failed = failed;
+            this.averagePayload = averagePayload;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * Returns the delivered messages per second
+         */
+        public double throughput() {
+            return messages / (totalNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("messages=%d failed=%d avgPayload=%dB total=%.2fms throughput=%.0f msg/s p50=%dus p95=%dus max=%dus",
+                    messages, failed, averagePayload, totalNanos / 1e6, throughput(), p50Nanos / 1000, p95Nanos / 1000,
+                    maxNanos / 1000);
+        }
+    }
+}
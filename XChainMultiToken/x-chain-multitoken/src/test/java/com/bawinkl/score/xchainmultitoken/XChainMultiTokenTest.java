@@ -16,17 +16,1440 @@
 
 package com.bawinkl.score.xchainmultitoken;
 
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import com.bawinkl.xchainmultitoken.genesis.GenesisChunkBuilder;
+import com.bawinkl.xchainmultitoken.verifier.BalanceProofVerifier;
+import com.bawinkl.score.xchainmultitoken.XCallSimulator.Delivery;
+import com.bawinkl.score.xchainmultitoken.XCallSimulator.Order;
+import com.bawinkl.score.xchainmultitoken.XCallSimulator.RemoteNetwork;
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
 import com.iconloop.score.test.Account;
 import com.iconloop.score.test.Score;
 import com.iconloop.score.test.ServiceManager;
 import com.iconloop.score.test.TestBase;
+import org.bouncycastle.crypto.digests.SHA3Digest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class XChainMultiTokenTest extends TestBase {
+    private static final String NETWORK_ID = "0x1.icon";
+    private static final String BSC_NETWORK_ID = "0x38.bsc";
+    private static final String ETH_NETWORK_ID = "0x1.eth";
+    private static final String BSC_PEER = "0x000000000000000000000000000000000000b5c1";
+    private static final String ETH_PEER = "0x000000000000000000000000000000000000e7a1";
+
     private static final ServiceManager sm = getServiceManager();
     private static final Account owner = sm.createAccount();
+    private static final Account relayer = sm.createAccount();
     private Score tokenScore;
+    private Score xcallScore;
+    private XCallSimulator simulator;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        tokenScore = sm.deploy(owner, XChainMultiToken.class, false);
+        xcallScore = sm.deploy(owner, MockXCall.class, NETWORK_ID);
+
+        tokenScore.invoke(owner, "setNetworkID", NETWORK_ID);
+        tokenScore.invoke(owner, "setXCallContract", xcallScore.getAddress());
+        tokenScore.invoke(owner, "setRemoteContract", "btp://" + BSC_NETWORK_ID + "/" + BSC_PEER);
+        tokenScore.invoke(owner, "setRemoteContract", "btp://" + ETH_NETWORK_ID + "/" + ETH_PEER);
+
+        simulator = new XCallSimulator(xcallScore, tokenScore, relayer, 42);
+    }
+
+    @Test
+    public void acceptsOutOfOrderDeliveryWithinTheWindow() {
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        fundRemote(alice, BigInteger.ONE, BigInteger.valueOf(10));
+
+        for (int nonce = 9; nonce >= 0; nonce--)
+            deliver(alice, "transferFrom", BigInteger.valueOf(nonce), transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+
+        assertEquals(BigInteger.valueOf(10), balanceOf(local, BigInteger.ONE));
+        assertEquals(BigInteger.valueOf(9), nonceStatus(alice).get("highestNonce"));
+    }
+
+    @Test
+    public void rejectsDuplicateDelivery() {
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        fundRemote(alice, BigInteger.ONE, BigInteger.valueOf(5));
+
+        BigInteger reqId = deliver(alice, "transferFrom", BigInteger.ZERO, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        assertThrows(Throwable.class, () -> xcallScore.invoke(relayer, "executeCall", reqId));
+
+        assertEquals(2, ((MockXCall) xcallScore.getInstance()).getExecutions(reqId));
+        assertEquals(BigInteger.ONE, balanceOf(local, BigInteger.ONE));
+        assertEquals(true, tokenScore.call("isInboundNonceUsed", "btp://" + alice, BigInteger.ZERO));
+        assertEquals(false, tokenScore.call("isInboundNonceUsed", "btp://" + alice, BigInteger.ONE));
+    }
+
+    @Test
+    public void keepsAReplayWindowPerSender() {
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String bob = BSC_NETWORK_ID + "/0xb0b";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        fundRemote(alice, BigInteger.ONE, BigInteger.valueOf(5));
+        fundRemote(bob, BigInteger.TWO, BigInteger.valueOf(5));
+
+        // A huge nonce moves the window of its sender only
+        deliver(alice, "transferFrom", BigInteger.TWO.pow(200), transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        deliver(bob, "transferFrom", BigInteger.ZERO, transferData(bob, local, BigInteger.TWO, BigInteger.ONE));
+
+        assertEquals(BigInteger.ONE, balanceOf(local, BigInteger.TWO));
+        assertEquals(true, tokenScore.call("isInboundNonceUsed", alice, BigInteger.ZERO));
+        assertEquals(false, tokenScore.call("isInboundNonceUsed", bob, BigInteger.ONE));
+    }
+
+    @Test
+    public void rejectsNoncesThatFellOutOfTheWindow() {
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        fundRemote(alice, BigInteger.ONE, BigInteger.valueOf(5));
+        BigInteger window = BigInteger.valueOf(InboundNonces.WINDOW_SLOTS * InboundNonces.SLOT_BITS);
+
+        deliver(alice, "transferFrom", window, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        // Still inside the oldest tracked slot
+        deliver(alice, "transferFrom", BigInteger.valueOf(InboundNonces.SLOT_BITS),
+                transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+
+        assertThrows(Throwable.class, () -> deliver(alice, "transferFrom", BigInteger.ZERO,
+                transferData(alice, local, BigInteger.ONE, BigInteger.ONE)));
+        assertEquals(BigInteger.TWO, balanceOf(local, BigInteger.ONE));
+    }
+
+    @Test
+    public void acceptsMessagesWithoutANonceUntilTheNetworkRequiresOne() {
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        fundRemote(alice, BigInteger.ONE, BigInteger.valueOf(5));
+
+        deliver(alice, "transferFrom", null, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        assertEquals(BigInteger.ONE, balanceOf(local, BigInteger.ONE));
+
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "setInboundNonceRequired", BSC_NETWORK_ID, true));
+        tokenScore.invoke(owner, "setInboundNonceRequired", BSC_NETWORK_ID, true);
+        assertEquals(true, nonceStatus(alice).get("nonceRequired"));
+
+        assertThrows(Throwable.class, () -> deliver(alice, "transferFrom", null,
+                transferData(alice, local, BigInteger.ONE, BigInteger.ONE)));
+        deliver(alice, "transferFrom", BigInteger.ZERO, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        assertEquals(BigInteger.TWO, balanceOf(local, BigInteger.ONE));
+    }
+
+    @Test
+    public void rejectsMessagesNotDeliveredByXCall() {
+        byte[] payload = Json.object()
+                .add("method", "setApprovalForAll")
+                .add("nonce", "0x0")
+                .add("data", Json.object().add("_operator", NETWORK_ID + "/" + owner.getAddress().toString()).add("_approved", "0x1"))
+                .toString().getBytes();
+
+        assertThrows(Throwable.class, () ->
+                tokenScore.invoke(owner, "handleCallMessage", "btp://" + BSC_NETWORK_ID + "/0xa11ce", payload));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void throttlesEachSourceNetworkToItsQuota() {
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String carol = ETH_NETWORK_ID + "/0xca401";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        fundRemote(alice, BigInteger.ONE, BigInteger.valueOf(20));
+        fundRemote(carol, BigInteger.TWO, BigInteger.valueOf(20));
+        assertEquals(false, ((Map<String, Object>) tokenScore.call("getInboundQuotaStatus", BSC_NETWORK_ID)).get("configured"));
+
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "setInboundQuota", BSC_NETWORK_ID,
+                BigInteger.valueOf(10), BigInteger.TWO, BigInteger.valueOf(5)));
+        tokenScore.invoke(owner, "setInboundQuota", BSC_NETWORK_ID, BigInteger.valueOf(10), BigInteger.TWO, BigInteger.valueOf(5));
+
+        // A batch larger than the whole id quota can never be delivered
+        JsonObject batch = transferData(alice, local, BigInteger.ONE, BigInteger.ONE);
+        for (int i = 0; i < 5; i++) {
+            batch.get("_ids").asArray().add("0x1");
+            batch.get("_values").asArray().add("0x1");
+        }
+        Throwable tooLarge = assertThrows(Throwable.class, () -> deliver(alice, "transferFromBatch", BigInteger.ZERO, batch));
+        assertTrue(tooLarge.getMessage().contains("exceeds the per window id quota"));
+
+        deliver(alice, "transferFrom", BigInteger.ZERO, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        deliver(alice, "transferFrom", BigInteger.ONE, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        Throwable exhausted = assertThrows(Throwable.class, () -> deliver(alice, "transferFrom", BigInteger.TWO,
+                transferData(alice, local, BigInteger.ONE, BigInteger.ONE)));
+        assertTrue(exhausted.getMessage().contains("retry in"));
+        assertEquals(BigInteger.TWO, balanceOf(local, BigInteger.ONE));
+
+        // Other networks are not throttled
+        for (int nonce = 0; nonce < 4; nonce++)
+            deliver(carol, "transferFrom", BigInteger.valueOf(nonce), transferData(carol, local, BigInteger.TWO, BigInteger.ONE));
+        assertEquals(BigInteger.valueOf(4), balanceOf(local, BigInteger.TWO));
+
+        // The quota refills over its window
+        while (((BigInteger) ((Map<String, Object>) tokenScore.call("getInboundQuotaStatus", BSC_NETWORK_ID))
+                .get("availableOperations")).signum() == 0)
+            tokenScore.invoke(owner, "setInboundNonceRequired", ETH_NETWORK_ID, false);
+        deliver(alice, "transferFrom", BigInteger.TWO, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        assertEquals(BigInteger.valueOf(3), balanceOf(local, BigInteger.ONE));
+
+        tokenScore.invoke(owner, "setInboundQuota", BSC_NETWORK_ID, BigInteger.ZERO, BigInteger.ZERO, BigInteger.ZERO);
+        deliver(alice, "transferFromBatch", BigInteger.valueOf(3), batch);
+        assertEquals(BigInteger.valueOf(9), balanceOf(local, BigInteger.ONE));
+    }
+
+    @Test
+    public void recordsStatsOnlyOnceEnabled() {
+        BigInteger id = BigInteger.valueOf(15);
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        tokenScore.invoke(owner, "mint", id, BigInteger.TEN, "uri");
+        Map<?, ?> config = (Map<?, ?>) tokenScore.call("getStatsConfig");
+        assertEquals(false, config.get("enabled"));
+        transfer(relayer.getAddress().toString(), id, BigInteger.ONE);
+        BigInteger window = (BigInteger) config.get("currentWindow");
+        assertEquals(BigInteger.ZERO, ((Map<?, ?>) tokenScore.call("getStats", window, 0, 10)).get("transfers"));
+
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "setStatsConfig", true, BigInteger.valueOf(1_000_000)));
+        tokenScore.invoke(owner, "setStatsConfig", true, BigInteger.valueOf(1_000_000));
+        BigInteger current = (BigInteger) ((Map<?, ?>) tokenScore.call("getStatsConfig")).get("currentWindow");
+        transfer(alice, id, BigInteger.TWO);
+        tokenScore.invoke(owner, "x_transferFromBatch", owner.getAddress().toString(), relayer.getAddress().toString(),
+                new BigInteger[] { id, id, id }, new BigInteger[] { BigInteger.ONE, BigInteger.ONE, BigInteger.ONE }, new byte[0]);
+        // The xcall mock has no onIRC31Received, the transfer goes through and the failed hook is counted
+        tokenScore.invoke(owner, "transferFrom", owner.getAddress(), xcallScore.getAddress(), id, BigInteger.ONE, new byte[0]);
+        deliver(alice, "transferFrom", BigInteger.ZERO, transferData(alice, local, id, BigInteger.ONE));
+
+        Map<?, ?> stats = (Map<?, ?>) tokenScore.call("getStats", current, 0, 10);
+        assertEquals(BigInteger.valueOf(4), stats.get("transfers"));
+        assertEquals(BigInteger.ONE, stats.get("batchTransfers"));
+        assertEquals(BigInteger.valueOf(6), stats.get("idsMoved"));
+        assertEquals(BigInteger.valueOf(3), stats.get("maxBatchSize"));
+        assertEquals(BigInteger.ONE, stats.get("hookFailures"));
+        assertEquals(1, stats.get("inboundKeys"));
+        assertEquals(BigInteger.ONE, ((Map<?, ?>) stats.get("inbound")).get(BSC_NETWORK_ID + "|transferFrom"));
+        assertEquals(BigInteger.ZERO, ((Map<?, ?>) tokenScore.call("getStats", current.add(BigInteger.ONE), 0, 10)).get("transfers"));
+
+        // Turned off, nothing is counted
+        tokenScore.invoke(owner, "setStatsConfig", false, BigInteger.valueOf(1_000_000));
+        transfer(alice, id, BigInteger.ONE);
+        assertEquals(BigInteger.valueOf(4), ((Map<?, ?>) tokenScore.call("getStats", current, 0, 10)).get("transfers"));
+
+        assertThrows(Throwable.class, () -> tokenScore.call("getStats", current, 0, 101));
+        assertThrows(Throwable.class, () -> tokenScore.call("getStats", current, -1, 10));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void validatesCallMessagesWithoutWriting() {
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        fundRemote(alice, BigInteger.ONE, BigInteger.valueOf(5));
+
+        Map<String, Object> result = validate(alice, "transferFrom", BigInteger.ZERO, transferData(alice, local, BigInteger.ONE, BigInteger.valueOf(5)));
+        assertEquals(true, result.get("valid"));
+        assertEquals("", result.get("reason"));
+        assertEquals("transferFrom", result.get("method"));
+        assertEquals(BigInteger.ZERO, result.get("nonce"));
+        assertEquals(false, tokenScore.call("isInboundNonceUsed", alice, BigInteger.ZERO));
+        assertEquals(BigInteger.valueOf(5), balanceOf(alice, BigInteger.ONE));
+
+        // Funds and approvals, duplicate ids of a batch draw from the same balance
+        assertReason("Insufficient funds", validate(alice, "transferFrom", null,
+                transferData(alice, local, BigInteger.ONE, BigInteger.valueOf(6))));
+        JsonObject batch = Json.object()
+                .add("_from", alice)
+                .add("_to", local)
+                .add("_ids", Json.array().add("0x1").add("0x1"))
+                .add("_values", Json.array().add("0x3").add("0x3"));
+        assertReason("Insufficient funds", validate(alice, "transferFromBatch", null, batch));
+        assertReason("Need operator approval", validate(BSC_NETWORK_ID + "/0xb0b", "transferFrom", null,
+                transferData(alice, local, BigInteger.ONE, BigInteger.ONE)));
+
+        // Decoding and address parsing
+        assertReason("not a valid btp or network address", validate(alice, "transferFrom", null,
+                transferData(alice, "hx" + "0".repeat(40), BigInteger.ONE, BigInteger.ONE)));
+        assertReason("hex encoded", validate(alice, "transferFrom", null,
+                transferData(alice, local, BigInteger.ONE, BigInteger.ONE).set("_values", Json.array().add("0xzz"))));
+        assertReason("setApprovalForAll", validate(alice, "setApprovalForAll", null, Json.object().add("_approved", "0x1")));
+        assertReason("not supported", validate(alice, "selfDestruct", null, Json.object()));
+        assertReason("not a valid btp or network address", (Map<String, Object>) tokenScore.call("validateCallMessage", "0xa11ce",
+                Json.object().add("method", "transferFrom").add("data", Json.object()).toString().getBytes()));
+        assertReason("JSON", (Map<String, Object>) tokenScore.call("validateCallMessage", "btp://" + alice, "{".getBytes()));
+
+        // Peer authorization, replay window and quota
+        JsonObject mint = Json.object().add("_from", alice).add("_to", local).add("_id", "0x1").add("_value", "0x1");
+        assertReason("not the configured remote contract", validate(alice, "mint", null, mint));
+        assertReason("not enabled", validate(BSC_NETWORK_ID + "/" + BSC_PEER, "mint", null, mint));
+        deliver(alice, "transferFrom", BigInteger.ZERO, transferData(alice, local, BigInteger.ONE, BigInteger.ONE));
+        assertReason("already", validate(alice, "transferFrom", BigInteger.ZERO, transferData(alice, local, BigInteger.ONE, BigInteger.ONE)));
+        tokenScore.invoke(owner, "setInboundQuota", BSC_NETWORK_ID, BigInteger.valueOf(1000), BigInteger.ZERO, BigInteger.ONE);
+        assertReason("id quota", validate(alice, "transferFromBatch", BigInteger.ONE, batch));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bridgesTokensByBurningAndMinting() {
+        Account user = sm.createAccount(100);
+        String userKey = NETWORK_ID + "/" + user.getAddress().toString();
+        BigInteger id = BigInteger.valueOf(7);
+        tokenScore.invoke(user, "mint", id, BigInteger.valueOf(100), "uri");
+        assertThrows(Throwable.class, () -> tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_bridgeTransfer",
+                BSC_NETWORK_ID + "/0xa11ce", id, BigInteger.ONE));
+        tokenScore.invoke(owner, "setBridgeCap", BSC_NETWORK_ID, id, BigInteger.valueOf(50));
+
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_bridgeTransfer", BSC_NETWORK_ID + "/0xa11ce", id, BigInteger.valueOf(40));
+        assertEquals(BigInteger.valueOf(60), balanceOf(userKey, id));
+        assertEquals(BigInteger.valueOf(60), tokenScore.call("totalSupply", id));
+        assertEquals(BigInteger.valueOf(40), ((Map<String, Object>) tokenScore.call("getBridgeStatus", BSC_NETWORK_ID, id)).get("bridgedSupply"));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_bridgeTransfer",
+                BSC_NETWORK_ID + "/0xa11ce", id, BigInteger.valueOf(11)));
+
+        List<MockXCall.SentMessage> sent = mockXCall().getSentMessages();
+        assertEquals(1, sent.size());
+        assertEquals("btp://" + BSC_NETWORK_ID + "/" + BSC_PEER, sent.get(0).to);
+        JsonObject mint = Json.parse(new String(sent.get(0).data)).asObject();
+        assertEquals("mint", mint.get("method").asString());
+        assertEquals(BSC_NETWORK_ID + "/0xa11ce", mint.get("data").asObject().get("_to").asString());
+
+        // The peer burns and sends tokens back, only the peer can mint and only up to the cap
+        JsonObject back = Json.object()
+                .add("_from", BSC_NETWORK_ID + "/0xa11ce")
+                .add("_to", userKey)
+                .add("_id", "0x7")
+                .add("_value", "0xf");
+        assertThrows(Throwable.class, () -> deliver(BSC_NETWORK_ID + "/0xa11ce", "mint", BigInteger.ZERO, back));
+        deliver(BSC_NETWORK_ID + "/" + BSC_PEER, "mint", BigInteger.ZERO, back);
+        assertEquals(BigInteger.valueOf(75), balanceOf(userKey, id));
+        assertEquals(BigInteger.valueOf(75), tokenScore.call("totalSupply", id));
+        assertEquals(BigInteger.valueOf(25), ((Map<String, Object>) tokenScore.call("getBridgeStatus", BSC_NETWORK_ID, id)).get("bridgedSupply"));
+
+        back.set("_value", "0x4c");
+        assertThrows(Throwable.class, () -> deliver(BSC_NETWORK_ID + "/" + BSC_PEER, "mint", BigInteger.ONE, back));
+        assertEquals(BigInteger.valueOf(75), balanceOf(userKey, id));
+    }
+
+    @Test
+    public void rollbackMintsBackBridgedTokensOnce() {
+        Account user = sm.createAccount(100);
+        String userKey = NETWORK_ID + "/" + user.getAddress().toString();
+        BigInteger id = BigInteger.valueOf(8);
+        tokenScore.invoke(user, "mint", id, BigInteger.valueOf(100), "uri");
+        tokenScore.invoke(owner, "setBridgeCap", BSC_NETWORK_ID, id, BigInteger.valueOf(1000));
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_bridgeTransfer", BSC_NETWORK_ID + "/0xa11ce", id, BigInteger.valueOf(40));
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_bridgeTransfer", BSC_NETWORK_ID + "/0xa11ce", id, BigInteger.valueOf(10));
+        assertEquals(BigInteger.valueOf(50), balanceOf(userKey, id));
+        List<MockXCall.SentMessage> sent = mockXCall().getSentMessages();
+
+        // Rollbacks do not come from a remote sender, they carry no nonce and are not throttled
+        tokenScore.invoke(owner, "setInboundNonceRequired", NETWORK_ID, true);
+        tokenScore.invoke(owner, "setInboundQuota", NETWORK_ID, BigInteger.valueOf(1000), BigInteger.ONE, BigInteger.ONE);
+        xcallScore.invoke(relayer, "executeRollback", sent.get(1).sn);
+        xcallScore.invoke(relayer, "executeRollback", sent.get(0).sn);
+        assertEquals(BigInteger.valueOf(100), balanceOf(userKey, id));
+        assertEquals(BigInteger.valueOf(100), tokenScore.call("totalSupply", id));
+
+        // xcall executes each rollback once, and no one else can deliver one
+        assertThrows(Throwable.class, () -> xcallScore.invoke(relayer, "executeRollback", sent.get(0).sn));
+        JsonObject forged = Json.parse(new String(sent.get(0).rollback)).asObject().get("data").asObject();
+        assertThrows(Throwable.class, () -> deliver(BSC_NETWORK_ID + "/" + BSC_PEER, "bridgeRollback", BigInteger.ZERO, forged));
+        assertEquals(BigInteger.valueOf(100), balanceOf(userKey, id));
+    }
+
+    @Test
+    public void relaysSignedPermitsOnce() {
+        PermitSigner signer = new PermitSigner(BigInteger.valueOf(0xa11ce));
+        PermitSigner other = new PermitSigner(BigInteger.valueOf(0xb0b));
+        String from = NETWORK_ID + "/" + signer.iconAddress();
+        String to = relayer.getAddress().toString();
+        BigInteger id = BigInteger.valueOf(16);
+        BigInteger[] ids = new BigInteger[] { id };
+        BigInteger[] values = new BigInteger[] { BigInteger.valueOf(3) };
+        BigInteger expiry = BigInteger.valueOf(1_000_000);
+        tokenScore.invoke(owner, "mint", id, BigInteger.valueOf(15), "uri");
+        transfer(from, id, BigInteger.TEN);
+
+        byte[] valid = permit(signer::signIcon, from, to, ids, values, BigInteger.ZERO, expiry);
+        tokenScore.invoke(relayer, "relayTransfers", (Object) rlpList(rlpBytes(valid)));
+        assertEquals(BigInteger.valueOf(7), balanceOf(from, id));
+        assertEquals(BigInteger.valueOf(3), balanceOf(to, id));
+        assertEquals(BigInteger.ONE, tokenScore.call("getPermitNonce", from));
+
+        // A replayed, an expired and a permit signed by another key are all skipped
+        byte[] expired = permit(signer::signIcon, from, to, ids, values, BigInteger.ONE, BigInteger.ZERO);
+        byte[] wrongSigner = permit(other::signIcon, from, to, ids, values, BigInteger.ONE, expiry);
+        tokenScore.invoke(relayer, "relayTransfers", (Object) rlpList(rlpBytes(valid), rlpBytes(expired), rlpBytes(wrongSigner)));
+        assertEquals(BigInteger.valueOf(7), balanceOf(from, id));
+        assertEquals(BigInteger.ONE, tokenScore.call("getPermitNonce", from));
+
+        // An EVM wallet signs the keccak-256 hash with a recovery id of 27 or 28
+        String remoteFrom = BSC_NETWORK_ID + "/" + signer.evmAddress();
+        transfer(remoteFrom, id, BigInteger.valueOf(5));
+        byte[] remote = permit(signer::signEvm, remoteFrom, to, ids, values, BigInteger.ZERO, expiry);
+        byte[] remoteWrongSigner = permit(other::signEvm, remoteFrom, to, ids, values, BigInteger.ONE, expiry);
+        tokenScore.invoke(relayer, "relayTransfers", (Object) rlpList(rlpBytes(remote), rlpBytes(remoteWrongSigner)));
+        assertEquals(BigInteger.TWO, balanceOf(remoteFrom, id));
+        assertEquals(BigInteger.valueOf(6), balanceOf(to, id));
+        assertEquals(BigInteger.ONE, tokenScore.call("getPermitNonce", remoteFrom));
+    }
+
+    @Test
+    public void paysBalanceResponsesFromTheDepositOfTheQueryingNetwork() {
+        Account user = sm.createAccount(100);
+        BigInteger id = BigInteger.valueOf(12);
+        tokenScore.invoke(user, "mint", id, BigInteger.valueOf(5), "uri");
+        JsonObject query = Json.object()
+                .add("_owner", NETWORK_ID + "/" + user.getAddress().toString())
+                .add("_id", "0x" + id.toString(16));
+
+        // Without a deposit the query is not answered from the contract balance
+        assertThrows(Throwable.class, () -> deliver(BSC_NETWORK_ID + "/" + BSC_PEER, "balanceQuery", BigInteger.ZERO, query));
+        assertEquals(0, mockXCall().getSentMessages().size());
+
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "depositResponseFees", BSC_NETWORK_ID);
+        assertEquals(MockXCall.DEFAULT_FEE, tokenScore.call("getResponseFeeDeposit", BSC_NETWORK_ID));
+
+        deliver(BSC_NETWORK_ID + "/" + BSC_PEER, "balanceQuery", BigInteger.ONE, query);
+        assertEquals(BigInteger.ZERO, tokenScore.call("getResponseFeeDeposit", BSC_NETWORK_ID));
+
+        List<MockXCall.SentMessage> sent = mockXCall().getSentMessages();
+        assertEquals(1, sent.size());
+        assertEquals("btp://" + BSC_NETWORK_ID + "/" + BSC_PEER, sent.get(0).to);
+        JsonObject response = Json.parse(new String(sent.get(0).data)).asObject();
+        assertEquals("balanceResponse", response.get("method").asString());
+        assertEquals("0x5", response.get("data").asObject().get("_balance").asString());
+
+        // The deposit of one network does not pay for another, and only the configured peer may query
+        assertThrows(Throwable.class, () -> deliver(ETH_NETWORK_ID + "/" + ETH_PEER, "balanceQuery", BigInteger.ZERO, query));
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "depositResponseFees", ETH_NETWORK_ID);
+        assertThrows(Throwable.class, () -> deliver(ETH_NETWORK_ID + "/0xa11ce", "balanceQuery", BigInteger.ZERO, query));
+        assertEquals(1, mockXCall().getSentMessages().size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void answersRepeatedQueriesFromTheCacheWithinTheTTL() {
+        Account user = sm.createAccount(100);
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        BigInteger id = BigInteger.valueOf(4);
+        BigInteger ttl = BigInteger.valueOf(5);
+        tokenScore.invoke(owner, "setBalanceCacheTTL", ttl);
+
+        Map<String, Object> cached = (Map<String, Object>) tokenScore.call("x_cachedBalanceOf", alice, id);
+        assertEquals(false, cached.get("fresh"));
+        assertEquals(BigInteger.ONE.negate(), cached.get("age"));
+
+        // A query in flight is not sent again
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_requestRemoteBalance", alice, id);
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_requestRemoteBalance", alice, id);
+        assertEquals(1, mockXCall().getSentMessages().size());
+        JsonObject query = Json.parse(new String(mockXCall().getSentMessages().get(0).data)).asObject();
+        assertEquals("balanceQuery", query.get("method").asString());
+        assertEquals("0x0", query.get("nonce").asString());
+
+        // Only the peer of the owner's network may answer
+        JsonObject response = Json.object()
+                .add("_owner", alice)
+                .add("_id", "0x" + id.toString(16))
+                .add("_balance", "0x2a");
+        assertThrows(Throwable.class, () -> deliver(ETH_NETWORK_ID + "/" + ETH_PEER, "balanceResponse", BigInteger.ZERO, response));
+        deliver(BSC_NETWORK_ID + "/" + BSC_PEER, "balanceResponse", BigInteger.ZERO, response);
+
+        cached = (Map<String, Object>) tokenScore.call("x_cachedBalanceOf", "btp://" + alice, id);
+        assertEquals(BigInteger.valueOf(42), cached.get("balance"));
+        assertEquals(true, cached.get("fresh"));
+
+        // A fresh balance is answered from the cache
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_requestRemoteBalance", alice, id);
+        assertEquals(1, mockXCall().getSentMessages().size());
+
+        while (((BigInteger) ((Map<String, Object>) tokenScore.call("x_cachedBalanceOf", alice, id)).get("age")).compareTo(ttl) <= 0)
+            tokenScore.invoke(owner, "setBalanceCacheTTL", ttl);
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_requestRemoteBalance", alice, id);
+        assertEquals(2, mockXCall().getSentMessages().size());
+        query = Json.parse(new String(mockXCall().getSentMessages().get(1).data)).asObject();
+        assertEquals("0x1", query.get("nonce").asString());
+
+        assertThrows(Throwable.class, () -> tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_requestRemoteBalance",
+                NETWORK_ID + "/" + user.getAddress().toString(), id));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void mintsNonFungibleIdsInSeveralRanges() {
+        Account alice = sm.createAccount();
+        Account bob = sm.createAccount();
+        tokenScore.invoke(owner, "mint", BigInteger.valueOf(300), BigInteger.TEN, "ipfs://fungible");
+
+        tokenScore.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(1000), BigInteger.valueOf(2000));
+        tokenScore.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(100), BigInteger.valueOf(200));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(150), BigInteger.valueOf(250)));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(1999), BigInteger.valueOf(2100)));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(256), BigInteger.valueOf(512)));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(alice, "addNonFungibleRange", BigInteger.valueOf(5000), BigInteger.valueOf(6000)));
+        tokenScore.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(301), BigInteger.valueOf(400));
+
+        List<Map<String, Object>> ranges = (List<Map<String, Object>>) tokenScore.call("getNonFungibleRanges");
+        assertEquals(3, ranges.size());
+        assertEquals(BigInteger.valueOf(100), ranges.get(0).get("start"));
+        assertEquals(BigInteger.valueOf(301), ranges.get(1).get("start"));
+        assertEquals(BigInteger.valueOf(1000), ranges.get(2).get("start"));
+
+        tokenScore.invoke(alice, "mintRange", BigInteger.valueOf(1000), 3, "ipfs://a/");
+        tokenScore.invoke(bob, "mintRange", BigInteger.valueOf(100), 2, "ipfs://b/");
+        tokenScore.invoke(bob, "mintRange", BigInteger.valueOf(1000), 1, "ipfs://c/");
+        assertThrows(Throwable.class, () -> tokenScore.invoke(bob, "mintRange", BigInteger.valueOf(101), 1, "ipfs://d/"));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(bob, "mintRange", BigInteger.valueOf(301), 100, "ipfs://d/"));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "mint", BigInteger.valueOf(150), BigInteger.ONE, "ipfs://fungible"));
+
+        String aliceAddress = NETWORK_ID + "/" + alice.getAddress();
+        String bobAddress = NETWORK_ID + "/" + bob.getAddress();
+        assertEquals(aliceAddress, tokenScore.call("x_ownerOf", BigInteger.valueOf(1002)));
+        assertEquals(bobAddress, tokenScore.call("x_ownerOf", BigInteger.valueOf(1003)));
+        assertEquals(bobAddress, tokenScore.call("x_ownerOf", BigInteger.valueOf(101)));
+        assertEquals("", tokenScore.call("x_ownerOf", BigInteger.valueOf(102)));
+        assertEquals("", tokenScore.call("x_ownerOf", BigInteger.valueOf(1004)));
+        assertEquals("ipfs://b/100", tokenScore.call("tokenURI", BigInteger.valueOf(100)));
+        assertEquals("ipfs://c/1003", tokenScore.call("tokenURI", BigInteger.valueOf(1003)));
+        assertEquals(BigInteger.ONE, tokenScore.call("balanceOf", alice.getAddress(), BigInteger.valueOf(1000)));
+        assertEquals(BigInteger.ZERO, balanceOf(bobAddress, BigInteger.valueOf(1000)));
+
+        // A transferred id gets its own owner slot, the rest of its batch still resolves to the minter
+        tokenScore.invoke(alice, "transferFrom", alice.getAddress(), bob.getAddress(), BigInteger.valueOf(1001), BigInteger.ONE, new byte[0]);
+        assertThrows(Throwable.class, () -> tokenScore.invoke(alice, "transferFrom", alice.getAddress(), bob.getAddress(),
+                BigInteger.valueOf(1001), BigInteger.ONE, new byte[0]));
+        assertEquals(bobAddress, tokenScore.call("x_ownerOf", BigInteger.valueOf(1001)));
+        assertEquals(aliceAddress, tokenScore.call("x_ownerOf", BigInteger.valueOf(1000)));
+        assertEquals(BigInteger.ONE, balanceOf(bobAddress, BigInteger.valueOf(1001)));
+
+        // Burning empties the slot, the minter keeps setting the URI
+        tokenScore.invoke(bob, "burn", BigInteger.valueOf(1001), BigInteger.ONE);
+        assertEquals("", tokenScore.call("x_ownerOf", BigInteger.valueOf(1001)));
+        assertEquals(BigInteger.ZERO, balanceOf(bobAddress, BigInteger.valueOf(1001)));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(bob, "setTokenURI", BigInteger.valueOf(1000), "ipfs://x"));
+        tokenScore.invoke(alice, "setTokenURI", BigInteger.valueOf(1000), "ipfs://x");
+        assertEquals("ipfs://x", tokenScore.call("tokenURI", BigInteger.valueOf(1000)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void migratesASchemaZeroDeploymentToTheAccountLayout() throws Exception {
+        int entries = 100_000;
+        BigInteger id = BigInteger.valueOf(3);
+        Score legacy = sm.deploy(owner, LegacyLayoutToken.class, false);
+        legacy.invoke(owner, "setNetworkID", NETWORK_ID);
+
+        // Schema version 0 data: full network address keys and no recorded schema version
+        for (int i = 0; i < entries; i += 10_000)
+            legacy.invoke(owner, "seedBalances", id, NETWORK_ID, i, 10_000);
+        Account user = sm.createAccount();
+        Account receiver = sm.createAccount();
+        String userKey = NETWORK_ID + "/" + user.getAddress().toString();
+        String remoteKey = BSC_NETWORK_ID + "/0xa11ce";
+        String forgottenKey = NETWORK_ID + "/" + LegacyLayoutToken.generatedAddress(entries);
+        legacy.invoke(owner, "seedBalance", id, userKey, BigInteger.valueOf(50));
+        legacy.invoke(owner, "seedBalance", id, remoteKey, BigInteger.valueOf(7));
+        legacy.invoke(owner, "seedBalance", id, forgottenKey, BigInteger.valueOf(9));
+        legacy.invoke(owner, "seedApproval", userKey, remoteKey);
+        legacy.invoke(owner, "upgradeFromSchema", 0);
+
+        Map<String, Object> status = (Map<String, Object>) legacy.call("getMigrationStatus");
+        assertEquals(true, status.get("migrating"));
+        assertEquals(StorageMigration.SCHEMA_VERSION, status.get("schemaVersion"));
+
+        // Unmoved entries are read from the legacy layout, writes go to the new one and remove the legacy entry
+        assertEquals(BigInteger.valueOf(1234), legacy.call("x_balanceOf", NETWORK_ID + "/" + LegacyLayoutToken.generatedAddress(1233), id));
+        assertEquals(true, legacy.call("x_isApprovedForAll", userKey, remoteKey));
+        legacy.invoke(user, "transferFrom", user.getAddress(), receiver.getAddress(), id, BigInteger.valueOf(20), new byte[0]);
+        legacy.invoke(user, "x_setApprovalForAll", remoteKey, false);
+        assertNull(legacy.call("legacyBalanceOf", id, userKey));
+        assertNull(legacy.call("legacyApprovalOf", userKey, remoteKey));
+
+        // The owner queues every key but the forgotten one, rebuilt from the events
+        for (int i = 0; i < entries; i += 10_000) {
+            String[] keys = new String[10_000];
+            for (int j = 0; j < keys.length; j++)
+                keys[j] = "b|" + id + "|" + NETWORK_ID + "/" + LegacyLayoutToken.generatedAddress(i + j);
+            legacy.invoke(owner, "addMigrationKeys", (Object) keys);
+        }
+        legacy.invoke(owner, "addMigrationKeys", (Object) new String[] {
+                "b|" + id + "|" + userKey, "b|" + id + "|btp://" + remoteKey, "a|" + userKey + "|" + remoteKey });
+        assertThrows(Throwable.class, () -> legacy.invoke(relayer, "addMigrationKeys", (Object) new String[] { "b|1|" + userKey }));
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "addMigrationKeys", (Object) new String[] { "b|x|" + userKey }));
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "completeMigration"));
+
+        int steps = 0;
+        while ((int) ((Map<String, Object>) legacy.call("getMigrationStatus")).get("remaining") > 0) {
+            legacy.invoke(relayer, "migrateStep", 5_000);
+            steps++;
+        }
+        assertEquals((entries + 3 + 4_999) / 5_000, steps);
+        assertThrows(Throwable.class, () -> legacy.invoke(relayer, "completeMigration"));
+        legacy.invoke(owner, "completeMigration");
+
+        status = (Map<String, Object>) legacy.call("getMigrationStatus");
+        assertEquals(false, status.get("migrating"));
+        assertEquals(entries + 3, status.get("queued"));
+        assertThrows(Throwable.class, () -> legacy.invoke(relayer, "migrateStep", 1));
+
+        for (int i = 0; i < entries; i += 97) {
+            String ownerKey = NETWORK_ID + "/" + LegacyLayoutToken.generatedAddress(i);
+            assertEquals(BigInteger.valueOf(i + 1), legacy.call("x_balanceOf", ownerKey, id));
+            assertNull(legacy.call("legacyBalanceOf", id, ownerKey));
+        }
+        assertEquals(BigInteger.valueOf(30), legacy.call("x_balanceOf", userKey, id));
+        assertEquals(BigInteger.valueOf(20), legacy.call("x_balanceOf", receiver.getAddress().toString(), id));
+        assertEquals(BigInteger.valueOf(7), legacy.call("x_balanceOf", remoteKey, id));
+        assertEquals(false, legacy.call("x_isApprovedForAll", userKey, remoteKey));
+
+        // The legacy lookups have ended, an entry that was never queued is no longer read
+        assertEquals(BigInteger.valueOf(9), legacy.call("legacyBalanceOf", id, forgottenKey));
+        assertEquals(BigInteger.ZERO, legacy.call("x_balanceOf", forgottenKey, id));
+    }
+
+    @Test
+    public void runsBulkJobsInBoundedSteps() {
+        Account holder = sm.createAccount();
+        String holderKey = NETWORK_ID + "/" + holder.getAddress().toString();
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        String bob = BSC_NETWORK_ID + "/0xb0b";
+        tokenScore.invoke(holder, "mint", BigInteger.ONE, BigInteger.valueOf(100), "uri");
+        tokenScore.invoke(holder, "mint", BigInteger.TWO, BigInteger.valueOf(10), "uri");
+
+        // A bad address, a malformed item, an overdraft and a chunk that is not a list are skipped
+        byte[][] chunks = {
+                rlpList(jobTransfer(alice, 1, 5), jobTransfer(bob, 1, 5), jobTransfer("0xb0b", 1, 5)),
+                rlpList(rlpString("not an item"), jobTransfer(bob, 1, 1000), jobTransfer(alice, 1, 7)),
+                rlpString("not a list") };
+        tokenScore.invoke(holder, "createJob", "transfer", jobHash(chunks));
+        BigInteger jobId = BigInteger.ZERO;
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "addJobChunk", jobId, chunks[0]));
+        tokenScore.invoke(holder, "addJobChunk", jobId, chunks[0]);
+        assertThrows(Throwable.class, () -> tokenScore.invoke(holder, "sealJob", jobId));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "continueJob", jobId, 10));
+        tokenScore.invoke(holder, "addJobChunk", jobId, chunks[1]);
+        tokenScore.invoke(holder, "addJobChunk", jobId, chunks[2]);
+        tokenScore.invoke(holder, "sealJob", jobId);
+
+        tokenScore.invoke(relayer, "continueJob", jobId, 2);
+        Map<?, ?> job = (Map<?, ?>) tokenScore.call("getJob", jobId);
+        assertEquals(BigInteger.TWO, job.get("processed"));
+        assertEquals(1, job.get("state"));
+        assertEquals(2, job.get("cursorItem"));
+
+        tokenScore.invoke(relayer, "continueJob", jobId, 100);
+        job = (Map<?, ?>) tokenScore.call("getJob", jobId);
+        assertEquals(2, job.get("state"));
+        assertEquals(BigInteger.valueOf(3), job.get("processed"));
+        assertEquals(BigInteger.valueOf(4), job.get("skipped"));
+        assertEquals(BigInteger.valueOf(12), balanceOf(alice, BigInteger.ONE));
+        assertEquals(BigInteger.valueOf(5), balanceOf(bob, BigInteger.ONE));
+        assertEquals(BigInteger.valueOf(83), balanceOf(holderKey, BigInteger.ONE));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "continueJob", jobId, 1));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(holder, "cancelJob", jobId));
+
+        // Burns draw from the job owner, cancelled jobs never run
+        byte[][] burns = { rlpList(rlpList(rlpInteger(BigInteger.TWO), rlpInteger(BigInteger.valueOf(4))),
+                rlpList(rlpInteger(BigInteger.TWO), rlpInteger(BigInteger.ZERO))) };
+        tokenScore.invoke(holder, "createJob", "burn", jobHash(burns));
+        tokenScore.invoke(holder, "addJobChunk", BigInteger.ONE, burns[0]);
+        tokenScore.invoke(holder, "sealJob", BigInteger.ONE);
+        tokenScore.invoke(relayer, "continueJob", BigInteger.ONE, 5);
+        assertEquals(BigInteger.valueOf(6), balanceOf(holderKey, BigInteger.TWO));
+        assertEquals(BigInteger.ONE, ((Map<?, ?>) tokenScore.call("getJob", BigInteger.ONE)).get("skipped"));
+
+        tokenScore.invoke(holder, "createJob", "burn", jobHash(burns));
+        tokenScore.invoke(holder, "addJobChunk", BigInteger.TWO, burns[0]);
+        tokenScore.invoke(holder, "sealJob", BigInteger.TWO);
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "cancelJob", BigInteger.TWO));
+        tokenScore.invoke(holder, "cancelJob", BigInteger.TWO);
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "continueJob", BigInteger.TWO, 5));
+        assertEquals(BigInteger.valueOf(6), balanceOf(holderKey, BigInteger.TWO));
+    }
+
+    @Test
+    public void jobHooksCannotReenterContinueJob() throws Exception {
+        Score receiver = sm.deploy(owner, JobReentrantReceiver.class, tokenScore.getAddress(), BigInteger.ZERO);
+        String receiverKey = NETWORK_ID + "/" + receiver.getAddress().toString();
+        String alice = BSC_NETWORK_ID + "/0xa11ce";
+        tokenScore.invoke(owner, "mint", BigInteger.ONE, BigInteger.valueOf(100), "uri");
+        tokenScore.invoke(owner, "setStatsConfig", true, BigInteger.valueOf(1000));
+
+        byte[][] chunks = { rlpList(jobTransfer(receiverKey, 1, 1), jobTransfer(receiverKey, 1, 1), jobTransfer(alice, 1, 1)) };
+        tokenScore.invoke(owner, "createJob", "transfer", jobHash(chunks));
+        tokenScore.invoke(owner, "addJobChunk", BigInteger.ZERO, chunks[0]);
+        tokenScore.invoke(owner, "sealJob", BigInteger.ZERO);
+        tokenScore.invoke(relayer, "continueJob", BigInteger.ZERO, 10);
+
+        // Each item runs once, the nested continueJob of the hook reverts and is counted as a hook failure
+        assertEquals(BigInteger.TWO, balanceOf(receiverKey, BigInteger.ONE));
+        assertEquals(BigInteger.ONE, balanceOf(alice, BigInteger.ONE));
+        Map<?, ?> job = (Map<?, ?>) tokenScore.call("getJob", BigInteger.ZERO);
+        assertEquals(BigInteger.valueOf(3), job.get("processed"));
+        assertEquals(2, job.get("state"));
+        BigInteger window = (BigInteger) ((Map<?, ?>) tokenScore.call("getStatsConfig")).get("currentWindow");
+        assertEquals(BigInteger.TWO, ((Map<?, ?>) tokenScore.call("getStats", window, 0, 1)).get("hookFailures"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void migratesLegacyCreatorsIntoTheMintedBitmap() throws Exception {
+        Score legacy = sm.deploy(owner, LegacyLayoutToken.class, false);
+        legacy.invoke(owner, "setNetworkID", NETWORK_ID);
+        Account creator = sm.createAccount();
+        String creatorKey = NETWORK_ID + "/" + creator.getAddress().toString();
+        BigInteger forgotten = BigInteger.valueOf(999);
+        legacy.invoke(owner, "seedCreators", BigInteger.ONE, 300, creatorKey);
+        legacy.invoke(owner, "seedCreators", forgotten, 1, creatorKey);
+        legacy.invoke(owner, "upgradeFromSchema", 1);
+
+        Map<String, Object> status = (Map<String, Object>) legacy.call("getMigrationStatus");
+        assertEquals(true, status.get("migrating"));
+        assertEquals(true, status.get("legacyCreators"));
+
+        // Legacy creators are still looked up, ranges cannot be checked against them
+        BigInteger id = BigInteger.valueOf(5);
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "mint", id, BigInteger.ONE, "uri"));
+        legacy.invoke(creator, "setTokenURI", id, "uri/5");
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "setTokenURI", id, "uri/5"));
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(1000), BigInteger.valueOf(2000)));
+
+        String[] keys = new String[300];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = "c|" + (i + 1);
+        legacy.invoke(owner, "addMigrationKeys", (Object) keys);
+        legacy.invoke(relayer, "migrateStep", 300);
+        legacy.invoke(owner, "completeMigration");
+
+        status = (Map<String, Object>) legacy.call("getMigrationStatus");
+        assertEquals(false, status.get("migrating"));
+        assertEquals(false, status.get("legacyCreators"));
+        assertNull(legacy.call("legacyCreatorOf", id));
+
+        // Moved creators are read from the interned table and their ids from the bitmap
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "mint", id, BigInteger.ONE, "uri"));
+        legacy.invoke(creator, "setTokenURI", id, "uri/5b");
+        assertEquals("uri/5b", legacy.call("tokenURI", id));
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(256), BigInteger.valueOf(512)));
+        legacy.invoke(owner, "addNonFungibleRange", BigInteger.valueOf(301), BigInteger.valueOf(999));
+
+        // The legacy lookups have ended, a creator that was never queued is no longer read
+        assertEquals(creatorKey, legacy.call("legacyCreatorOf", forgotten));
+        legacy.invoke(owner, "mint", forgotten, BigInteger.ONE, "uri");
+        assertThrows(Throwable.class, () -> legacy.invoke(creator, "setTokenURI", forgotten, "uri/999"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void startsNewDeploymentsAtTheCurrentSchema() {
+        Map<String, Object> status = (Map<String, Object>) tokenScore.call("getMigrationStatus");
+        assertEquals(StorageMigration.SCHEMA_VERSION, status.get("schemaVersion"));
+        assertEquals(false, status.get("migrating"));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "addMigrationKeys", (Object) new String[0]));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "migrateStep", 1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void multicallMatchesTheSingleQueries() {
+        Account user = sm.createAccount();
+        String local = user.getAddress().toString();
+        String operator = BSC_NETWORK_ID + "/" + BSC_PEER;
+        BigInteger id = BigInteger.valueOf(21);
+        tokenScore.invoke(user, "mint", id, BigInteger.valueOf(15), "uri-21");
+        tokenScore.invoke(user, "x_setApprovalForAll", operator, true);
+
+        String[] types = { "balance", "approval", "uri", "creator", "supply", "balance", "uri" };
+        String[] accounts = { local, local, "", "", "", operator, "" };
+        String[] operators = { "", operator, "", "", "", "", "" };
+        BigInteger[] ids = { id, BigInteger.ZERO, id, id, id, id, BigInteger.valueOf(22) };
+        List<Object> results = (List<Object>) tokenScore.call("multicall", types, accounts, operators, ids);
+
+        assertEquals(types.length, results.size());
+        assertEquals(balanceOf(local, id), results.get(0));
+        assertEquals(tokenScore.call("x_isApprovedForAll", local, operator), results.get(1));
+        assertEquals(tokenScore.call("tokenURI", id), results.get(2));
+        assertEquals(NETWORK_ID + "/" + local, results.get(3));
+        assertEquals(tokenScore.call("totalSupply", id), results.get(4));
+        assertEquals(BigInteger.ZERO, results.get(5));
+        assertEquals("", results.get(6));
+
+        assertThrows(Throwable.class, () -> tokenScore.call("multicall",
+                new String[] { "owner" }, new String[] { "" }, new String[] { "" }, new BigInteger[] { id }));
+        assertThrows(Throwable.class, () -> tokenScore.call("multicall",
+                new String[] { "supply" }, new String[0], new String[0], new BigInteger[] { id }));
+    }
+
+    /**
+     * Compares a multicall of balance and approval queries against the same queries sent one method call at a time
+     * Timings are printed for comparison, only the results are asserted
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void benchmarksMulticallAgainstSingleQueries() {
+        int holders = 20;
+        int idCount = 5;
+        String operator = BSC_NETWORK_ID + "/" + BSC_PEER;
+        String[] locals = new String[holders];
+        for (int h = 0; h < holders; h++) {
+            Account holder = sm.createAccount();
+            locals[h] = holder.getAddress().toString();
+            tokenScore.invoke(holder, "mint", BigInteger.valueOf(1000 + h), BigInteger.valueOf(h + 1), "uri-" + h);
+        }
+
+        int count = holders * (idCount + 1);
+        String[] types = new String[count];
+        String[] accounts = new String[count];
+        String[] operators = new String[count];
+        BigInteger[] ids = new BigInteger[count];
+        int q = 0;
+        for (int h = 0; h < holders; h++) {
+            for (int i = 0; i < idCount; i++, q++) {
+                types[q] = "balance";
+                accounts[q] = locals[h];
+                operators[q] = "";
+                ids[q] = BigInteger.valueOf(1000 + (h + i) % holders);
+            }
+            types[q] = "approval";
+            accounts[q] = locals[h];
+            operators[q] = operator;
+            ids[q++] = BigInteger.ZERO;
+        }
+
+        // Keep the best of several rounds, the first ones pay for class loading and warm up
+        List<Object> batched = null;
+        Object[] single = new Object[count];
+        long multicallNanos = Long.MAX_VALUE;
+        long singleNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            batched = (List<Object>) tokenScore.call("multicall", types, accounts, operators, ids);
+            multicallNanos = Math.min(multicallNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                single[i] = types[i].equals("balance")
+                        ? tokenScore.call("x_balanceOf", accounts[i], ids[i])
+                        : tokenScore.call("x_isApprovedForAll", accounts[i], operators[i]);
+            }
+            singleNanos = Math.min(singleNanos, System.nanoTime() - start);
+        }
+
+        assertEquals(count, batched.size());
+        for (int i = 0; i < count; i++)
+            assertEquals(single[i], batched.get(i));
+        System.out.println("multicall of " + count + " queries: " + multicallNanos / 1000 + " us, "
+                + count + " single calls: " + singleNanos / 1000 + " us");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void balanceProofsVerifyAgainstTheRoot() {
+        BigInteger id = BigInteger.valueOf(40);
+        Account minter = sm.createAccount();
+        String minterAddress = NETWORK_ID + "/" + minter.getAddress().toString();
+        // Minted before commitments were enabled, so the balance is backfilled with commitBalance
+        tokenScore.invoke(minter, "mint", id, BigInteger.valueOf(1000), "uri");
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "commitBalance", minterAddress, id));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "setBalanceCommitment", id, true));
+        tokenScore.invoke(owner, "setBalanceCommitment", id, true);
+        assertArrayEquals(new byte[32], (byte[]) tokenScore.call("balanceRoot"));
+        tokenScore.invoke(relayer, "commitBalance", minterAddress, id);
+
+        List<String> holders = new ArrayList<>();
+        holders.add(minterAddress);
+        for (int i = 0; i < 24; i++) {
+            String holder = BSC_NETWORK_ID + "/0x" + Integer.toHexString(0xa000 + i);
+            tokenScore.invoke(minter, "x_transferFrom", minter.getAddress().toString(), holder, id, BigInteger.valueOf(i + 1), new byte[0]);
+            holders.add(holder);
+        }
+
+        byte[] root = (byte[]) tokenScore.call("balanceRoot");
+        for (String holder : holders) {
+            Map<String, Object> proof = (Map<String, Object>) tokenScore.call("getBalanceProof", holder, id);
+            assertArrayEquals(root, (byte[]) proof.get("root"));
+            assertTrue(BalanceProofVerifier.verifyBalance(root, id, holder, (BigInteger) proof.get("balance"),
+                    (Integer) proof.get("leafLevel"), (List<byte[]>) proof.get("siblings")), holder);
+            // A different balance must not verify with the same proof
+            assertFalse(BalanceProofVerifier.verifyBalance(root, id, holder, ((BigInteger) proof.get("balance")).add(BigInteger.ONE),
+                    (Integer) proof.get("leafLevel"), (List<byte[]>) proof.get("siblings")), holder);
+        }
+        assertEquals(BigInteger.valueOf(1000 - 300), balanceOf(holders.get(0), id));
+
+        String absent = ETH_NETWORK_ID + "/0xabsent";
+        Map<String, Object> proof = (Map<String, Object>) tokenScore.call("getBalanceProof", absent, id);
+        assertTrue(BalanceProofVerifier.verifyAbsent(root, id, absent, (byte[]) proof.get("leafKeyHash"), (byte[]) proof.get("leafHash"),
+                (Integer) proof.get("leafLevel"), (List<byte[]>) proof.get("siblings")));
+    }
+
+    /**
+     * Measures the cost of committed transfers against the same transfers of an id without commitments
+     * The hash and node write counts come from getCommitmentStats, timings are printed for comparison
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void measuresTheOverheadOfCommittedTransfers() {
+        int transfers = 40;
+        BigInteger committed = BigInteger.valueOf(41);
+        BigInteger plain = BigInteger.valueOf(42);
+        tokenScore.invoke(owner, "setStatsConfig", true, BigInteger.valueOf(1000));
+        tokenScore.invoke(owner, "setBalanceCommitment", committed, true);
+        tokenScore.invoke(owner, "mint", committed, BigInteger.valueOf(transfers + 1), "uri-41");
+        tokenScore.invoke(owner, "mint", plain, BigInteger.valueOf(transfers), "uri-42");
+        Map<String, Object> afterMint = (Map<String, Object>) tokenScore.call("getCommitmentStats");
+        assertEquals(BigInteger.ONE, afterMint.get("updates"));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < transfers; i++)
+            transfer(BSC_NETWORK_ID + "/0x" + Integer.toHexString(0xc000 + i), plain, BigInteger.ONE);
+        long plainNanos = System.nanoTime() - start;
+        assertEquals(afterMint, tokenScore.call("getCommitmentStats"));
+
+        start = System.nanoTime();
+        for (int i = 0; i < transfers; i++)
+            transfer(BSC_NETWORK_ID + "/0x" + Integer.toHexString(0xc000 + i), committed, BigInteger.ONE);
+        long committedNanos = System.nanoTime() - start;
+
+        // Each transfer writes two balances, each write hashes the leaf and every node on its path
+        Map<String, Object> stats = (Map<String, Object>) tokenScore.call("getCommitmentStats");
+        BigInteger updates = ((BigInteger) stats.get("updates")).subtract(BigInteger.ONE);
+        BigInteger hashes = ((BigInteger) stats.get("hashes")).subtract((BigInteger) afterMint.get("hashes"));
+        BigInteger writes = ((BigInteger) stats.get("nodeWrites")).subtract((BigInteger) afterMint.get("nodeWrites"));
+        assertEquals(BigInteger.valueOf(2L * transfers), updates);
+        assertTrue(hashes.compareTo(BigInteger.valueOf(4L * transfers)) >= 0);
+        assertTrue(writes.compareTo(updates) >= 0);
+        System.out.println(transfers + " transfers without commitments: " + plainNanos / 1000 + " us, with commitments: "
+                + committedNanos / 1000 + " us, " + hashes.doubleValue() / transfers + " hashes and "
+                + writes.doubleValue() / transfers + " node writes per transfer");
+
+        // Counters stay untouched while operational stats are off
+        tokenScore.invoke(owner, "setStatsConfig", false, BigInteger.valueOf(1000));
+        transfer(BSC_NETWORK_ID + "/0xc000", committed, BigInteger.ONE);
+        assertEquals(stats, tokenScore.call("getCommitmentStats"));
+    }
+
+    @Test
+    public void simulatesSeveralNetworksInBatchesAndOrders() {
+        RemoteNetwork bsc = simulator.network(BSC_NETWORK_ID);
+        RemoteNetwork eth = simulator.network(ETH_NETWORK_ID);
+        String local = NETWORK_ID + "/" + owner.getAddress().toString();
+        tokenScore.invoke(owner, "mint", BigInteger.ONE, BigInteger.valueOf(40), "uri");
+        transfer(bsc.address("0xa11ce"), BigInteger.ONE, BigInteger.valueOf(20));
+        transfer(eth.address("0xb0b"), BigInteger.ONE, BigInteger.valueOf(20));
+
+        for (int i = 0; i < 10; i++) {
+            bsc.send("0xa11ce", "transferFrom", transferData(bsc.address("0xa11ce"), local, BigInteger.ONE, BigInteger.ONE));
+            eth.send("0xb0b", "transferFrom", transferData(eth.address("0xb0b"), local, BigInteger.ONE, BigInteger.ONE));
+        }
+        List<Delivery> inOrder = simulator.deliver(Order.IN_ORDER, 4);
+        assertEquals(4, inOrder.size());
+        assertAllSucceeded(inOrder);
+        assertAllSucceeded(simulator.deliver(Order.REVERSED, 8));
+        assertAllSucceeded(simulator.deliverAll(Order.SHUFFLED, 3));
+        assertEquals(0, simulator.getPendingCount());
+        assertEquals(BigInteger.valueOf(20), balanceOf(local, BigInteger.ONE));
+        assertEquals(BigInteger.TEN, balanceOf(bsc.address("0xa11ce"), BigInteger.ONE));
+        assertEquals(BigInteger.TEN, balanceOf(eth.address("0xb0b"), BigInteger.ONE));
+
+        // A relayer retrying an executed request is rejected by the replay window
+        Delivery duplicate = simulator.redeliver(inOrder.get(0).id);
+        assertFalse(duplicate.success);
+        assertEquals(2, simulator.getMock().getExecutions(inOrder.get(0).id));
+        assertEquals(BigInteger.valueOf(20), balanceOf(local, BigInteger.ONE));
+
+        // Rollbacks of messages sent by the token are delivered once
+        Account user = sm.createAccount(100);
+        BigInteger bridged = BigInteger.valueOf(3);
+        tokenScore.invoke(user, "mint", bridged, BigInteger.TEN, "uri");
+        tokenScore.invoke(owner, "setBridgeCap", BSC_NETWORK_ID, bridged, BigInteger.TEN);
+        tokenScore.invoke(user, MockXCall.DEFAULT_FEE, "x_bridgeTransfer", bsc.address("0xa11ce"), bridged, BigInteger.TEN);
+        BigInteger sn = simulator.getMock().getSentMessages().get(0).sn;
+        assertTrue(simulator.rollback(sn).success);
+        assertFalse(simulator.rollback(sn).success);
+        assertEquals(BigInteger.TEN, balanceOf(user.getAddress().toString(), bridged));
+    }
+
+    /**
+     * Delivers transferFromBatch payloads of increasing batch size and reports their throughput and latency
+     * The report figures are printed, the deliveries and the shape of each report are asserted
+     */
+    @Test
+    public void reportsThroughputAndLatencyByBatchSize() {
+        RemoteNetwork bsc = simulator.network(BSC_NETWORK_ID);
+        String local = owner.getAddress().toString();
+        String remoteOwner = bsc.address("0xa11ce");
+        int messages = 20;
+        long previousPayload = 0;
+        String localAddress = NETWORK_ID + "/" + local;
+
+        for (int batchSize : new int[] { 1, 10, 50, 100 }) {
+            BigInteger[] ids = new BigInteger[batchSize];
+            BigInteger[] values = new BigInteger[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                ids[i] = BigInteger.valueOf(batchSize * 1000L + i);
+                values[i] = BigInteger.valueOf(messages);
+                tokenScore.invoke(owner, "mint", ids[i], values[i], "uri");
+            }
+            tokenScore.invoke(owner, "x_transferFromBatch", local, remoteOwner, ids, values, new byte[0]);
+
+            for (int i = 0; i < messages; i++) {
+                JsonArray idArray = Json.array();
+                JsonArray valueArray = Json.array();
+                for (BigInteger id : ids) {
+                    idArray.add("0x" + id.toString(16));
+                    valueArray.add("0x1");
+                }
+                bsc.send("0xa11ce", "transferFromBatch", Json.object()
+                        .add("_from", remoteOwner)
+                        .add("_to", localAddress)
+                        .add("_ids", idArray)
+                        .add("_values", valueArray));
+            }
+
+            List<Delivery> deliveries = simulator.deliverAll(Order.IN_ORDER, 10);
+            assertAllSucceeded(deliveries);
+            for (int i = 1; i < deliveries.size(); i++)
+                assertTrue(deliveries.get(i).id.compareTo(deliveries.get(i - 1).id) > 0);
+            for (BigInteger id : ids)
+                assertEquals(BigInteger.valueOf(messages), balanceOf(local, id));
+
+            XCallSimulator.Report report = XCallSimulator.report(deliveries);
+            assertEquals(messages, report.messages);
+            assertEquals(0, report.failed);
+            assertTrue(report.averagePayload > previousPayload);
+            assertTrue(report.p50Nanos <= report.p95Nanos && report.p95Nanos <= report.maxNanos);
+            assertTrue(report.throughput() > 0);
+            previousPayload = report.averagePayload;
+            System.out.println("transferFromBatch ids=" + batchSize + ": " + report);
+        }
+    }
+
+    @Test
+    public void setsApprovalsOfSeveralOperatorsInOneCall() {
+        String local = owner.getAddress().toString();
+        String localOperator = relayer.getAddress().toString();
+        String remoteOperator = BSC_NETWORK_ID + "/" + BSC_PEER;
+
+        tokenScore.invoke(owner, "x_setApprovalForAllBatch", new String[] { localOperator, remoteOperator },
+                new boolean[] { true, true });
+        assertEquals(true, tokenScore.call("x_isApprovedForAll", local, localOperator));
+        assertEquals(true, tokenScore.call("x_isApprovedForAll", local, remoteOperator));
+
+        tokenScore.invoke(owner, "x_setApprovalForAllBatch", new String[] { localOperator, remoteOperator },
+                new boolean[] { true, false });
+        assertEquals(true, tokenScore.call("x_isApprovedForAll", local, localOperator));
+        assertEquals(false, tokenScore.call("x_isApprovedForAll", local, remoteOperator));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "x_setApprovalForAllBatch",
+                new String[] { localOperator }, new boolean[] { true, false }));
+
+        RemoteNetwork bsc = simulator.network(BSC_NETWORK_ID);
+        JsonObject data = Json.object()
+                .add("_operators", Json.array().add(NETWORK_ID + "/" + localOperator).add(remoteOperator))
+                .add("_approved", Json.array().add("0x1").add("0x1"));
+        assertEquals(true, validate(bsc.address("0xa11ce"), "setApprovalForAllBatch", null, data).get("valid"));
+        assertReason("_operators & _approved length mismatch, both arrays should be the same size",
+                validate(bsc.address("0xa11ce"), "setApprovalForAllBatch", null, Json.object()
+                        .add("_operators", Json.array().add(remoteOperator))
+                        .add("_approved", Json.array())));
+        bsc.send("0xa11ce", "setApprovalForAllBatch", data);
+        assertAllSucceeded(simulator.deliverAll(Order.IN_ORDER, 1));
+
+        assertEquals(true, tokenScore.call("x_isApprovedForAll", bsc.address("0xa11ce"), localOperator));
+        assertEquals(true, tokenScore.call("x_isApprovedForAll", bsc.address("0xa11ce"), remoteOperator));
+
+        // Every operator is charged against the ids quota of the source network
+        tokenScore.invoke(owner, "setInboundQuota", BSC_NETWORK_ID, BigInteger.valueOf(1000), BigInteger.ZERO, BigInteger.ONE);
+        assertReason("Message carries 2 ids which exceeds the per window id quota of 1",
+                validate(bsc.address("0xb0b"), "setApprovalForAllBatch", null, data));
+    }
+
+    /**
+     * Settles the same legs with settle and with separate transfers on two ids and compares the results and timings
+     */
+    @Test
+    public void settlementMatchesSeparateTransfers() {
+        Account exchange = sm.createAccount();
+        Account[] traders = new Account[] { sm.createAccount(), sm.createAccount(), sm.createAccount(), sm.createAccount() };
+        BigInteger transferId = BigInteger.valueOf(11);
+        BigInteger settleId = BigInteger.valueOf(12);
+        BigInteger funding = BigInteger.valueOf(1000);
+        tokenScore.invoke(owner, "mint", transferId, funding.multiply(BigInteger.valueOf(traders.length)), "uri");
+        tokenScore.invoke(owner, "mint", settleId, funding.multiply(BigInteger.valueOf(traders.length)), "uri");
+        for (Account trader : traders) {
+            transfer(trader.getAddress().toString(), transferId, funding);
+            transfer(trader.getAddress().toString(), settleId, funding);
+            tokenScore.invoke(trader, "setApprovalForAll", exchange.getAddress(), true);
+        }
+
+        int legs = 200;
+        Random random = new Random(7);
+        String[] from = new String[legs];
+        String[] to = new String[legs];
+        BigInteger[] ids = new BigInteger[legs];
+        BigInteger[] values = new BigInteger[legs];
+        for (int i = 0; i < legs; i++) {
+            int sender = random.nextInt(traders.length);
+            from[i] = traders[sender].getAddress().toString();
+            to[i] = traders[(sender + 1 + random.nextInt(traders.length - 1)) % traders.length].getAddress().toString();
+            ids[i] = settleId;
+            values[i] = BigInteger.valueOf(1 + random.nextInt(5));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < legs; i++)
+            tokenScore.invoke(exchange, "x_transferFrom", from[i], to[i], transferId, values[i], new byte[0]);
+        long transferNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        tokenScore.invoke(exchange, "settle", from, to, ids, values);
+        long settleNanos = System.nanoTime() - start;
+
+        for (Account trader : traders)
+            assertEquals(balanceOf(trader.getAddress().toString(), transferId), balanceOf(trader.getAddress().toString(), settleId));
+
+        System.out.println(String.format("settle legs=%d: separate transfers=%.2fms settle=%.2fms", legs,
+                transferNanos / 1e6, settleNanos / 1e6));
+    }
+
+    @Test
+    public void settlementRevertsWhenANetBalanceIsNegative() {
+        Account exchange = sm.createAccount();
+        Account alice = sm.createAccount();
+        Account bob = sm.createAccount();
+        BigInteger id = BigInteger.valueOf(13);
+        tokenScore.invoke(owner, "mint", id, BigInteger.valueOf(10), "uri");
+        transfer(alice.getAddress().toString(), id, BigInteger.valueOf(10));
+        tokenScore.invoke(alice, "setApprovalForAll", exchange.getAddress(), true);
+        tokenScore.invoke(bob, "setApprovalForAll", exchange.getAddress(), true);
+
+        String a = alice.getAddress().toString();
+        String b = bob.getAddress().toString();
+
+        // Bob spends tokens received in the same batch
+        tokenScore.invoke(exchange, "settle", new String[] { b, a }, new String[] { a, b },
+                new BigInteger[] { id, id }, new BigInteger[] { BigInteger.valueOf(5), BigInteger.valueOf(8) });
+        assertEquals(BigInteger.valueOf(7), balanceOf(a, id));
+        assertEquals(BigInteger.valueOf(3), balanceOf(b, id));
+
+        assertThrows(Throwable.class, () -> tokenScore.invoke(exchange, "settle", new String[] { a, b }, new String[] { b, a },
+                new BigInteger[] { id, id }, new BigInteger[] { BigInteger.valueOf(7), BigInteger.valueOf(11) }));
+        assertEquals(BigInteger.valueOf(7), balanceOf(a, id));
+        assertEquals(BigInteger.valueOf(3), balanceOf(b, id));
+
+        // Without approval nothing is settled either
+        Account carol = sm.createAccount();
+        tokenScore.invoke(alice, "x_transferFrom", a, carol.getAddress().toString(), id, BigInteger.ONE, new byte[0]);
+        assertThrows(Throwable.class, () -> tokenScore.invoke(exchange, "settle",
+                new String[] { a, carol.getAddress().toString() }, new String[] { b, b },
+                new BigInteger[] { id, id }, new BigInteger[] { BigInteger.ONE, BigInteger.ONE }));
+        assertEquals(BigInteger.valueOf(6), balanceOf(a, id));
+    }
+
+    @Test
+    public void settlementCallsTheHookOfContractRecipients() throws Exception {
+        Account exchange = sm.createAccount();
+        Account alice = sm.createAccount();
+        BigInteger id = BigInteger.valueOf(14);
+        tokenScore.invoke(owner, "mint", id, BigInteger.valueOf(10), "uri");
+        transfer(alice.getAddress().toString(), id, BigInteger.valueOf(10));
+        tokenScore.invoke(alice, "setApprovalForAll", exchange.getAddress(), true);
+        Score receiver = sm.deploy(owner, RecordingReceiver.class);
+
+        String a = alice.getAddress().toString();
+        String r = receiver.getAddress().toString();
+        tokenScore.invoke(exchange, "settle", new String[] { a, a }, new String[] { r, r },
+                new BigInteger[] { id, id }, new BigInteger[] { BigInteger.valueOf(2), BigInteger.valueOf(3) });
+
+        assertEquals(BigInteger.valueOf(5), balanceOf(r, id));
+        assertEquals(2, receiver.call("getCalls"));
+        assertEquals(BigInteger.valueOf(5), receiver.call("getReceived"));
+    }
+
+    @Test
+    public void importsGenesisChunksAndSeals() {
+        String alice = NETWORK_ID + "/" + owner.getAddress().toString();
+        String bob = BSC_NETWORK_ID + "/0xb0b";
+        GenesisChunkBuilder builder = new GenesisChunkBuilder(2, 64 * 1024);
+        builder.add(BigInteger.valueOf(21), alice, BigInteger.valueOf(100), alice, "ipfs://21");
+        builder.add(BigInteger.valueOf(21), bob, BigInteger.valueOf(50), "", "");
+        builder.add(BigInteger.valueOf(22), bob, BigInteger.valueOf(7), "", "ipfs://22");
+        builder.add(BigInteger.valueOf(22), bob, BigInteger.valueOf(7), bob, "ipfs://22");
+        List<byte[]> chunks = builder.build();
+
+        Account stranger = sm.createAccount();
+        assertThrows(Throwable.class, () -> tokenScore.invoke(stranger, "createJob", "import", GenesisChunkBuilder.declaredHash(chunks)));
+
+        tokenScore.invoke(owner, "createJob", "import", GenesisChunkBuilder.declaredHash(chunks));
+        BigInteger jobId = BigInteger.ZERO;
+        for (byte[] chunk : chunks)
+            tokenScore.invoke(owner, "addJobChunk", jobId, chunk);
+        tokenScore.invoke(owner, "sealJob", jobId);
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "sealImport"));
+
+        tokenScore.invoke(relayer, "continueJob", jobId, 3);
+        tokenScore.invoke(relayer, "continueJob", jobId, 3);
+
+        // The third item is skipped as id 22 has no creator yet
+        assertEquals(BigInteger.valueOf(100), balanceOf(alice, BigInteger.valueOf(21)));
+        assertEquals(BigInteger.valueOf(50), balanceOf(bob, BigInteger.valueOf(21)));
+        assertEquals(BigInteger.valueOf(7), balanceOf(bob, BigInteger.valueOf(22)));
+        assertEquals(BigInteger.valueOf(150), tokenScore.call("totalSupply", BigInteger.valueOf(21)));
+        assertEquals("ipfs://21", tokenScore.call("tokenURI", BigInteger.valueOf(21)));
+        assertEquals(BigInteger.valueOf(3), ((Map<?, ?>) tokenScore.call("getImportStatus")).get("importedItems"));
+
+        // Imported ids behave like minted ones
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "mint", BigInteger.valueOf(21), BigInteger.ONE, "uri"));
+        transfer(bob, BigInteger.valueOf(21), BigInteger.valueOf(40));
+        assertEquals(BigInteger.valueOf(90), balanceOf(bob, BigInteger.valueOf(21)));
+
+        tokenScore.invoke(owner, "sealImport");
+        assertEquals(true, ((Map<?, ?>) tokenScore.call("getImportStatus")).get("sealed"));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "createJob", "import", new byte[32]));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void listsTokensAndCreatorTokensInMintOrder() {
+        Account bob = sm.createAccount();
+        String ownerKey = NETWORK_ID + "/" + owner.getAddress().toString();
+        String bobKey = NETWORK_ID + "/" + bob.getAddress().toString();
+        tokenScore.invoke(owner, "mint", BigInteger.valueOf(30), BigInteger.valueOf(5), "uri/30");
+        tokenScore.invoke(bob, "mint", BigInteger.valueOf(31), BigInteger.valueOf(6), "uri/31");
+        tokenScore.invoke(owner, "mint", BigInteger.valueOf(32), BigInteger.valueOf(7), "uri/32");
+        tokenScore.invoke(owner, "burn", BigInteger.valueOf(32), BigInteger.valueOf(2));
+
+        Map<String, Object> page = (Map<String, Object>) tokenScore.call("tokens", 0, 2);
+        assertEquals(3, page.get("total"));
+        List<Map<String, Object>> tokens = (List<Map<String, Object>>) page.get("tokens");
+        assertEquals(2, tokens.size());
+        assertEquals(BigInteger.valueOf(30), tokens.get(0).get("id"));
+        assertEquals("uri/30", tokens.get(0).get("uri"));
+        assertEquals(ownerKey, tokens.get(0).get("creator"));
+        assertEquals(BigInteger.valueOf(5), tokens.get(0).get("supply"));
+        assertEquals(bobKey, tokens.get(1).get("creator"));
+
+        tokens = (List<Map<String, Object>>) ((Map<String, Object>) tokenScore.call("tokens", 2, 10)).get("tokens");
+        assertEquals(1, tokens.size());
+        assertEquals(BigInteger.valueOf(32), tokens.get(0).get("id"));
+        assertEquals(BigInteger.valueOf(5), tokens.get(0).get("supply"));
+        assertEquals(0, ((List<Object>) ((Map<String, Object>) tokenScore.call("tokens", 3, 10)).get("tokens")).size());
+
+        // Creators are accepted in any address format
+        page = (Map<String, Object>) tokenScore.call("creatorTokens", owner.getAddress().toString(), 0, 10);
+        assertEquals(2, page.get("total"));
+        tokens = (List<Map<String, Object>>) page.get("tokens");
+        assertEquals(BigInteger.valueOf(30), tokens.get(0).get("id"));
+        assertEquals(BigInteger.valueOf(32), tokens.get(1).get("id"));
+        assertEquals(1, ((Map<String, Object>) tokenScore.call("creatorTokens", bobKey, 0, 10)).get("total"));
+        assertEquals(0, ((Map<String, Object>) tokenScore.call("creatorTokens", BSC_NETWORK_ID + "/0xb0b", 0, 10)).get("total"));
+
+        assertThrows(Throwable.class, () -> tokenScore.call("tokens", 0, TokenCatalog.MAX_PAGE + 1));
+        assertThrows(Throwable.class, () -> tokenScore.call("tokens", -1, 10));
+
+        // New deployments list every id as it is minted, there is nothing to backfill
+        assertEquals(false, ((Map<String, Object>) tokenScore.call("getCatalogStatus")).get("backfilling"));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(owner, "addCatalogIds", (Object) new BigInteger[] { BigInteger.ONE }));
+        assertThrows(Throwable.class, () -> tokenScore.invoke(relayer, "indexStep", 1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void backfillsIdsMintedBeforeTheCatalog() throws Exception {
+        Score legacy = sm.deploy(owner, LegacyLayoutToken.class, false);
+        legacy.invoke(owner, "setNetworkID", NETWORK_ID);
+        Account creator = sm.createAccount();
+        String creatorKey = NETWORK_ID + "/" + creator.getAddress().toString();
+        legacy.invoke(owner, "seedCreators", BigInteger.valueOf(100), 3, creatorKey);
+        legacy.invoke(owner, "upgradeFromSchema", 1);
+        assertEquals(true, ((Map<String, Object>) legacy.call("getCatalogStatus")).get("backfilling"));
+
+        // Ids minted after the upgrade are listed right away
+        legacy.invoke(owner, "mint", BigInteger.valueOf(7), BigInteger.ONE, "uri/7");
+        assertEquals(1, ((Map<String, Object>) legacy.call("tokens", 0, 10)).get("total"));
+
+        // Duplicates, ids listed since the upgrade and ids that were never minted are skipped
+        BigInteger[] queued = new BigInteger[] { BigInteger.valueOf(100), BigInteger.valueOf(101), BigInteger.valueOf(7),
+                BigInteger.valueOf(100), BigInteger.valueOf(555), BigInteger.valueOf(102) };
+        assertThrows(Throwable.class, () -> legacy.invoke(creator, "addCatalogIds", (Object) queued));
+        legacy.invoke(owner, "addCatalogIds", (Object) queued);
+        legacy.invoke(relayer, "indexStep", 2);
+        assertThrows(Throwable.class, () -> legacy.invoke(owner, "completeCatalogBackfill"));
+        legacy.invoke(relayer, "indexStep", 10);
+        legacy.invoke(owner, "completeCatalogBackfill");
+
+        Map<String, Object> status = (Map<String, Object>) legacy.call("getCatalogStatus");
+        assertEquals(false, status.get("backfilling"));
+        assertEquals(4, status.get("tokens"));
+        assertEquals(0, status.get("remaining"));
+
+        List<Map<String, Object>> tokens = (List<Map<String, Object>>) ((Map<String, Object>) legacy.call("tokens", 0, 10)).get("tokens");
+        BigInteger[] expected = new BigInteger[] { BigInteger.valueOf(7), BigInteger.valueOf(100), BigInteger.valueOf(101), BigInteger.valueOf(102) };
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], tokens.get(i).get("id"));
+        assertEquals(creatorKey, tokens.get(1).get("creator"));
+
+        Map<String, Object> page = (Map<String, Object>) legacy.call("creatorTokens", creatorKey, 0, 10);
+        assertEquals(3, page.get("total"));
+        assertThrows(Throwable.class, () -> legacy.invoke(relayer, "indexStep", 1));
+    }
+
+    /**
+     * Queues a message from a remote sender and has the relayer deliver it
+     * @param nonce the message nonce, or null to send none
+     * @return the request ID
+     */
+    private BigInteger deliver(String from, String method, BigInteger nonce, JsonObject data) {
+        JsonObject message = Json.object().add("method", method);
+        if (nonce != null)
+            message.add("nonce", "0x" + nonce.toString(16));
+        message.add("data", data);
+
+        BigInteger reqId = ((MockXCall) xcallScore.getInstance()).queue("btp://" + from, tokenScore.getAddress(),
+                message.toString().getBytes());
+        xcallScore.invoke(relayer, "executeCall", reqId);
+        return reqId;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> validate(String from, String method, BigInteger nonce, JsonObject data) {
+        JsonObject message = Json.object().add("method", method);
+        if (nonce != null)
+            message.add("nonce", "0x" + nonce.toString(16));
+        message.add("data", data);
+        return (Map<String, Object>) tokenScore.call("validateCallMessage", "btp://" + from, message.toString().getBytes());
+    }
+
+    private static void assertReason(String expected, Map<String, Object> result) {
+        assertEquals(false, result.get("valid"));
+        assertTrue(((String) result.get("reason")).contains(expected), (String) result.get("reason"));
+    }
+
+    private MockXCall mockXCall() {
+        return (MockXCall) xcallScore.getInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> nonceStatus(String sender) {
+        return (Map<String, Object>) tokenScore.call("getInboundNonceStatus", sender);
+    }
+
+    private void fundRemote(String remoteOwner, BigInteger id, BigInteger amount) {
+        tokenScore.invoke(owner, "mint", id, amount, "uri");
+        transfer(remoteOwner, id, amount);
+    }
+
+    private void transfer(String to, BigInteger id, BigInteger amount) {
+        tokenScore.invoke(owner, "x_transferFrom", owner.getAddress().toString(), to, id, amount, new byte[0]);
+    }
+
+    private static void assertAllSucceeded(List<Delivery> deliveries) {
+        List<String> errors = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (!delivery.success)
+                errors.add(delivery.id + ": " + delivery.error);
+        }
+        assertTrue(errors.isEmpty(), "failed deliveries: " + errors);
+    }
+
+    private static JsonObject transferData(String from, String to, BigInteger id, BigInteger value) {
+        return Json.object()
+                .add("_from", from)
+                .add("_to", to)
+                .add("_ids", Json.array().add("0x" + id.toString(16)))
+                .add("_values", Json.array().add("0x" + value.toString(16)));
+    }
+
+    private BigInteger balanceOf(String owner, BigInteger id) {
+        return (BigInteger) tokenScore.call("x_balanceOf", owner, id);
+    }
+
+    /**
+     * Encodes a permit for relayTransfers, signing the message returned by getPermitMessage
+     */
+    private byte[] permit(Function<byte[], byte[]> sign, String from, String to, BigInteger[] ids, BigInteger[] values,
+            BigInteger nonce, BigInteger expiry) {
+        byte[] message = (byte[]) tokenScore.call("getPermitMessage", from, to, ids, values, nonce, expiry);
+        byte[][] idItems = new byte[ids.length][];
+        byte[][] valueItems = new byte[values.length][];
+        for (int i = 0; i < ids.length; i++) {
+            idItems[i] = rlpInteger(ids[i]);
+            valueItems[i] = rlpInteger(values[i]);
+        }
+        return rlpList(rlpString(from), rlpString(to), rlpList(idItems), rlpList(valueItems), rlpInteger(nonce),
+                rlpInteger(expiry), rlpBytes(sign.apply(message)));
+    }
+
+    private static byte[] jobTransfer(String to, long id, long value) {
+        return rlpList(rlpString(to), rlpInteger(BigInteger.valueOf(id)), rlpInteger(BigInteger.valueOf(value)));
+    }
+
+    /**
+     * Returns the chained hash of job chunks, h = sha3-256(h || chunk) starting from 32 zero bytes
+     */
+    private static byte[] jobHash(byte[][] chunks) {
+        byte[] hash = new byte[32];
+        for (byte[] chunk : chunks) {
+            SHA3Digest digest = new SHA3Digest(256);
+            byte[] chained = concat(hash, chunk);
+            digest.update(chained, 0, chained.length);
+            hash = new byte[32];
+            digest.doFinal(hash, 0);
+        }
+        return hash;
+    }
+
+    private static byte[] rlpInteger(BigInteger value) {
+        return rlpBytes(value.toByteArray());
+    }
+
+    private static byte[] rlpString(String value) {
+        return rlpBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] rlpBytes(byte[] value) {
+        if (value.length == 1 && (value[0] & 0xff) < 0x80)
+            return value;
+        return concat(rlpHeader(0x80, value.length), value);
+    }
+
+    private static byte[] rlpList(byte[]... items) {
+        byte[] payload = new byte[0];
+        for (byte[] item : items)
+            payload = concat(payload, item);
+        return concat(rlpHeader(0xc0, payload.length), payload);
+    }
+
+    private static byte[] rlpHeader(int offset, int length) {
+        if (length <= 55)
+            return new byte[] { (byte) (offset + length) };
+        byte[] lengthBytes = BigInteger.valueOf(length).toByteArray();
+        int start = lengthBytes[0] == 0 ? 1 : 0;
+        byte[] header = new byte[1 + lengthBytes.length - start];
+        header[0] = (byte) (offset + 55 + header.length - 1);
+        System.arraycopy(lengthBytes, start, header, 1, header.length - 1);
+        return header;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
 }